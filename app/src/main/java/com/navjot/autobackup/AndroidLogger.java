@@ -0,0 +1,20 @@
+package com.navjot.autobackup;
+
+import android.util.Log;
+
+/**
+ * AndroidLogger
+ * =============
+ * Sends engine logging to logcat under the engine class's own tag.
+ */
+public class AndroidLogger implements Logger {
+
+    @Override
+    public void log(int level, String tag, String message, Throwable error) {
+        if (error != null) {
+            Log.println(level, tag, message + '\n' + Log.getStackTraceString(error));
+        } else {
+            Log.println(level, tag, message);
+        }
+    }
+}
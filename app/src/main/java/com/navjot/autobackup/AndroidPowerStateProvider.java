@@ -0,0 +1,40 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+/**
+ * AndroidPowerStateProvider
+ * =========================
+ * Reads battery level and plug state from the sticky battery broadcast,
+ * thermal status, idle and battery-saver mode from PowerManager.
+ */
+public class AndroidPowerStateProvider implements PowerState.Provider {
+
+    private final Context context;
+
+    public AndroidPowerStateProvider(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public PowerState current() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int percent = 100;
+        boolean charging = false;
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) percent = level * 100 / scale;
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        int thermal = pm != null ? pm.getCurrentThermalStatus() : PowerState.THERMAL_NONE;
+        boolean idle = pm != null && pm.isDeviceIdleMode();
+        boolean powerSave = pm != null && pm.isPowerSaveMode();
+        return new PowerState(percent, charging, thermal, idle, powerSave);
+    }
+}
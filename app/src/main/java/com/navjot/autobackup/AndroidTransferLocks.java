@@ -0,0 +1,58 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.PowerManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AndroidTransferLocks
+ * ====================
+ * The platform locks a TransferSession holds while uploading: a Wi-Fi lock
+ * that keeps the radio out of power save with the screen off, and a partial
+ * wake lock that keeps the CPU feeding it. Both are not reference counted, so
+ * renewing an acquire only moves the wake lock's timeout.
+ */
+public final class AndroidTransferLocks {
+
+    private static final String TAG = "AutoBackup:transfer";
+
+    private AndroidTransferLocks() {}
+
+    public static List<TransferSession.Lock> forUploads(Context context) {
+        Context app = context.getApplicationContext();
+        List<TransferSession.Lock> locks = new ArrayList<>();
+        WifiManager wm = (WifiManager) app.getSystemService(Context.WIFI_SERVICE);
+        if (wm != null) locks.add(wifi(wm));
+        PowerManager pm = (PowerManager) app.getSystemService(Context.POWER_SERVICE);
+        if (pm != null) locks.add(wake(pm));
+        return locks;
+    }
+
+    /**
+     * High-perf mode disables Wi-Fi power save while held; the low-latency mode
+     * only applies with the app in the foreground and the screen on.
+     */
+    @SuppressWarnings("deprecation")
+    private static TransferSession.Lock wifi(WifiManager wm) {
+        WifiManager.WifiLock lock = wm.createWifiLock(WifiManager.WIFI_MODE_FULL_HIGH_PERF, TAG);
+        lock.setReferenceCounted(false);
+        return new TransferSession.Lock() {
+            @Override public String name() { return "wifi"; }
+            // No platform timeout; TransferSession's watchdog and close() bound it
+            @Override public void acquire(long timeoutMs) { lock.acquire(); }
+            @Override public void release() { if (lock.isHeld()) lock.release(); }
+        };
+    }
+
+    private static TransferSession.Lock wake(PowerManager pm) {
+        PowerManager.WakeLock lock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        lock.setReferenceCounted(false);
+        return new TransferSession.Lock() {
+            @Override public String name() { return "wake"; }
+            @Override public void acquire(long timeoutMs) { lock.acquire(timeoutMs); }
+            @Override public void release() { if (lock.isHeld()) lock.release(); }
+        };
+    }
+}
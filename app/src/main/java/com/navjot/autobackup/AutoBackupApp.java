@@ -0,0 +1,21 @@
+package com.navjot.autobackup;
+
+import android.app.Application;
+import android.os.Process;
+
+/**
+ * AutoBackupApp
+ * =============
+ * Connects the platform-neutral engine to Android before any component runs:
+ * engine logging goes to logcat and transport benchmarks read this process's
+ * CPU time.
+ */
+public class AutoBackupApp extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        EngineLog.setLogger(new AndroidLogger());
+        TransportBenchmark.setCpuClock(Process::getElapsedCpuTime);
+    }
+}
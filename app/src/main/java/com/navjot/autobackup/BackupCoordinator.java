@@ -3,9 +3,13 @@ package com.navjot.autobackup;
 import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
-import androidx.documentfile.provider.DocumentFile;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * BackupCoordinator
@@ -19,10 +23,13 @@ public class BackupCoordinator {
     private final Context context;
     private final NetworkMonitor networkMonitor;
     private final DeviceManager deviceManager;
+    private final HostCache hostCache;
+    private final BackupEventStream events = BackupEventStream.shared();
 
     private String username, password, domain, shareName, remoteDir;
     private List<Uri> backupFolderUris;
     private List<String> fileFilter;
+    private RunBudget runBudget = RunBudget.unrestricted();
 
     /** Callback for progress/status reporting to UI or logs. */
     public interface BackupStatusCallback {
@@ -47,6 +54,7 @@ public class BackupCoordinator {
         this.fileFilter = fileFilter != null ? fileFilter : new ArrayList<>();
         this.networkMonitor = new NetworkMonitor(context);
         this.deviceManager = new DeviceManager(context);
+        this.hostCache = new HostCache(context);
     }
 
     public void setBackupFolderUris(List<Uri> folders) {
@@ -57,6 +65,11 @@ public class BackupCoordinator {
         this.fileFilter = fileTypes != null ? fileTypes : new ArrayList<>();
     }
 
+    /** Limits applied to the next run; scheduled runs pass the PowerPolicy decision. */
+    public void setRunBudget(RunBudget budget) {
+        this.runBudget = budget != null ? budget : RunBudget.unrestricted();
+    }
+
     public void setSmbParams(String user, String pass, String dom, String share, String remoteDir) {
         this.username = user;
         this.password = pass;
@@ -67,61 +80,180 @@ public class BackupCoordinator {
 
     /**
      * Start the backup process using whitelist, scan and selection callback as appropriate.
+     * Every stage runs on AppExecutors pools, never on the calling thread or on
+     * whichever thread a callback arrives on. The future completes when the run
+     * has ended; cancelling it stops discovery or the upload, whichever is running.
      */
-    public void startBackup(DeviceManager.DeviceSelectionCallback selectionCallback,
-                            BackupStatusCallback statusCallback) {
+    public CompletableFuture<Void> startBackup(DeviceManager.DeviceSelectionCallback selectionCallback,
+                                               BackupStatusCallback statusCallback) {
+        return startBackup(selectionCallback, statusCallback, null);
+    }
+
+    /**
+     * As startBackup(selectionCallback, statusCallback), and runs onFilesListed
+     * once the files the run will upload are known (see SingleFlight).
+     */
+    public CompletableFuture<Void> startBackup(DeviceManager.DeviceSelectionCallback selectionCallback,
+                                               BackupStatusCallback statusCallback,
+                                               Runnable onFilesListed) {
+        final Executor io = AppExecutors.get().io();
+        final CancelScope scope = new CancelScope();
+        CompletableFuture<Void> run = CompletableFuture
+                .supplyAsync(() -> preflight(statusCallback), io)
+                .thenCompose(networkId -> networkId == null
+                        ? CompletableFuture.<NetworkMonitor.DeviceInfo>completedFuture(null)
+                        : findTarget(networkId, selectionCallback, statusCallback, scope))
+                .thenAcceptAsync(device -> {
+                    if (device != null) runBackup(device.ip, statusCallback, onFilesListed, scope);
+                }, io);
+        run.whenComplete((v, error) -> {
+            if (run.isCancelled()) {
+                scope.cancel();
+                finishStatus(statusCallback, "Backup canceled.");
+            } else if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                Log.e(TAG, "Backup failed", cause);
+                finishStatus(statusCallback, "Backup failed: " + cause.getMessage());
+            }
+            Log.d(TAG, "Executors after run: " + AppExecutors.get().describe());
+        });
+        return run;
+    }
+
+    /** @return id of the current network, or null if the run cannot start (already reported). */
+    private String preflight(BackupStatusCallback statusCallback) {
         if (backupFolderUris.isEmpty()) {
-            logStatus(statusCallback, "No backup folders selected. Aborting backup.");
-            return;
+            finishStatus(statusCallback, "No backup folders selected. Aborting backup.");
+            return null;
         }
-
         if (!(networkMonitor.isOnWifi() || networkMonitor.isHotspotOn())) {
-            logStatus(statusCallback, "Not connected to Wi-Fi or hotspot. Skipping backup.");
-            return;
+            finishStatus(statusCallback, "Not connected to Wi-Fi or hotspot. Skipping backup.");
+            return null;
         }
+        events.phase(BackupProgress.Phase.DISCOVERY, "");
+        return networkMonitor.currentNetworkId();
+    }
 
-        // Try last chosen device first
-        DeviceManager.LastChosenDevice lastChosen = deviceManager.getLastChosenDevice();
-        if (lastChosen != null && networkMonitor.isDeviceReachable(lastChosen)) {
-            logStatus(statusCallback, "Using last chosen device " + lastChosen.ip);
-            runBackup(lastChosen.ip, statusCallback);
-            return;
+    /** Known hosts, then early-exit discovery, then a full sweep; null if there is no target. */
+    private CompletableFuture<NetworkMonitor.DeviceInfo> findTarget(String networkId,
+                                                                    DeviceManager.DeviceSelectionCallback selectionCallback,
+                                                                    BackupStatusCallback statusCallback,
+                                                                    CancelScope scope) {
+        Set<String> whitelist = deviceManager.getWhitelistedMacs();
+
+        // Known network: whitelisted hosts seen here before need no discovery at all
+        List<HostCache.Host> knownHosts = hostCache.getHosts(networkId);
+        for (HostCache.Host host : knownHosts) {
+            if (whitelist.contains(host.mac) && networkMonitor.isDeviceReachable(host)) {
+                logStatus(statusCallback, "Using known device " + host + " on this network");
+                rememberTarget(networkId, host);
+                return CompletableFuture.completedFuture(host);
+            }
         }
 
-        // Otherwise scan for devices
+        // Neighbor table and likely hosts first; stops at the first whitelisted device
+        if (!whitelist.isEmpty()) {
+            List<String> likelyIps = new ArrayList<>();
+            for (HostCache.Host host : knownHosts) likelyIps.add(host.ip);
+            DeviceManager.LastChosenDevice lastChosen = deviceManager.getLastChosenDevice();
+            if (lastChosen != null) likelyIps.add(lastChosen.ip);
+            logStatus(statusCallback, "Looking for whitelisted device...");
+            return scope.track(networkMonitor.findWhitelistedDeviceAsync(whitelist, likelyIps))
+                    .thenComposeAsync(device -> {
+                        if (device == null) return scanForDevices(networkId, selectionCallback, statusCallback, scope);
+                        rememberTarget(networkId, device);
+                        logStatus(statusCallback, "Found whitelisted device " + device);
+                        return CompletableFuture.completedFuture(device);
+                    }, AppExecutors.get().io());
+        }
+        return scanForDevices(networkId, selectionCallback, statusCallback, scope);
+    }
+
+    /** Full subnet sweep, then whitelist match or user selection. */
+    private CompletableFuture<NetworkMonitor.DeviceInfo> scanForDevices(String networkId,
+                                                                        DeviceManager.DeviceSelectionCallback selectionCallback,
+                                                                        BackupStatusCallback statusCallback,
+                                                                        CancelScope scope) {
+        final Executor io = AppExecutors.get().io();
         logStatus(statusCallback, "Scanning subnet for devices...");
-        networkMonitor.scanSubnetAsync(devices -> {
+        return scope.track(networkMonitor.scanSubnetAsync()).thenComposeAsync(devices -> {
+            hostCache.recordHosts(networkId, devices);
             List<NetworkMonitor.DeviceInfo> whitelisted = deviceManager.getWhitelistedDevices(devices);
             if (whitelisted.size() == 1) {
-                deviceManager.cacheLastChosenDevice(whitelisted.get(0));
-                runBackup(whitelisted.get(0).ip, statusCallback);
-            } else if (selectionCallback != null) {
-                selectionCallback.onSelectDevice(devices, chosen -> {
-                    if (chosen != null) {
-                        deviceManager.addToWhitelist(chosen.mac);
-                        deviceManager.cacheLastChosenDevice(chosen);
-                        runBackup(chosen.ip, statusCallback);
-                    } else {
-                        logStatus(statusCallback, "Backup canceled: no device selected.");
-                    }
-                });
-            } else {
-                logStatus(statusCallback, "Multiple/no whitelisted devices & no UI; skipping backup.");
+                rememberTarget(networkId, whitelisted.get(0));
+                return CompletableFuture.completedFuture(whitelisted.get(0));
             }
-        });
+            if (selectionCallback == null) {
+                finishStatus(statusCallback, "Multiple/no whitelisted devices & no UI; skipping backup.");
+                return CompletableFuture.completedFuture(null);
+            }
+            // The choice arrives on the UI thread; the run continues on the io pool
+            CompletableFuture<NetworkMonitor.DeviceInfo> choice = scope.track(new CompletableFuture<>());
+            selectionCallback.onSelectDevice(devices, choice::complete);
+            return choice.thenApplyAsync(chosen -> {
+                if (chosen == null) {
+                    finishStatus(statusCallback, "Backup canceled: no device selected.");
+                    return null;
+                }
+                deviceManager.addToWhitelist(chosen.mac);
+                rememberTarget(networkId, chosen);
+                return chosen;
+            }, io);
+        }, io);
+    }
+
+    /**
+     * Caches the chosen target as last device and in this network's host cache.
+     * Its hostname and SMB port are only probed when the cached entry is
+     * missing or stale; otherwise it is just marked as seen.
+     */
+    private void rememberTarget(String networkId, NetworkMonitor.DeviceInfo device) {
+        deviceManager.cacheLastChosenDevice(device);
+        if (!hostCache.needsProbe(networkId, device)) {
+            hostCache.recordHosts(networkId, Collections.singletonList(device));
+            return;
+        }
+        String hostname = device instanceof HostCache.Host ? ((HostCache.Host) device).hostname : null;
+        if (hostname == null) hostname = networkMonitor.resolveHostname(device.ip);
+        hostCache.recordHost(networkId, device, hostname, networkMonitor.isSmbOpen(device.ip, 300));
     }
 
     /** Internal method to perform file backup to specified device IP. */
-    private void runBackup(String ip, BackupStatusCallback statusCallback) {
+    private void runBackup(String ip, BackupStatusCallback statusCallback, Runnable onFilesListed,
+                           CancelScope scope) {
+        scope.throwIfCancelled();
         logStatus(statusCallback, "Starting backup to " + ip + "...");
+        events.phase(BackupProgress.Phase.ENUMERATING, ip);
         FileBackupManager fbm = new FileBackupManager(context, ip, shareName, username, password, domain, remoteDir);
-        List<DocumentFile> files = fbm.getNewFilesToBackup(backupFolderUris, fileFilter);
+        scope.onCancel(fbm::cancel);
+        List<BackupItem> files = fbm.resumeInterruptedRun();
+        if (files != null) {
+            logStatus(statusCallback, "Resuming interrupted backup (" + files.size() + " files remaining)");
+        } else {
+            files = fbm.getNewFilesToBackup(backupFolderUris, fileFilter, scope);
+        }
+        if (onFilesListed != null) onFilesListed.run();
+        scope.throwIfCancelled();
         if (files.isEmpty()) {
-            logStatus(statusCallback, "No new/changed files to backup.");
+            finishStatus(statusCallback, "No new/changed files to backup.");
         } else {
-            int successCount = fbm.backupFiles(files);
-            logStatus(statusCallback, "Backup complete to " + ip +
-                    " (" + successCount + "/" + files.size() + " files uploaded)");
+            long plannedBytes = 0;
+            for (BackupItem item : files) plannedBytes += Math.max(0, item.size);
+            events.planned(files.size(), plannedBytes, new BackupPlanner(context)
+                    .estimateMs(BackupPlanner.targetKey(ip, shareName), files.size(), plannedBytes));
+            events.phase(BackupProgress.Phase.UPLOADING, ip);
+            int successCount = fbm.backupFiles(files, runBudget);
+            // A canceled run was already reported; files not uploaded are picked up next time
+            if (scope.isCancelled()) return;
+            UploadRunner.Result result = fbm.getLastResult();
+            if (result != null && result.abortReason != null) {
+                finishStatus(statusCallback, "Backup to " + ip + " stopped: " + result.abortReason + " ("
+                        + successCount + "/" + files.size() + " files uploaded, rest next run)");
+            } else {
+                finishStatus(statusCallback, "Backup complete to " + ip +
+                        " (" + successCount + "/" + files.size() + " files uploaded)");
+            }
             BackupNotifier.notifyResult(context, successCount, files.size(), ip);
         }
     }
@@ -131,16 +263,14 @@ public class BackupCoordinator {
         if (cb != null) cb.onStatus(msg);
     }
 
-    /** Original scan method (no progress reporting). */
-    public void scanDevices(NetworkMonitor.ScanCallback callback) {
-        networkMonitor.scanSubnetAsync(callback);
+    /** Reports the message that ends a run, also as the final phase of the event stream. */
+    private void finishStatus(BackupStatusCallback cb, String msg) {
+        events.phase(BackupProgress.Phase.FINISHED, msg);
+        logStatus(cb, msg);
     }
 
-    /** New: Scan method with progress reporting.
-     * Pass in a NetworkMonitor.ScanProgressCallback to update a UI ProgressBar.
-     */
-    public void scanDevicesWithProgress(NetworkMonitor.ScanProgressCallback progressCb,
-                                        NetworkMonitor.ScanCallback callback) {
-        networkMonitor.scanSubnetAsync(progressCb, callback);
+    /** Scans the subnet; progress is published on BackupEventStream. */
+    public CompletableFuture<List<NetworkMonitor.DeviceInfo>> scanDevices() {
+        return networkMonitor.scanSubnetAsync();
     }
 }
@@ -0,0 +1,287 @@
+package com.navjot.autobackup;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BackupIndex
+ * ===========
+ * Local catalog of every file in the selected folders that passes the filter:
+ * document, size, mtime, content hash and upload state. BackupIndexer keeps it
+ * current in the background, so a run reads its work list from here instead
+ * of walking the folders. Between walks it is caught up from MediaStore
+ * changes, as of the stamp saved per storage volume. Pending rows are covered
+ * by a partial index, so listing them costs O(pending), not O(catalog).
+ */
+public class BackupIndex extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "backup_index.db";
+    private static final int DB_VERSION = 2;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_UPLOADED = 1;
+
+    private static final String KEY_SIGNATURE = "signature";
+    private static final String KEY_COMPLETED_AT = "completed_at";
+    private static final String KEY_MEDIA_STAMP = "media_gen:";
+
+    private static BackupIndex instance;
+
+    /** One catalog entry to be written by a scan. */
+    public static class Entry {
+        final BackupItem item;
+        final boolean uploaded;
+
+        public Entry(BackupItem item, boolean uploaded) {
+            this.item = item;
+            this.uploaded = uploaded;
+        }
+    }
+
+    /** A pending file whose content has not been hashed yet. */
+    public static class Unhashed {
+        public final String documentUri;
+        public final long size;
+
+        Unhashed(String documentUri, long size) {
+            this.documentUri = documentUri;
+            this.size = size;
+        }
+    }
+
+    public static synchronized BackupIndex get(Context context) {
+        if (instance == null) instance = new BackupIndex(context.getApplicationContext());
+        return instance;
+    }
+
+    private BackupIndex(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE files ("
+                + "document_uri TEXT PRIMARY KEY, "
+                + "folder_uri TEXT NOT NULL, "
+                + "name TEXT NOT NULL, "
+                // Directory below the selected folder, mirrored on the target
+                + "rel_dir TEXT NOT NULL, "
+                + "size INTEGER NOT NULL, "
+                + "mtime INTEGER NOT NULL, "
+                + "hash TEXT, "
+                // Hash of the content last uploaded under this document, to spot touched but unchanged files
+                + "uploaded_hash TEXT, "
+                + "state INTEGER NOT NULL, "
+                + "scan_gen INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX files_pending ON files(state) WHERE state = " + STATE_PENDING);
+        db.execSQL("CREATE TABLE meta (key TEXT PRIMARY KEY, value TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The catalog is derived data; a rescan rebuilds it
+        db.execSQL("DROP TABLE IF EXISTS files");
+        db.execSQL("DROP TABLE IF EXISTS meta");
+        onCreate(db);
+    }
+
+    /**
+     * Whether the last complete scan used the same folders and filter rules and
+     * finished less than maxAgeMs ago, so its pending list can stand in for a walk.
+     */
+    public synchronized boolean isFresh(String signature, long maxAgeMs) {
+        if (!signature.equals(getMeta(KEY_SIGNATURE))) return false;
+        String completedAt = getMeta(KEY_COMPLETED_AT);
+        return completedAt != null && System.currentTimeMillis() - Long.parseLong(completedAt) < maxAgeMs;
+    }
+
+    /** When the last complete scan finished, or 0 if there never was one. */
+    public synchronized long completedAt() {
+        String completedAt = getMeta(KEY_COMPLETED_AT);
+        return completedAt != null ? Long.parseLong(completedAt) : 0;
+    }
+
+    /** Generation stamped on every row a scan sees; rows left with an older one were deleted. */
+    public synchronized long beginScan() {
+        String last = getMeta("scan_gen");
+        long gen = last != null ? Long.parseLong(last) + 1 : 1;
+        putMeta("scan_gen", Long.toString(gen));
+        return gen;
+    }
+
+    /**
+     * Writes a batch of scanned files in one transaction. Unchanged rows only
+     * get the new generation; new or changed ones lose their hash and become
+     * pending unless upload history already has them.
+     */
+    public synchronized void record(List<Entry> batch, long gen) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement touch = db.compileStatement(
+                     "UPDATE files SET scan_gen = ?, name = ?, rel_dir = ? "
+                             + "WHERE document_uri = ? AND size = ? AND mtime = ?");
+             SQLiteStatement upsert = db.compileStatement(
+                     "INSERT INTO files (document_uri, folder_uri, name, rel_dir, size, mtime, state, scan_gen) "
+                             + "VALUES (?, ?, ?, ?, ?, ?, ?, ?) ON CONFLICT(document_uri) DO UPDATE SET "
+                             + "folder_uri = excluded.folder_uri, name = excluded.name, "
+                             + "rel_dir = excluded.rel_dir, size = excluded.size, "
+                             + "mtime = excluded.mtime, hash = NULL, state = excluded.state, "
+                             + "scan_gen = excluded.scan_gen")) {
+            for (Entry e : batch) {
+                BackupItem item = e.item;
+                touch.bindLong(1, gen);
+                touch.bindString(2, item.name);
+                touch.bindString(3, item.relativeDir);
+                touch.bindString(4, item.documentUri);
+                touch.bindLong(5, item.size);
+                touch.bindLong(6, item.lastModified);
+                if (touch.executeUpdateDelete() > 0) continue;
+                upsert.bindString(1, item.documentUri);
+                upsert.bindString(2, item.folderUri);
+                upsert.bindString(3, item.name);
+                upsert.bindString(4, item.relativeDir);
+                upsert.bindLong(5, item.size);
+                upsert.bindLong(6, item.lastModified);
+                upsert.bindLong(7, e.uploaded ? STATE_UPLOADED : STATE_PENDING);
+                upsert.bindLong(8, gen);
+                upsert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Ends a complete scan: drops every file it did not see (deleted, filtered
+     * out or in a folder no longer selected) and records the signature.
+     * @param mediaStamps MediaStore stamp per volume taken before the walk began
+     */
+    public synchronized void finishScan(long gen, String signature, Map<String, String> mediaStamps) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM files WHERE scan_gen < ?", new Object[] { gen });
+            db.execSQL("DELETE FROM meta WHERE key LIKE ?", new Object[] { KEY_MEDIA_STAMP + "%" });
+            putMeta(KEY_SIGNATURE, signature);
+            putMeta(KEY_COMPLETED_AT, Long.toString(System.currentTimeMillis()));
+            for (Map.Entry<String, String> e : mediaStamps.entrySet()) {
+                putMeta(KEY_MEDIA_STAMP + e.getKey(), e.getValue());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /** MediaStore stamp of a volume the index is current with, or null if none was saved. */
+    public synchronized String mediaStamp(String volume) {
+        return getMeta(KEY_MEDIA_STAMP + volume);
+    }
+
+    /**
+     * Writes files found changed since the last walk, like record, and moves
+     * the volumes' stamps on. The rows count as seen by the last walk.
+     */
+    public synchronized void recordChanges(List<Entry> batch, Map<String, String> mediaStamps) {
+        String last = getMeta("scan_gen");
+        record(batch, last != null ? Long.parseLong(last) : 0);
+        for (Map.Entry<String, String> e : mediaStamps.entrySet()) {
+            putMeta(KEY_MEDIA_STAMP + e.getKey(), e.getValue());
+        }
+    }
+
+    /** Files still to upload, read through the partial index. */
+    public synchronized List<BackupItem> pending() {
+        List<BackupItem> items = new ArrayList<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT folder_uri, rel_dir, document_uri, name, size, mtime FROM files WHERE state = "
+                        + STATE_PENDING, null)) {
+            while (c.moveToNext()) {
+                items.add(new BackupItem(c.getString(0), c.getString(1), c.getString(2), c.getString(3),
+                        c.getLong(4), c.getLong(5)));
+            }
+        }
+        return items;
+    }
+
+    /** Count and total size of pending files, from the partial index without reading rows. */
+    public synchronized long[] pendingTotals() {
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT COUNT(*), TOTAL(size) FROM files WHERE state = " + STATE_PENDING, null)) {
+            c.moveToFirst();
+            return new long[] { c.getLong(0), c.getLong(1) };
+        }
+    }
+
+    /** File count, total and pending bytes per indexed folder, keyed by folder URI; names are left null. */
+    public synchronized Map<String, FolderStats> folderStats() {
+        Map<String, FolderStats> totals = new HashMap<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT folder_uri, COUNT(*), SUM(size), SUM(CASE WHEN state = " + STATE_PENDING
+                        + " THEN size ELSE 0 END) FROM files GROUP BY folder_uri", null)) {
+            while (c.moveToNext()) {
+                totals.put(c.getString(0), new FolderStats(c.getString(0), null,
+                        c.getLong(1), c.getLong(2), c.getLong(3)));
+            }
+        }
+        return totals;
+    }
+
+    /** Up to limit pending files that have no content hash yet, smallest first, skipping the first skip. */
+    public synchronized List<Unhashed> unhashed(int skip, int limit) {
+        List<Unhashed> files = new ArrayList<>();
+        try (Cursor c = getReadableDatabase().rawQuery(
+                "SELECT document_uri, size FROM files WHERE state = " + STATE_PENDING
+                        + " AND hash IS NULL ORDER BY size, document_uri LIMIT " + limit + " OFFSET " + skip, null)) {
+            while (c.moveToNext()) files.add(new Unhashed(c.getString(0), c.getLong(1)));
+        }
+        return files;
+    }
+
+    /**
+     * Stores a content hash. A file whose content matches what was last uploaded
+     * for it (only its mtime moved) is settled without sending a byte.
+     * @return true if that made the file uploaded.
+     */
+    public synchronized boolean setHash(String documentUri, String hash) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put("hash", hash);
+        db.update("files", values, "document_uri = ?", new String[] { documentUri });
+        values.put("state", STATE_UPLOADED);
+        return db.update("files", values, "document_uri = ? AND uploaded_hash = ?",
+                new String[] { documentUri, hash }) > 0;
+    }
+
+    /** Marks a file uploaded, remembering the hash of what was sent if it is known. */
+    public synchronized void markUploaded(BackupItem item) {
+        getWritableDatabase().execSQL("UPDATE files SET state = " + STATE_UPLOADED
+                        + ", uploaded_hash = hash WHERE document_uri = ? AND size = ? AND mtime = ?",
+                new Object[] { item.documentUri, item.size, item.lastModified });
+    }
+
+    private String getMeta(String key) {
+        try (Cursor c = getReadableDatabase().rawQuery("SELECT value FROM meta WHERE key = ?",
+                new String[] { key })) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
+    private void putMeta(String key, String value) {
+        ContentValues values = new ContentValues();
+        values.put("key", key);
+        values.put("value", value);
+        getWritableDatabase().insertWithOnConflict("meta", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
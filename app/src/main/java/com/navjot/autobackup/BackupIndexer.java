@@ -0,0 +1,200 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BackupIndexer
+ * =============
+ * Keeps the BackupIndex current: walks the selected folders (the same
+ * parallel scan and filter a run uses) and writes what it finds in batches,
+ * then hashes pending files. Runs from IndexJobService while the phone is
+ * charging and idle, and from a run itself when the index is stale, so the
+ * window in which the target is reachable is spent on uploads. Between walks
+ * a run catches the index up with the files MediaStore saw change.
+ */
+public class BackupIndexer {
+
+    private static final String TAG = "BackupIndexer";
+    private static final int BATCH_SIZE = 500;
+    private static final int HASH_BATCH = 64;
+    /** Walks are serialised: a later finishScan would drop rows an overlapping walk stamped. */
+    private static final Object REFRESH_LOCK = new Object();
+
+    private final Context context;
+    private final BackupIndex index;
+
+    public BackupIndexer(Context context) {
+        this.context = context.getApplicationContext();
+        this.index = BackupIndex.get(context);
+    }
+
+    /** Identifies the folders and filter rules an index was built for. */
+    public static String signature(List<Uri> folderUris, List<String> filterRules) {
+        return folderUris + "|" + filterRules;
+    }
+
+    /**
+     * Walks the folders and brings the catalog in line with them. A cancelled
+     * walk keeps the rows it wrote but does not mark the index fresh.
+     * @param uploaded upload history keys; new files found in it are not pending.
+     */
+    public void refresh(List<Uri> folderUris, List<String> filterRules, Set<String> uploaded, CancelScope scope) {
+        synchronized (REFRESH_LOCK) {
+            walk(folderUris, filterRules, uploaded, scope);
+        }
+    }
+
+    /**
+     * Brings a fresh index up to date with the files MediaStore reports
+     * created or modified since it was last current, without listing a folder.
+     * Each is read back through its tree and filtered as a walk would.
+     * @return false if some folder is outside MediaStore or its volume cannot
+     *         be compared, so only a walk can bring the index up to date.
+     */
+    public boolean catchUp(List<Uri> folderUris, List<String> filterRules, Set<String> uploaded,
+                           CancelScope scope) {
+        synchronized (REFRESH_LOCK) {
+            List<String> trees = new ArrayList<>();
+            Map<String, String> saved = new HashMap<>();
+            for (Uri folderUri : folderUris) {
+                String volume = MediaStoreDelta.volumeOf(folderUri.toString());
+                String stamp = volume != null ? index.mediaStamp(volume) : null;
+                if (stamp == null) return false;
+                trees.add(folderUri.toString());
+                saved.put(volume, stamp);
+            }
+            final BackupFilter filter = BackupFilter.compile(filterRules);
+            final SafDocumentLister lister = new SafDocumentLister(context);
+            final MediaStoreDelta delta = new MediaStoreDelta(context);
+            final List<BackupIndex.Entry> batch = new ArrayList<>();
+            Map<String, String> stamps = new HashMap<>();
+            for (Map.Entry<String, String> volume : saved.entrySet()) {
+                // Taken first: a file changing during the query is seen again next time
+                stamps.put(volume.getKey(), delta.stamp(volume.getKey()));
+                List<MediaStoreDelta.Change> changes = delta.changedSince(volume.getKey(), volume.getValue(), trees);
+                if (changes == null) return false;
+                for (MediaStoreDelta.Change change : changes) {
+                    scope.throwIfCancelled();
+                    if (!descends(filter, lister, change)) continue;
+                    lister.describe(change.treeUri, change.documentId, (id, name, mime, size, lastModified) -> {
+                        if (DocumentLister.DIRECTORY_MIME.equals(mime)
+                                || !filter.accepts(name, mime, size, lastModified)) {
+                            return;
+                        }
+                        BackupItem item = new BackupItem(change.treeUri, change.relativeDir,
+                                lister.documentUri(change.treeUri, id), name, size, lastModified);
+                        batch.add(new BackupIndex.Entry(item, uploaded.contains(item.historyKey())));
+                    });
+                }
+            }
+            index.recordChanges(batch, stamps);
+            Log.i(TAG, "Caught up with " + batch.size() + " changed files");
+            return true;
+        }
+    }
+
+    /** Whether a walk would have entered every directory between the tree root and the file. */
+    private static boolean descends(BackupFilter filter, SafDocumentLister lister, MediaStoreDelta.Change change) {
+        if (change.relativeDir.isEmpty()) return true;
+        String dirId = lister.rootDocumentId(change.treeUri);
+        for (String name : change.relativeDir.split("/")) {
+            dirId = dirId.endsWith(":") ? dirId + name : dirId + "/" + name;
+            if (!filter.descends(dirId, name)) return false;
+        }
+        return true;
+    }
+
+    private void walk(List<Uri> folderUris, List<String> filterRules, Set<String> uploaded, CancelScope scope) {
+        final BackupFilter filter = BackupFilter.compile(filterRules);
+        final SafDocumentLister lister = new SafDocumentLister(context);
+        final long gen = index.beginScan();
+        final List<BackupIndex.Entry> batch = new ArrayList<>();
+        List<String> trees = new ArrayList<>();
+        for (Uri folderUri : folderUris) trees.add(folderUri.toString());
+        // Stamped before the walk, so files added while it runs are caught up later
+        MediaStoreDelta delta = new MediaStoreDelta(context);
+        Map<String, String> stamps = new HashMap<>();
+        for (String tree : trees) {
+            String volume = MediaStoreDelta.volumeOf(tree);
+            if (volume != null && !stamps.containsKey(volume)) stamps.put(volume, delta.stamp(volume));
+        }
+
+        long start = System.currentTimeMillis();
+        FolderScanner scanner = new FolderScanner(lister, AppExecutors.get().enumeration());
+        scanner.setDirectoryFilter(filter);
+        scanner.scan(trees, (treeUri, dir, documentId, name, mime, size, lastModified) -> {
+            if (scope.isCancelled() || !filter.accepts(name, mime, size, lastModified)) return;
+            BackupItem item = new BackupItem(treeUri, dir, lister.documentUri(treeUri, documentId),
+                    name, size, lastModified);
+            List<BackupIndex.Entry> full = null;
+            synchronized (batch) {
+                batch.add(new BackupIndex.Entry(item, uploaded.contains(item.historyKey())));
+                if (batch.size() >= BATCH_SIZE) {
+                    full = new ArrayList<>(batch);
+                    batch.clear();
+                }
+            }
+            if (full != null) index.record(full, gen);
+        });
+        index.record(batch, gen);
+        scope.throwIfCancelled();
+        index.finishScan(gen, signature(folderUris, filterRules), stamps);
+        Log.i(TAG, "Indexed " + trees.size() + " folders in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Hashes pending files until none are left or the scope is cancelled.
+     * @return files found unchanged since their last upload, now settled.
+     */
+    public int hashPending(CancelScope scope) {
+        int settled = 0, hashed = 0, unreadable = 0;
+        List<BackupIndex.Unhashed> files;
+        // Files before the cursor were hashed (and left the query) or unreadable; the next job retries those
+        while (!scope.isCancelled() && !(files = index.unhashed(unreadable, HASH_BATCH)).isEmpty()) {
+            for (BackupIndex.Unhashed file : files) {
+                if (scope.isCancelled()) break;
+                String hash = hash(file.documentUri, scope);
+                if (hash == null) {
+                    unreadable++;
+                    continue;
+                }
+                hashed++;
+                if (index.setHash(file.documentUri, hash)) settled++;
+            }
+        }
+        Log.i(TAG, "Hashed " + hashed + " pending files, " + settled + " unchanged since last upload");
+        return settled;
+    }
+
+    /** SHA-256 of a document as hex, or null if it cannot be read or the scope was cancelled. */
+    private String hash(String documentUri, CancelScope scope) {
+        try (InputStream in = context.getContentResolver().openInputStream(Uri.parse(documentUri))) {
+            if (in == null) return null;
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[256 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (scope.isCancelled()) return null;
+                digest.update(buf, 0, n);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (IOException | NoSuchAlgorithmException | SecurityException e) {
+            Log.w(TAG, "Cannot hash " + documentUri + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.navjot.autobackup;
 
+import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.Context;
@@ -9,6 +10,10 @@ import androidx.core.app.NotificationCompat;
 public class BackupNotifier {
 
     private static final String CHANNEL_ID = "backup_status";
+    private static final String PROGRESS_CHANNEL_ID = "backup_progress";
+    /** Id of the foreground-service notification that shows live progress. */
+    public static final int PROGRESS_NOTIFICATION_ID = 1002;
+
     public static void notifyResult(Context ctx, int success, int total, String ip) {
         createChannel(ctx);
         NotificationCompat.Builder builder = new NotificationCompat.Builder(ctx, CHANNEL_ID)
@@ -20,12 +25,42 @@ public class BackupNotifier {
         nm.notify(1001, builder.build());
     }
 
+    /** Ongoing notification of the backup service: phase, files, bytes/s and ETA. */
+    public static Notification progressNotification(Context ctx, BackupProgress p) {
+        createChannel(ctx);
+        boolean active = p.phase == BackupProgress.Phase.DISCOVERY
+                || p.phase == BackupProgress.Phase.ENUMERATING
+                || p.phase == BackupProgress.Phase.UPLOADING;
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(ctx, PROGRESS_CHANNEL_ID)
+                .setSmallIcon(active ? android.R.drawable.stat_sys_upload : android.R.drawable.stat_sys_upload_done)
+                .setContentTitle(active ? "Backing up" : "Automatic backup")
+                .setContentText(active || p.phase == BackupProgress.Phase.FINISHED
+                        ? p.summary() : "Waiting for the next backup")
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW);
+        if (p.phase == BackupProgress.Phase.UPLOADING && p.bytesPlanned > 0) {
+            builder.setProgress(1000, (int) (p.bytesSent() * 1000 / p.bytesPlanned), false);
+            if (p.currentFile != null) builder.setSubText(p.currentFile);
+        } else if (active) {
+            builder.setProgress(0, 0, true);
+        }
+        return builder.build();
+    }
+
+    public static void updateProgress(Context ctx, BackupProgress p) {
+        NotificationManager nm = (NotificationManager) ctx.getSystemService(Context.NOTIFICATION_SERVICE);
+        nm.notify(PROGRESS_NOTIFICATION_ID, progressNotification(ctx, p));
+    }
+
     private static void createChannel(Context ctx) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Backup Status",
-                    NotificationManager.IMPORTANCE_LOW);
             NotificationManager nm = ctx.getSystemService(NotificationManager.class);
-            if (nm != null) nm.createNotificationChannel(channel);
+            if (nm == null) return;
+            nm.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "Backup Status",
+                    NotificationManager.IMPORTANCE_LOW));
+            nm.createNotificationChannel(new NotificationChannel(PROGRESS_CHANNEL_ID, "Backup Progress",
+                    NotificationManager.IMPORTANCE_LOW));
         }
     }
 }
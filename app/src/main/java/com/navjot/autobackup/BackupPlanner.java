@@ -0,0 +1,91 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+
+/**
+ * BackupPlanner
+ * =============
+ * Dry run of a backup: how many files and bytes are pending, read from the
+ * BackupIndex without listing a folder, and how long sending them should take
+ * to a target, from that target's ThroughputHistory. Runs record their upload
+ * phase here so the next plan's estimate improves.
+ */
+public class BackupPlanner {
+
+    private static final String PREFS_NAME = "BackupPrefs";
+    private static final String KEY_PREFIX = "Throughput|";
+
+    private final Context context;
+
+    /** What a run would do now. */
+    public static class Plan {
+        public final int files;
+        public final long bytes;
+        /** Expected upload time; -1 if the target has no history yet. */
+        public final long estimateMs;
+        /** When the index the counts come from was last completed; 0 if never. */
+        public final long indexedAt;
+
+        Plan(int files, long bytes, long estimateMs, long indexedAt) {
+            this.files = files;
+            this.bytes = bytes;
+            this.estimateMs = estimateMs;
+            this.indexedAt = indexedAt;
+        }
+
+        /** e.g. "1,204 files · 3.2 GB · about 25 min" */
+        public String summary() {
+            if (indexedAt == 0) return "Files not indexed yet; the run will list them first";
+            if (files == 0) return "Nothing pending";
+            String s = String.format(Locale.US, "%,d files · %s", files, BackupProgress.formatSize(bytes));
+            return estimateMs >= 0 ? s + " · about " + BackupProgress.formatEta(Math.max(1000, estimateMs))
+                    : s + " · no previous runs to estimate time from";
+        }
+
+        @Override public String toString() { return summary(); }
+    }
+
+    public BackupPlanner(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /** Key runs are recorded under, as for circuit breakers. */
+    public static String targetKey(String serverIp, String shareName) {
+        return serverIp + "/" + shareName;
+    }
+
+    /**
+     * Plans a run to target (null if not known yet). Two indexed aggregate
+     * queries and a prefs read, so it stays fast however large the library.
+     */
+    public Plan plan(String target) {
+        BackupIndex index = BackupIndex.get(context);
+        long[] pending = index.pendingTotals();
+        return new Plan((int) pending[0], pending[1], estimateMs(target, (int) pending[0], pending[1]),
+                index.completedAt());
+    }
+
+    /** Expected upload time for a list of files to target; -1 without history. */
+    public long estimateMs(String target, int files, long bytes) {
+        return target != null ? history(target).estimateMs(files, bytes) : -1;
+    }
+
+    /** Adds a finished run's upload phase to the target's history. */
+    public synchronized void record(String target, int files, long bytes, long elapsedMs) {
+        ThroughputHistory history = history(target);
+        if (history.record(files, bytes, elapsedMs)) {
+            getPrefs().edit().putString(KEY_PREFIX + target, history.serialize()).apply();
+        }
+    }
+
+    private ThroughputHistory history(String target) {
+        return ThroughputHistory.parse(getPrefs().getString(KEY_PREFIX + target, null));
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
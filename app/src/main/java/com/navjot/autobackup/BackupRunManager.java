@@ -0,0 +1,110 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * BackupRunManager
+ * ================
+ * The one way to start a backup in this process. Manual and scheduled
+ * requests go through a SingleFlight, so a request overlapping a run joins it
+ * or queues a single follow-up instead of listing and uploading the same
+ * files a second time; a manual request is never served by a trickle budget.
+ * Every requester receives the status messages of the run serving it;
+ * progress is on BackupEventStream as before.
+ */
+public final class BackupRunManager {
+
+    private static final String TAG = "BackupRunManager";
+
+    private static BackupRunManager instance;
+
+    private final Context context;
+    private final SingleFlight flights = new SingleFlight();
+    private final List<BackupCoordinator.BackupStatusCallback> observers = new CopyOnWriteArrayList<>();
+
+    private BackupRunManager(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized BackupRunManager get(Context context) {
+        if (instance == null) instance = new BackupRunManager(context);
+        return instance;
+    }
+
+    /**
+     * Requests a backup with the current settings.
+     * @param trigger what asked for it, for the log ("manual", "scheduled").
+     * @param selectionCallback used only if this request starts a run; may be null.
+     * @return completes when the run serving this request ends; cancelling it only stops waiting.
+     */
+    public CompletableFuture<Void> request(String trigger, RunBudget budget,
+                                           DeviceManager.DeviceSelectionCallback selectionCallback,
+                                           BackupCoordinator.BackupStatusCallback statusCallback) {
+        if (statusCallback != null) observers.add(statusCallback);
+        SingleFlight.Ticket ticket = flights.submit(budget, (flight, runBudget) -> {
+            // A run serving several requests gets the most permissive of their budgets
+            Log.i(TAG, "Starting " + trigger + " backup: " + runBudget);
+            BackupCoordinator coordinator = newCoordinator();
+            coordinator.setRunBudget(runBudget);
+            return coordinator.startBackup(selectionCallback, this::broadcast, flight::markListed);
+        });
+        if (ticket.admission == SingleFlight.Admission.JOINED) {
+            report(trigger, statusCallback, "Backup already running; following it.");
+        } else if (ticket.admission == SingleFlight.Admission.QUEUED) {
+            report(trigger, statusCallback, "Backup already running; new files will follow when it ends.");
+        }
+        if (statusCallback != null) ticket.done.whenComplete((v, error) -> observers.remove(statusCallback));
+        return ticket.done;
+    }
+
+    public boolean isRunning() {
+        return flights.isRunning();
+    }
+
+    /** Stops the run in flight for every requester and drops a queued one. */
+    public void cancel() {
+        flights.cancel();
+    }
+
+    private void broadcast(String message) {
+        for (BackupCoordinator.BackupStatusCallback observer : observers) observer.onStatus(message);
+    }
+
+    private void report(String trigger, BackupCoordinator.BackupStatusCallback cb, String message) {
+        Log.i(TAG, trigger + " request: " + message);
+        if (cb != null) cb.onStatus(message);
+    }
+
+    /** A coordinator for the settings saved now, so a queued run picks up later changes. */
+    private BackupCoordinator newCoordinator() {
+        SharedPreferences prefs = context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE);
+        List<Uri> folders = new ArrayList<>();
+        String uris = prefs.getString(MainActivity.KEY_BACKUP_FOLDERS, "");
+        if (!uris.isEmpty()) {
+            for (String s : uris.split(",")) {
+                try { folders.add(Uri.parse(s)); } catch (Exception ignored) {}
+            }
+        }
+        String types = prefs.getString(MainActivity.KEY_BACKUP_FILE_FILTER, "");
+        List<String> filter = types.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(types.split(",")));
+        return new BackupCoordinator(
+                context,
+                prefs.getString(MainActivity.KEY_SMB_USER, ""),
+                prefs.getString(MainActivity.KEY_SMB_PASS, ""),
+                prefs.getString(MainActivity.KEY_SMB_DOMAIN, ""),
+                prefs.getString(MainActivity.KEY_SMB_SHARE, ""),
+                prefs.getString(MainActivity.KEY_REMOTE_DIR, ""),
+                folders,
+                filter
+        );
+    }
+}
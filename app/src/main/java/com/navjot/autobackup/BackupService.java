@@ -3,57 +3,51 @@ package com.navjot.autobackup;
 import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.ServiceInfo;
 import android.net.Uri;
-import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
 import androidx.core.content.ContextCompat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * BackupService
  * =============
- * Runs periodic automatic backups in the background.
+ * Runs periodic automatic backups in the background, as a foreground service
+ * whose notification follows BackupEventStream (bytes/s and ETA while uploading).
+ * Runs are requested from BackupRunManager, which merges them with manual ones.
  */
 public class BackupService extends Service {
 
     private static final String TAG = "BackupService";
     private static final long BACKUP_INTERVAL_MS = 30 * 60 * 1000L;
+    private static final long MIN_CHECK_INTERVAL_MS = 5 * 60 * 1000L;
+    /** Notification updates are rate limited by the system; once a second is plenty. */
+    private static final long NOTIFICATION_INTERVAL_MS = 1000L;
     public static DeviceManager.DeviceSelectionCallback deviceSelectionCallback;
 
-    private final Handler handler = new Handler();
-    private boolean isBackupRunning = false;
-    private final Object backupLock = new Object();
-    private BackupCoordinator coordinator;
+    private ScheduledFuture<?> nextCheck;
+    private PowerPolicy powerPolicy;
+    private final BackupEventStream.Subscriber notificationUpdater =
+            progress -> BackupNotifier.updateProgress(this, progress);
 
     @Override
     public void onCreate() {
         super.onCreate();
-        loadCoordinator();
-        handler.post(backupTask);
+        startForeground(BackupNotifier.PROGRESS_NOTIFICATION_ID,
+                BackupNotifier.progressNotification(this, BackupEventStream.shared().snapshot()),
+                ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        BackupEventStream.shared().subscribe(notificationUpdater, NOTIFICATION_INTERVAL_MS);
+        powerPolicy = new PowerPolicy(new AndroidPowerStateProvider(this));
+        scheduleCheck(0);
     }
 
-    /** Initialise BackupCoordinator from saved prefs. */
-    private void loadCoordinator() {
-        SharedPreferences prefs = getSharedPreferences(MainActivity.PREFS_NAME, MODE_PRIVATE);
-        String user = prefs.getString(MainActivity.KEY_SMB_USER, "yourUsername");
-        String pass = prefs.getString(MainActivity.KEY_SMB_PASS, "yourPassword");
-        String share = prefs.getString(MainActivity.KEY_SMB_SHARE, "sharedfolder");
-        String domain = prefs.getString(MainActivity.KEY_SMB_DOMAIN, "");
-        String remoteDir = prefs.getString(MainActivity.KEY_REMOTE_DIR, "");
-
-        coordinator = new BackupCoordinator(
-                this,
-                user,
-                pass,
-                domain,
-                share,
-                remoteDir,
-                getBackupFolderUris(),
-                getFileFilter()
-        );
+    /** Checks run on the shared scheduler; the backup itself runs on the io pool. */
+    private synchronized void scheduleCheck(long delayMs) {
+        nextCheck = AppExecutors.get().scheduler().schedule(backupTask, delayMs, TimeUnit.MILLISECONDS);
     }
 
     /** Load backup folder URIs from prefs. */
@@ -69,25 +63,27 @@ public class BackupService extends Service {
         return uris;
     }
 
-    /** Load file type filters from prefs. */
-    private List<String> getFileFilter() {
-        SharedPreferences prefs = getSharedPreferences(MainActivity.PREFS_NAME, MODE_PRIVATE);
-        String types = prefs.getString(MainActivity.KEY_BACKUP_FILE_FILTER, "");
-        return types.isEmpty() ?
-                new ArrayList<>() :
-                new ArrayList<>(Arrays.asList(types.split(",")));
-    }
-
-    /** Task runnable that triggers backup periodically. */
+    /**
+     * Task runnable that triggers backup periodically. The power policy decides
+     * whether a run is admitted, how hard it may push, and when to look again.
+     */
     private final Runnable backupTask = new Runnable() {
         @Override
         public void run() {
+            long nextDelay = BACKUP_INTERVAL_MS;
             if (!hasRequiredPermissions()) {
                 Log.w(TAG, "Missing permissions. Skipping auto backup.");
             } else if (!getBackupFolderUris().isEmpty()) {
-                startBackupIfIdle();
+                RunBudget budget = powerPolicy.decide();
+                nextDelay = Math.max(MIN_CHECK_INTERVAL_MS, budget.nextCheckMs);
+                if (budget.isAdmitted()) {
+                    BackupRunManager.get(BackupService.this).request("scheduled", budget,
+                            deviceSelectionCallback, msg -> Log.i(TAG, msg));
+                } else {
+                    Log.i(TAG, "Auto backup paused: " + budget.reason);
+                }
             }
-            handler.postDelayed(this, BACKUP_INTERVAL_MS);
+            scheduleCheck(nextDelay);
         }
     };
 
@@ -100,31 +96,21 @@ public class BackupService extends Service {
                 || ContextCompat.checkSelfPermission(this, android.Manifest.permission.READ_MEDIA_IMAGES) == android.content.pm.PackageManager.PERMISSION_GRANTED);
     }
 
-    /** Start backup run if no other backup is currently executing. */
-    private void startBackupIfIdle() {
-        synchronized (backupLock) {
-            if (isBackupRunning) {
-                Log.i(TAG, "Backup already running, skipping cycle.");
-                return;
-            }
-            isBackupRunning = true;
-        }
-
-        loadCoordinator();
-
-        coordinator.startBackup(deviceSelectionCallback, msg -> {
-            Log.i(TAG, msg);
-            // After backup is finished, clear the running flag
-            synchronized (backupLock) {
-                isBackupRunning = false;
-            }
-        });
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        handler.removeCallbacks(backupTask);
+        synchronized (this) {
+            if (nextCheck != null) nextCheck.cancel(false);
+        }
+        // Without the foreground service the run would be killed mid-file; stop it cleanly instead
+        BackupRunManager.get(this).cancel();
+        BackupEventStream.shared().unsubscribe(notificationUpdater);
+        stopForeground(STOP_FOREGROUND_REMOVE);
     }
 
     @Override
@@ -2,25 +2,42 @@ package com.navjot.autobackup;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.DocumentsContract;
+import android.util.Base64;
 import android.util.Log;
-import androidx.documentfile.provider.DocumentFile;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * FileBackupManager
+ * =================
+ * Android host of a BackupEngine: files come from the BackupIndex and are read
+ * through the content resolver, history lives in "BackupPrefs", and the
+ * app's encryption, verification and link tuning settings are applied.
+ */
 public class FileBackupManager {
 
     private static final String TAG = "FileBackupManager";
     private static final String PREFS_NAME = "BackupPrefs";
-    private static final String KEY_UPLOAD_HISTORY = "UploadedFilesHistory";
+    private static final String KEY_ENCRYPT_SALT = "encrypt_salt";
+    private static final UploadVerifier.Level DEFAULT_VERIFY_LEVEL = UploadVerifier.Level.SIZE;
+    /** Oldest background index a run trusts instead of walking the folders itself. */
+    private static final long INDEX_MAX_AGE_MS = 12L * 60 * 60 * 1000;
 
     private final Context context;
-    private final String serverIp, shareName, username, password, domain, remoteDir;
-    private final SmbjClient smbClient;
+    private final String serverIp, shareName;
     private final SharedPreferences prefs;
+    private final BackupEngine engine;
+    private BackupCrypto.MasterKey masterKey;
 
     public FileBackupManager(Context context,
                              String serverIp,
@@ -32,109 +49,195 @@ public class FileBackupManager {
         this.context = context.getApplicationContext();
         this.serverIp = serverIp;
         this.shareName = shareName;
-        this.username = username;
-        this.password = password;
-        this.domain = domain;
-        this.remoteDir = remoteDir;
-        this.smbClient = new SmbjClient();
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        BackupTransport transport = new SmbjClient(serverIp, shareName, domain, username, password, remoteDir,
+                TransportProfile.fromName(prefs.getString(MainActivity.KEY_SMB_PROFILE, null)));
+        this.engine = new BackupEngine(serverIp, shareName, remoteDir, transport, new ContentSource(),
+                BackupJournal.forTarget(this.context.getFilesDir(), shareName, remoteDir),
+                new UploadHistory(new SharedPreferencesStore(this.context)));
     }
 
-    public List<DocumentFile> getNewFilesToBackup(List<Uri> folderUris, List<String> extensions) {
-        List<DocumentFile> result = new ArrayList<>();
-        Set<String> historySet = getUploadHistorySet();
-
-        for (Uri folderUri : folderUris) {
-            DocumentFile folder = DocumentFile.fromTreeUri(context, folderUri);
-            if (folder == null || !folder.isDirectory()) continue;
-            for (DocumentFile file : folder.listFiles()) {
-                if (file.isFile() && matchesFilter(file, extensions)) {
-                    String key = uniqueFileKey(folderUri, file);
-                    if (!historySet.contains(key)) {
-                        result.add(file);
-                    }
-                }
-            }
+    /**
+     * Picks up a run interrupted by process death, if its journal targets the same share.
+     * @return remaining files of that run (already uploaded ones dropped), or null if none.
+     */
+    public List<BackupItem> resumeInterruptedRun() {
+        return engine.resumeInterruptedRun();
+    }
+
+    /**
+     * Returns the files that pass the filter rules (see BackupFilter) and are
+     * not in upload history. They come from the BackupIndex kept by the
+     * background indexer, caught up with the files MediaStore saw change since;
+     * only if it is stale, was built for other folders or rules, or cannot be
+     * caught up are the folders walked now, which also refreshes it.
+     * @param scope the run's scope; cancelling it stops the walk
+     */
+    public List<BackupItem> getNewFilesToBackup(List<Uri> folderUris, List<String> filterRules,
+                                                CancelScope scope) {
+        BackupFilter filter = BackupFilter.compile(filterRules);
+        if (!filter.getInvalidRules().isEmpty()) {
+            Log.w(TAG, "Ignoring invalid filter rules: " + filter.getInvalidRules());
+        }
+        final Set<String> historySet = engine.getHistory().keys();
+        BackupIndex index = BackupIndex.get(context);
+        BackupIndexer indexer = new BackupIndexer(context);
+        if (index.isFresh(BackupIndexer.signature(folderUris, filterRules), INDEX_MAX_AGE_MS)
+                && indexer.catchUp(folderUris, filterRules, historySet, scope)) {
+            Log.i(TAG, "Using background index");
+        } else {
+            indexer.refresh(folderUris, filterRules, historySet, scope);
+        }
+        final List<BackupItem> result = new ArrayList<>();
+        for (BackupItem item : index.pending()) {
+            if (!historySet.contains(item.historyKey())) result.add(item);
         }
         return result;
     }
 
-    public int backupFiles(List<DocumentFile> files) {
-        Set<String> historySet = getUploadHistorySet();
-        int successCount = 0;
-        for (DocumentFile file : files) {
-            boolean success = false;
-            int attempt = 0;
-            while (!success && attempt < 3) {
-                attempt++;
-                try (InputStream is = context.getContentResolver().openInputStream(file.getUri())) {
-                    if (is == null) {
-                        Log.w(TAG, "Cannot open file: " + file.getName());
-                        break;
-                    }
-
-                    success = smbClient.uploadFile(
-                            serverIp,
-                            shareName,
-                            domain,
-                            username,
-                            password,
-                            remoteDir,
-                            file.getName(),
-                            is
-                    );
-                } catch (Exception e) {
-                    Log.e(TAG, "Error uploading file " + file.getName() + ": " + e.getMessage(), e);
-                }
-                if (!success) {
-                    try { Thread.sleep(1500); } catch (InterruptedException ignored) {}
-                }
+    public int backupFiles(List<BackupItem> files) {
+        return backupFiles(files, RunBudget.unrestricted());
+    }
+
+    /**
+     * Uploads files with the concurrency the budget allows. Once the byte
+     * budget is spent the remaining files are left for a later run.
+     */
+    public int backupFiles(List<BackupItem> files, RunBudget budget) {
+        final UploadVerifier.Level defaultLevel = getVerifyLevel();
+        final Set<String> fullVerifyFolders =
+                prefs.getStringSet(MainActivity.KEY_FULL_VERIFY_FOLDERS, new HashSet<>());
+
+        engine.setOnUploaded(BackupIndex.get(context)::markUploaded);
+        engine.setTuner(new LinkTuner(context, serverIp));
+        engine.setPolicy(new UploadRunner.FilePolicy() {
+            @Override public UploadVerifier.Level verifyLevel(BackupItem item) {
+                return fullVerifyFolders.contains(item.folderUri) ? UploadVerifier.Level.FULL : defaultLevel;
             }
-            if (success) {
-                successCount++;
-                historySet.add(uniqueFileKeyFromName(file));
-                saveUploadHistorySet(historySet);
+            @Override public BackupCrypto.FileEncryptor encryptorFor(BackupItem item, byte[] fileId)
+                    throws IOException, GeneralSecurityException {
+                if (!isEncrypted(item)) return null;
+                if (item.size < 0) throw new IOException("Cannot encrypt file of unknown size: " + item.name);
+                return BackupCrypto.newFile(getMasterKey(), getEncryptionAlgorithm(),
+                        BackupCrypto.DEFAULT_CHUNK_SIZE, item.size, fileId);
             }
+        });
+        final TransferSession session = new TransferSession(AndroidTransferLocks.forUploads(context),
+                UploadRunner.Clock.SYSTEM);
+        engine.setListener(new UploadRunner.Listener() {
+            @Override public void onFileStarted(BackupItem item) {}
+            @Override public void onBytes(BackupItem item, long bytes) { session.onBytes(bytes); }
+            @Override public void onAttemptFailed(BackupItem item, int attempt, Exception error) {}
+            @Override public void onFileFinished(BackupItem item, boolean success) {}
+        });
+
+        UploadRunner.Result result;
+        session.start(AppExecutors.get().scheduler());
+        long start = System.currentTimeMillis();
+        try {
+            result = engine.upload(files, budget);
+        } finally {
+            session.close();
         }
-        return successCount;
+        // Stopped runs include pauses that say nothing about how fast a run goes
+        if (result.abortReason == null && !engine.isCancelled()) {
+            new BackupPlanner(context).record(BackupPlanner.targetKey(serverIp, shareName),
+                    result.uploaded, result.bytes, System.currentTimeMillis() - start);
+        }
+        Log.i(TAG, "Transfer locks held: " + session);
+        return result.uploaded;
+    }
+
+    /** Outcome of the last backupFiles call, or null before the first. */
+    public UploadRunner.Result getLastResult() {
+        return engine.getLastResult();
     }
 
-    private boolean matchesFilter(DocumentFile file, List<String> extensions) {
-        if (extensions == null || extensions.isEmpty()) return true;
-        String name = file.getName();
-        if (name == null) return false;
-        for (String ext : extensions) {
-            if (name.toLowerCase().endsWith("." + ext.toLowerCase())) return true;
+    /**
+     * Stops the upload started by backupFiles: files in flight finish their
+     * attempt, the rest stay in the journal for the next run.
+     */
+    public void cancel() {
+        engine.cancel();
+    }
+
+    /** Reads documents through the content resolver; range mode needs a seekable descriptor. */
+    private class ContentSource implements UploadRunner.Source {
+        @Override
+        public InputStream open(BackupItem item) throws IOException {
+            return context.getContentResolver().openInputStream(Uri.parse(item.documentUri));
+        }
+
+        @Override
+        public SeekableSource openSeekable(BackupItem item) throws IOException {
+            ParcelFileDescriptor pfd = context.getContentResolver()
+                    .openFileDescriptor(Uri.parse(item.documentUri), "r");
+            if (pfd == null) return null;
+            // Pipes and sockets report -1 and cannot be read at arbitrary offsets
+            if (pfd.getStatSize() < 0) {
+                pfd.close();
+                return null;
+            }
+            FileInputStream fis = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+            return SeekableSource.of(fis.getChannel());
+        }
+
+        @Override
+        public long lastModified(BackupItem item) {
+            try (Cursor c = context.getContentResolver().query(Uri.parse(item.documentUri),
+                    new String[] { DocumentsContract.Document.COLUMN_LAST_MODIFIED }, null, null, null)) {
+                return c != null && c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : 0;
+            } catch (SecurityException | IllegalArgumentException e) {
+                return 0;
+            }
         }
-        return false;
     }
 
-    private String uniqueFileKey(Uri folderUri, DocumentFile file) {
-        return folderUri.toString() + "|" + file.getName() + "_" + file.lastModified();
+    private boolean isEncrypted(BackupItem file) {
+        return prefs.getStringSet(MainActivity.KEY_ENCRYPT_FOLDERS, new HashSet<>()).contains(file.folderUri)
+                && new PassphraseVault(context).isSet();
     }
 
-    private String uniqueFileKeyFromName(DocumentFile file) {
-        return file.getName() + "_" + file.lastModified();
+    private BackupCrypto.Algorithm getEncryptionAlgorithm() {
+        try {
+            return BackupCrypto.Algorithm.valueOf(prefs.getString(MainActivity.KEY_ENCRYPT_ALGORITHM,
+                    BackupCrypto.Algorithm.AES_GCM.name()));
+        } catch (IllegalArgumentException e) {
+            return BackupCrypto.Algorithm.AES_GCM;
+        }
     }
 
-    private Set<String> getUploadHistorySet() {
-        String history = prefs.getString(KEY_UPLOAD_HISTORY, "");
-        Set<String> set = new HashSet<>();
-        if (!history.isEmpty()) {
-            String[] keys = history.split(",");
-            for (String key : keys) {
-                if (!key.trim().isEmpty()) set.add(key);
+    /**
+     * Derives the passphrase key once per manager; the salt is kept in prefs.
+     * A passphrase that cannot be unsealed fails the file instead of sending it in the clear.
+     */
+    private synchronized BackupCrypto.MasterKey getMasterKey() throws GeneralSecurityException {
+        if (masterKey == null) {
+            String saltB64 = prefs.getString(KEY_ENCRYPT_SALT, null);
+            byte[] salt;
+            if (saltB64 == null) {
+                salt = BackupCrypto.newSalt();
+                prefs.edit().putString(KEY_ENCRYPT_SALT, Base64.encodeToString(salt, Base64.NO_WRAP)).apply();
+            } else {
+                salt = Base64.decode(saltB64, Base64.NO_WRAP);
             }
+            masterKey = BackupCrypto.deriveKey(new PassphraseVault(context).get().toCharArray(),
+                    salt, BackupCrypto.DEFAULT_ITERATIONS);
         }
-        return set;
+        return masterKey;
     }
 
-    private void saveUploadHistorySet(Set<String> set) {
-        StringBuilder sb = new StringBuilder();
-        for (String key : set) {
-            if (sb.length() > 0) sb.append(",");
-            sb.append(key);
+    private UploadVerifier.Level getVerifyLevel() {
+        try {
+            return UploadVerifier.Level.valueOf(
+                    prefs.getString(MainActivity.KEY_VERIFY_LEVEL, DEFAULT_VERIFY_LEVEL.name()));
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_VERIFY_LEVEL;
         }
-        prefs.edit().putString(KEY_UPLOAD_HISTORY, sb.toString()).apply();
+    }
+
+    /** Keys of every file uploaded so far (see BackupItem.historyKey). */
+    static Set<String> uploadHistory(Context context) {
+        return new UploadHistory(new SharedPreferencesStore(context)).keys();
     }
 }
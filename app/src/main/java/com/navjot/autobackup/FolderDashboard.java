@@ -0,0 +1,129 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.documentfile.provider.DocumentFile;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * FolderDashboard
+ * ===============
+ * Model behind the folder list. rows() answers from the last persisted stats
+ * without touching a document provider, so a cold start renders at once;
+ * refresh() resolves folder names and reads the BackupIndex (re-walking the
+ * folders only if the index is stale) on the io pool, persists the result and
+ * completes with the new rows.
+ */
+public class FolderDashboard {
+
+    private static final String TAG = "FolderDashboard";
+    private static final String PREFS_NAME = "BackupPrefs";
+    private static final String KEY_STATS = "folder_stats";
+    /** Older indexes are rebuilt before stats are shown from them. */
+    private static final long INDEX_MAX_AGE_MS = 12L * 60 * 60 * 1000;
+
+    private final Context context;
+    private final Map<String, FolderStats> cache = new HashMap<>();
+
+    public FolderDashboard(Context context) {
+        this.context = context.getApplicationContext();
+        load();
+    }
+
+    /** Rows for these folders from the cache; folders never seen get a name from their URI. */
+    public synchronized List<FolderStats> rows(List<Uri> folders) {
+        List<FolderStats> rows = new ArrayList<>();
+        for (Uri uri : folders) {
+            FolderStats cached = cache.get(uri.toString());
+            rows.add(cached != null ? cached : FolderStats.unknown(uri.toString(), fallbackName(uri)));
+        }
+        return rows;
+    }
+
+    /** Recomputes the rows off the UI thread. */
+    public CompletableFuture<List<FolderStats>> refresh(List<Uri> folders, List<String> filterRules) {
+        final List<Uri> snapshot = new ArrayList<>(folders);
+        return AppExecutors.supply(() -> {
+            BackupIndex index = BackupIndex.get(context);
+            if (!snapshot.isEmpty()
+                    && !index.isFresh(BackupIndexer.signature(snapshot, filterRules), INDEX_MAX_AGE_MS)) {
+                new BackupIndexer(context).refresh(snapshot, filterRules,
+                        FileBackupManager.uploadHistory(context), new CancelScope());
+            }
+            Map<String, FolderStats> totals = index.folderStats();
+            List<FolderStats> rows = new ArrayList<>();
+            for (Uri uri : snapshot) {
+                FolderStats stats = totals.get(uri.toString());
+                String name = resolveName(uri);
+                rows.add(stats != null ? stats.withName(name) : FolderStats.unknown(uri.toString(), name));
+            }
+            store(rows);
+            return rows;
+        }, AppExecutors.get().io());
+    }
+
+    /** Provider call; only ever made off the UI thread. */
+    private String resolveName(Uri uri) {
+        try {
+            DocumentFile doc = DocumentFile.fromTreeUri(context, uri);
+            if (doc != null && doc.getName() != null) return doc.getName();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot resolve name of " + uri + ": " + e.getMessage());
+        }
+        return fallbackName(uri);
+    }
+
+    private static String fallbackName(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.isEmpty() ? uri.toString() : segments.get(segments.size() - 1);
+    }
+
+    private synchronized void store(List<FolderStats> rows) {
+        cache.clear();
+        JSONArray arr = new JSONArray();
+        try {
+            for (FolderStats s : rows) {
+                cache.put(s.folderUri, s);
+                arr.put(new JSONObject()
+                        .put("uri", s.folderUri)
+                        .put("name", s.name)
+                        .put("files", s.fileCount)
+                        .put("bytes", s.totalBytes)
+                        .put("pending", s.pendingBytes));
+            }
+        } catch (JSONException ignored) {}
+        prefs().edit().putString(KEY_STATS, arr.toString()).apply();
+    }
+
+    private synchronized void load() {
+        String json = prefs().getString(KEY_STATS, null);
+        if (json == null) return;
+        try {
+            JSONArray arr = new JSONArray(json);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                FolderStats s = new FolderStats(o.getString("uri"), o.optString("name", null),
+                        o.getLong("files"), o.getLong("bytes"), o.getLong("pending"));
+                cache.put(s.folderUri, s);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Discarding unreadable folder stats: " + e.getMessage());
+        }
+    }
+
+    private SharedPreferences prefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,116 @@
+package com.navjot.autobackup;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * FolderListAdapter
+ * =================
+ * Selected folders with their stats. New row lists are diffed against the
+ * shown one on a background thread, so only rows that changed are rebound.
+ * A tap selects a row (for removal), a long press toggles full verification.
+ */
+public class FolderListAdapter extends ListAdapter<FolderStats, FolderListAdapter.Holder> {
+
+    public interface OnFolderLongClick {
+        void onLongClick(int position);
+    }
+
+    private static final DiffUtil.ItemCallback<FolderStats> DIFF = new DiffUtil.ItemCallback<FolderStats>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull FolderStats a, @NonNull FolderStats b) {
+            return a.folderUri.equals(b.folderUri);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull FolderStats a, @NonNull FolderStats b) {
+            return a.equals(b);
+        }
+    };
+
+    private final OnFolderLongClick longClick;
+    private Set<String> fullVerifyFolders = new HashSet<>();
+    private String selectedUri;
+
+    public FolderListAdapter(OnFolderLongClick longClick) {
+        super(DIFF);
+        this.longClick = longClick;
+    }
+
+    /** Position of the selected folder, or RecyclerView.NO_POSITION. */
+    public int getSelectedPosition() {
+        for (int i = 0; i < getItemCount(); i++) {
+            if (getItem(i).folderUri.equals(selectedUri)) return i;
+        }
+        return RecyclerView.NO_POSITION;
+    }
+
+    public void clearSelection() {
+        int old = getSelectedPosition();
+        selectedUri = null;
+        if (old != RecyclerView.NO_POSITION) notifyItemChanged(old);
+    }
+
+    /** Full-verify marks live in prefs, not in the row model; rebinds only rows whose mark changed. */
+    public void setFullVerifyFolders(Set<String> folders) {
+        Set<String> old = fullVerifyFolders;
+        fullVerifyFolders = new HashSet<>(folders);
+        for (int i = 0; i < getItemCount(); i++) {
+            String uri = getItem(i).folderUri;
+            if (old.contains(uri) != fullVerifyFolders.contains(uri)) notifyItemChanged(i);
+        }
+    }
+
+    @NonNull
+    @Override
+    public Holder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View row = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_backup_folder, parent, false);
+        return new Holder(row);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull Holder holder, int position) {
+        FolderStats stats = getItem(position);
+        String name = stats.name;
+        if (fullVerifyFolders.contains(stats.folderUri)) name += "  [full verify]";
+        holder.name.setText(name);
+        holder.stats.setText(stats.summary());
+        holder.path.setText("(" + stats.folderUri + ")");
+        holder.itemView.setActivated(stats.folderUri.equals(selectedUri));
+    }
+
+    class Holder extends RecyclerView.ViewHolder {
+        final TextView name, stats, path;
+
+        Holder(View row) {
+            super(row);
+            name = row.findViewById(R.id.txtFolderName);
+            stats = row.findViewById(R.id.txtFolderStats);
+            path = row.findViewById(R.id.txtFolderPath);
+            row.setOnClickListener(v -> {
+                int pos = getBindingAdapterPosition();
+                if (pos == RecyclerView.NO_POSITION) return;
+                int old = getSelectedPosition();
+                selectedUri = getItem(pos).folderUri;
+                if (old != RecyclerView.NO_POSITION) notifyItemChanged(old);
+                notifyItemChanged(pos);
+            });
+            row.setOnLongClickListener(v -> {
+                int pos = getBindingAdapterPosition();
+                if (pos == RecyclerView.NO_POSITION) return false;
+                longClick.onLongClick(pos);
+                return true;
+            });
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * HostCache
+ * ---------
+ * Remembers the hosts seen on each network (keyed by its addressing, see
+ * NetworkMonitor.currentNetworkId, or the phone's own hotspot) so target
+ * resolution on a known network can go straight to the right host instead of
+ * sweeping the subnet. Entries expire after a TTL; a host's name and SMB port
+ * are only re-checked once PROBE_TTL has passed.
+ */
+public class HostCache {
+
+    private static final String PREFS_NAME = "BackupPrefs";
+    private static final String KEY_PREFIX = "HostCache|";
+    private static final long TTL_MS = 14L * 24 * 60 * 60 * 1000;
+    private static final long PROBE_TTL_MS = 24L * 60 * 60 * 1000;
+    private static final int MAX_HOSTS_PER_NETWORK = 64;
+
+    private final Context context;
+
+    /** One cached host on a network. */
+    public static class Host extends NetworkMonitor.DeviceInfo {
+        public final String hostname;
+        public final boolean smbAvailable;
+        public final long lastSeen;
+        /** When hostname and smbAvailable were last probed. */
+        public final long checkedAt;
+
+        public Host(String ip, String mac, String hostname, boolean smbAvailable, long lastSeen) {
+            this(ip, mac, hostname, smbAvailable, lastSeen, lastSeen);
+        }
+
+        public Host(String ip, String mac, String hostname, boolean smbAvailable, long lastSeen, long checkedAt) {
+            super(ip, mac);
+            this.hostname = hostname;
+            this.smbAvailable = smbAvailable;
+            this.lastSeen = lastSeen;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    public HostCache(Context ctx) { this.context = ctx.getApplicationContext(); }
+
+    /** @return unexpired hosts seen on this network, most recently seen first. */
+    public synchronized List<Host> getHosts(String networkId) {
+        List<Host> hosts = load(networkId);
+        long now = System.currentTimeMillis();
+        List<Host> fresh = new ArrayList<>();
+        for (Host h : hosts) {
+            if (now - h.lastSeen < TTL_MS) fresh.add(h);
+        }
+        Collections.sort(fresh, (a, b) -> Long.compare(b.lastSeen, a.lastSeen));
+        return fresh;
+    }
+
+    /**
+     * Whether a device's hostname and SMB port should be probed again: it is
+     * not cached under this address and MAC, or was last probed over PROBE_TTL ago.
+     */
+    public synchronized boolean needsProbe(String networkId, NetworkMonitor.DeviceInfo dev) {
+        long now = System.currentTimeMillis();
+        for (Host h : getHosts(networkId)) {
+            if (h.mac.equalsIgnoreCase(dev.mac) && h.ip.equals(dev.ip)) {
+                return now - h.checkedAt >= PROBE_TTL_MS;
+            }
+        }
+        return true;
+    }
+
+    /** Records or refreshes one host after probing it; hostname may be null if unknown. */
+    public synchronized void recordHost(String networkId, NetworkMonitor.DeviceInfo dev,
+                                        String hostname, boolean smbAvailable) {
+        List<NetworkMonitor.DeviceInfo> one = new ArrayList<>();
+        one.add(dev);
+        record(networkId, one, hostname, smbAvailable, true);
+    }
+
+    /** Records hosts found by a subnet scan or seen again, keeping known hostnames and SMB flags. */
+    public synchronized void recordHosts(String networkId, List<NetworkMonitor.DeviceInfo> devices) {
+        record(networkId, devices, null, false, false);
+    }
+
+    private void record(String networkId, List<NetworkMonitor.DeviceInfo> devices,
+                        String hostname, boolean smbAvailable, boolean probed) {
+        long now = System.currentTimeMillis();
+        List<Host> hosts = getHosts(networkId);
+        for (NetworkMonitor.DeviceInfo dev : devices) {
+            Host previous = null;
+            for (int i = 0; i < hosts.size(); i++) {
+                Host h = hosts.get(i);
+                if (h.mac.equalsIgnoreCase(dev.mac) || h.ip.equals(dev.ip)) {
+                    previous = h;
+                    hosts.remove(i);
+                    break;
+                }
+            }
+            String name = hostname != null ? hostname : previous != null ? previous.hostname : null;
+            boolean smb = smbAvailable || (previous != null && previous.smbAvailable
+                    && previous.mac.equalsIgnoreCase(dev.mac));
+            // A host seen under another MAC is a different machine; its probe results do not carry over
+            long checkedAt = probed ? now
+                    : previous != null && previous.mac.equalsIgnoreCase(dev.mac) ? previous.checkedAt : 0;
+            hosts.add(0, new Host(dev.ip, dev.mac.toUpperCase(), name, smb, now, checkedAt));
+        }
+        while (hosts.size() > MAX_HOSTS_PER_NETWORK) hosts.remove(hosts.size() - 1);
+        save(networkId, hosts);
+    }
+
+    private List<Host> load(String networkId) {
+        List<Host> hosts = new ArrayList<>();
+        String json = getPrefs().getString(KEY_PREFIX + networkId, null);
+        if (json == null) return hosts;
+        try {
+            JSONArray arr = new JSONArray(json);
+            for (int i = 0; i < arr.length(); i++) {
+                JSONObject o = arr.getJSONObject(i);
+                hosts.add(new Host(
+                        o.getString("ip"),
+                        o.getString("mac"),
+                        o.has("hostname") ? o.getString("hostname") : null,
+                        o.optBoolean("smb", false),
+                        o.optLong("lastSeen", 0),
+                        o.optLong("checked", o.optLong("lastSeen", 0))));
+            }
+        } catch (JSONException ignored) {
+            // Corrupt entry: treat the network as unknown
+        }
+        return hosts;
+    }
+
+    private void save(String networkId, List<Host> hosts) {
+        JSONArray arr = new JSONArray();
+        try {
+            for (Host h : hosts) {
+                JSONObject o = new JSONObject();
+                o.put("ip", h.ip);
+                o.put("mac", h.mac);
+                if (h.hostname != null) o.put("hostname", h.hostname);
+                o.put("smb", h.smbAvailable);
+                o.put("lastSeen", h.lastSeen);
+                o.put("checked", h.checkedAt);
+                arr.put(o);
+            }
+        } catch (JSONException ignored) {}
+        getPrefs().edit().putString(KEY_PREFIX + networkId, arr.toString()).apply();
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,98 @@
+package com.navjot.autobackup;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IndexJobService
+ * ===============
+ * Runs BackupIndexer when the phone is charging and idle: a fresh walk of the
+ * selected folders, then hashing of pending files. The system stops the job
+ * as soon as either condition ends; the walk is then abandoned and the index
+ * is left stale, while hashes already stored are kept.
+ */
+public class IndexJobService extends JobService {
+
+    private static final String TAG = "IndexJobService";
+    private static final int JOB_ID = 4201;
+    private static final long INTERVAL_MS = TimeUnit.HOURS.toMillis(6);
+
+    private volatile CancelScope scope;
+
+    /** Schedules the periodic job; keeps an existing schedule so its timing is not reset. */
+    public static void schedule(Context context) {
+        JobScheduler scheduler = context.getSystemService(JobScheduler.class);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) return;
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, IndexJobService.class))
+                .setRequiresCharging(true)
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final CancelScope jobScope = new CancelScope();
+        scope = jobScope;
+        AppExecutors.get().io().execute(() -> {
+            boolean stopped = false;
+            try {
+                BackupIndexer indexer = new BackupIndexer(this);
+                indexer.refresh(getBackupFolderUris(), getFileFilter(),
+                        FileBackupManager.uploadHistory(this), jobScope);
+                indexer.hashPending(jobScope);
+            } catch (CancellationException e) {
+                stopped = true;
+                Log.i(TAG, "Indexing stopped: device no longer charging or idle");
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Indexing failed", e);
+            }
+            // A stopped job is not finished; onStopJob already asked for it to be rescheduled
+            if (!stopped && !jobScope.isCancelled()) jobFinished(params, false);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        CancelScope current = scope;
+        if (current != null) current.cancel();
+        return true;
+    }
+
+    /** Load backup folder URIs from prefs. */
+    private List<Uri> getBackupFolderUris() {
+        SharedPreferences prefs = getSharedPreferences(MainActivity.PREFS_NAME, MODE_PRIVATE);
+        String urisString = prefs.getString(MainActivity.KEY_BACKUP_FOLDERS, "");
+        List<Uri> uris = new ArrayList<>();
+        if (!urisString.isEmpty()) {
+            for (String s : urisString.split(",")) {
+                try { uris.add(Uri.parse(s)); } catch (Exception ignored) {}
+            }
+        }
+        return uris;
+    }
+
+    /** Load file type filters from prefs. */
+    private List<String> getFileFilter() {
+        SharedPreferences prefs = getSharedPreferences(MainActivity.PREFS_NAME, MODE_PRIVATE);
+        String types = prefs.getString(MainActivity.KEY_BACKUP_FILE_FILTER, "");
+        return types.isEmpty() ?
+                new ArrayList<>() :
+                new ArrayList<>(Arrays.asList(types.split(",")));
+    }
+}
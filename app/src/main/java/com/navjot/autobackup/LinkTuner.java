@@ -0,0 +1,71 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * LinkTuner
+ * =========
+ * Caches link measurements per target and network (see
+ * NetworkMonitor.currentNetworkId), probes when there is no fresh
+ * measurement, and folds throughput seen during runs back into the cache so
+ * the next run starts from a better estimate.
+ */
+public class LinkTuner implements UploadRunner.Tuner {
+
+    private static final String TAG = "LinkTuner";
+    private static final String PREFS_NAME = "BackupPrefs";
+    private static final String KEY_PREFIX = "LinkQuality|";
+    private static final long PROBE_TTL_MS = 24 * 60 * 60 * 1000L;
+    /** Runs shorter than this say little about the link and are not folded in. */
+    private static final long MIN_SAMPLE_BYTES = 4 * 1024 * 1024;
+
+    private final Context context;
+    private final String cacheKey;
+    private LinkQuality baseline;
+    private LinkQuality quality;
+
+    public LinkTuner(Context context, String serverIp) {
+        this.context = context.getApplicationContext();
+        this.cacheKey = KEY_PREFIX + serverIp + "|" + new NetworkMonitor(context).currentNetworkId();
+    }
+
+    /** Returns tuning from a fresh cached measurement, probing first if there is none. */
+    @Override
+    public synchronized TransferTuning resolve(BackupTransport transport) {
+        LinkQuality cached = LinkQuality.parse(getPrefs().getString(cacheKey, null));
+        if (cached != null && System.currentTimeMillis() - cached.measuredAt < PROBE_TTL_MS) {
+            quality = cached;
+        } else {
+            LinkQuality measured = transport.probeLink();
+            quality = measured != null ? measured : cached;
+            if (measured != null) save();
+        }
+        baseline = quality;
+        TransferTuning tuning = TransferTuning.forLink(quality);
+        Log.i(TAG, "Link " + (quality != null ? quality : "unmeasured") + " → " + tuning);
+        return tuning;
+    }
+
+    /**
+     * Blends the run's aggregate throughput so far into the estimate the run
+     * started with. @return tuning for the refined estimate, for the rest of the run.
+     */
+    public synchronized TransferTuning refine(long bytes, long elapsedMs) {
+        if (bytes >= MIN_SAMPLE_BYTES && elapsedMs > 0 && baseline != null) {
+            quality = baseline.refine(bytes * 1000 / elapsedMs, System.currentTimeMillis());
+        }
+        return TransferTuning.forLink(quality);
+    }
+
+    /** Persists the current estimate for this target and access point. */
+    public synchronized void save() {
+        if (quality == null) return;
+        getPrefs().edit().putString(cacheKey, quality.serialize()).apply();
+    }
+
+    private SharedPreferences getPrefs() {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -5,17 +5,23 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.*;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
-import androidx.documentfile.provider.DocumentFile;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -25,22 +31,39 @@ public class MainActivity extends AppCompatActivity {
     public static final String KEY_SMB_SHARE = "smb_share";
     public static final String KEY_SMB_DOMAIN = "smb_domain";
     public static final String KEY_REMOTE_DIR = "remote_dir";
+    public static final String KEY_SMB_PROFILE = "smb_transport_profile";
     public static final String KEY_BACKUP_FOLDERS = "backup_folder_uris";
     public static final String KEY_BACKUP_FILE_FILTER = "backup_file_filter";
+    public static final String KEY_VERIFY_LEVEL = "verify_level";
+    public static final String KEY_FULL_VERIFY_FOLDERS = "full_verify_folders";
+    public static final String KEY_ENCRYPT_FOLDERS = "encrypt_folders";
+    /** Plain-text passphrase of earlier versions; PassphraseVault moves it to the sealed key. */
+    public static final String KEY_ENCRYPT_PASSPHRASE = "encrypt_passphrase";
+    public static final String KEY_ENCRYPT_PASSPHRASE_SEALED = "encrypt_passphrase_sealed";
+    public static final String KEY_ENCRYPT_ALGORITHM = "encrypt_algorithm";
 
     private static final int REQUEST_PICK_FOLDER = 101;
 
-    private ListView listFolders;
+    private RecyclerView listFolders;
     private LinearLayout layoutScanProgress;
     private ProgressBar progressScan;
     private TextView txtScanStatus, txtResult;
 
     private ArrayList<Uri> backupFolders = new ArrayList<>();
-    private ArrayAdapter<Uri> folderAdapter;
+    private FolderListAdapter folderAdapter;
+    private FolderDashboard folderDashboard;
+    /** Bumped per refresh so a slow, outdated one cannot overwrite a newer list. */
+    private int folderListVersion = 0;
 
     private BackupCoordinator coordinator;
+    /** Device scan started from this screen; it ends with the activity. */
+    private CompletableFuture<List<NetworkMonitor.DeviceInfo>> scanRequest;
     private DeviceManager deviceManager;
 
+    /** One UI post per frame, however many events the frame coalesced. */
+    private final BackupEventStream.Subscriber progressSubscriber =
+            progress -> runOnUiThread(() -> renderProgress(progress));
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -51,6 +74,8 @@ public class MainActivity extends AppCompatActivity {
         Button btnSelectFolder = findViewById(R.id.btnSelectFolder);
         Button btnRemoveFolder = findViewById(R.id.btnRemoveFolder);
         Button btnFileFilter = findViewById(R.id.btnFileFilter);
+        Button btnVerifyLevel = findViewById(R.id.btnVerifyLevel);
+        Button btnEncryption = findViewById(R.id.btnEncryption);
         Button btnCredentials = findViewById(R.id.btnCredentials);
         Button btnAvailableDevices = findViewById(R.id.btnAvailableDevices);
         Button btnBackup = findViewById(R.id.btnBackup);
@@ -73,19 +98,68 @@ public class MainActivity extends AppCompatActivity {
                 getFileFilterFromPrefs()
         );
 
-        // Load folder list
-        loadBackupFolders();
-        listFolders.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+        // Folder list; rows are (re)loaded in onStart
+        folderDashboard = new FolderDashboard(this);
+        folderAdapter = new FolderListAdapter(this::onToggleFullVerify);
+        folderAdapter.setFullVerifyFolders(getFullVerifyFolders());
+        listFolders.setLayoutManager(new LinearLayoutManager(this));
+        listFolders.setAdapter(folderAdapter);
 
         // Buttons
         btnSelectFolder.setOnClickListener(v -> onAddBackupFolder());
         btnRemoveFolder.setOnClickListener(v -> onRemoveSelectedFolder());
         btnFileFilter.setOnClickListener(v -> onConfigureFileTypes());
+        btnVerifyLevel.setOnClickListener(v -> onConfigureVerifyLevel());
+        btnEncryption.setOnClickListener(v -> onConfigureEncryption());
         btnCredentials.setOnClickListener(v -> onEditSMBCredentials());
         btnAvailableDevices.setOnClickListener(v -> showAvailableDevices());
         btnBackup.setOnClickListener(v -> manualBackup());
 
         ensurePermissions();
+        ContextCompat.startForegroundService(this, new Intent(this, BackupService.class));
+        IndexJobService.schedule(this);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Stats change with every backup and index run; refresh whenever the screen comes back
+        loadBackupFolders();
+        BackupEventStream.shared().subscribe(progressSubscriber, BackupEventStream.FRAME_MS);
+    }
+
+    @Override
+    protected void onStop() {
+        BackupEventStream.shared().unsubscribe(progressSubscriber);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Manual backups outlive the screen; a device scan is only useful to it
+        if (scanRequest != null) scanRequest.cancel(false);
+        super.onDestroy();
+    }
+
+    private void renderProgress(BackupProgress p) {
+        switch (p.phase) {
+            case DISCOVERY:
+                layoutScanProgress.setVisibility(View.VISIBLE);
+                progressScan.setMax(Math.max(1, p.probeTotal));
+                progressScan.setProgress(p.probed);
+                txtScanStatus.setText(p.summary());
+                break;
+            case ENUMERATING:
+            case UPLOADING:
+                layoutScanProgress.setVisibility(View.VISIBLE);
+                progressScan.setMax(1000);
+                progressScan.setProgress(p.bytesPlanned > 0 ? (int) (p.bytesSent() * 1000 / p.bytesPlanned) : 0);
+                txtScanStatus.setText(p.currentFile != null ? p.summary() + "\n" + p.currentFile : p.summary());
+                break;
+            default:
+                layoutScanProgress.setVisibility(View.GONE);
+                break;
+        }
     }
 
     /** === Folder Handling === */
@@ -95,37 +169,17 @@ public class MainActivity extends AppCompatActivity {
         refreshFolderListUI();
     }
 
-    /** Custom adapter: bold folder name and path in brackets */
+    /**
+     * Shows the folders at once from the persisted stats, then swaps in
+     * freshly computed ones; the adapter diffs them so only changed rows rebind.
+     */
     private void refreshFolderListUI() {
-        folderAdapter = new ArrayAdapter<Uri>(this, R.layout.item_backup_folder, backupFolders) {
-            @Override
-            public View getView(int position, View convertView, ViewGroup parent) {
-                View row = convertView;
-                if (row == null) {
-                    row = getLayoutInflater().inflate(R.layout.item_backup_folder, parent, false);
-                }
-                TextView nameView = row.findViewById(R.id.txtFolderName);
-                TextView pathView = row.findViewById(R.id.txtFolderPath);
-
-                Uri uri = getItem(position);
-                if (uri != null) {
-                    String folderName;
-                    DocumentFile doc = DocumentFile.fromTreeUri(MainActivity.this, uri);
-                    if (doc != null && doc.getName() != null) {
-                        folderName = doc.getName();
-                    } else {
-                        List<String> segments = uri.getPathSegments();
-                        folderName = segments.isEmpty()
-                                ? uri.toString()
-                                : segments.get(segments.size() - 1);
-                    }
-                    nameView.setText(folderName);
-                    pathView.setText("(" + uri.toString() + ")");
-                }
-                return row;
-            }
-        };
-        listFolders.setAdapter(folderAdapter);
+        final int version = ++folderListVersion;
+        folderAdapter.submitList(folderDashboard.rows(backupFolders));
+        folderDashboard.refresh(backupFolders, getFileFilterFromPrefs())
+                .thenAccept(rows -> runOnUiThread(() -> {
+                    if (version == folderListVersion) folderAdapter.submitList(rows);
+                }));
     }
 
     private void onAddBackupFolder() {
@@ -134,12 +188,12 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void onRemoveSelectedFolder() {
-        int pos = listFolders.getCheckedItemPosition();
-        if (pos != ListView.INVALID_POSITION && pos < backupFolders.size()) {
+        int pos = folderAdapter.getSelectedPosition();
+        if (pos != RecyclerView.NO_POSITION && pos < backupFolders.size()) {
             backupFolders.remove(pos);
             saveBackupFoldersToPrefs();
+            folderAdapter.clearSelection();
             refreshFolderListUI();
-            listFolders.clearChoices();
         }
     }
 
@@ -173,14 +227,18 @@ public class MainActivity extends AppCompatActivity {
         String existing = prefs.getString(KEY_BACKUP_FILE_FILTER, "");
         EditText input = new EditText(this);
         input.setText(existing);
-        input.setHint("jpg,png,docx...");
+        input.setHint("jpg,IMG_*.png,mime:video/,max:2GB,after:2024-01-01,exclude:.thumbnails");
         new AlertDialog.Builder(this)
-                .setTitle("Set File Type Filter (comma separated)")
+                .setTitle("Set File Filter Rules (comma separated)")
                 .setView(input)
                 .setPositiveButton("Save", (d, w) -> {
-                    prefs.edit().putString(KEY_BACKUP_FILE_FILTER,
-                            input.getText().toString().trim().replaceAll("\\s+", "")).apply();
-                    Toast.makeText(this, "File filter saved", Toast.LENGTH_SHORT).show();
+                    String rules = input.getText().toString().trim().replaceAll("\\s+", "");
+                    prefs.edit().putString(KEY_BACKUP_FILE_FILTER, rules).apply();
+                    refreshFolderListUI();
+                    List<String> invalid = BackupFilter.compile(Arrays.asList(rules.split(","))).getInvalidRules();
+                    Toast.makeText(this, invalid.isEmpty() ? "File filter saved"
+                            : "Saved; ignoring invalid rules: " + TextUtils.join(",", invalid),
+                            Toast.LENGTH_LONG).show();
                 })
                 .setNegativeButton("Cancel", null)
                 .show();
@@ -192,6 +250,113 @@ public class MainActivity extends AppCompatActivity {
         return types.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(types.split(",")));
     }
 
+    /** === Upload Verification Handling === */
+    private void onConfigureVerifyLevel() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String[] labels = {
+                "None",
+                "Size check (fast, default)",
+                "Sampled read-back",
+                "Full read-back hash"
+        };
+        UploadVerifier.Level[] levels = UploadVerifier.Level.values();
+        UploadVerifier.Level current;
+        try {
+            current = UploadVerifier.Level.valueOf(
+                    prefs.getString(KEY_VERIFY_LEVEL, UploadVerifier.Level.SIZE.name()));
+        } catch (IllegalArgumentException e) {
+            current = UploadVerifier.Level.SIZE;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Upload Verification (long-press a folder for full verify)")
+                .setSingleChoiceItems(labels, current.ordinal(), (d, which) -> {
+                    prefs.edit().putString(KEY_VERIFY_LEVEL, levels[which].name()).apply();
+                    Toast.makeText(this, "Verification: " + labels[which], Toast.LENGTH_SHORT).show();
+                    d.dismiss();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    /** Toggles full read-back verification for one backup folder. */
+    private void onToggleFullVerify(int position) {
+        if (position < 0 || position >= backupFolders.size()) return;
+        Set<String> folders = getFullVerifyFolders();
+        String key = backupFolders.get(position).toString();
+        boolean enabled = folders.add(key);
+        if (!enabled) folders.remove(key);
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                .edit()
+                .putStringSet(KEY_FULL_VERIFY_FOLDERS, folders)
+                .apply();
+        folderAdapter.setFullVerifyFolders(folders);
+        Toast.makeText(this, enabled ? "Full verification on" : "Full verification off",
+                Toast.LENGTH_SHORT).show();
+    }
+
+    private Set<String> getFullVerifyFolders() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        return new HashSet<>(prefs.getStringSet(KEY_FULL_VERIFY_FOLDERS, new HashSet<>()));
+    }
+
+    /** === Encryption Handling === */
+    private void onConfigureEncryption() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.setPadding(48, 16, 48, 0);
+        EditText edtPassphrase = new EditText(this);
+        PassphraseVault vault = new PassphraseVault(this);
+        // The saved passphrase is never shown again; an empty field keeps it
+        edtPassphrase.setHint(vault.isSet() ? "Passphrase saved (type to change)" : "Passphrase (needed to restore!)");
+        edtPassphrase.setInputType(android.text.InputType.TYPE_CLASS_TEXT
+                | android.text.InputType.TYPE_TEXT_VARIATION_PASSWORD);
+        CheckBox chkChaCha = new CheckBox(this);
+        chkChaCha.setText("Use ChaCha20-Poly1305 (for CPUs without AES support)");
+        chkChaCha.setChecked(BackupCrypto.Algorithm.CHACHA20_POLY1305.name()
+                .equals(prefs.getString(KEY_ENCRYPT_ALGORITHM, "")));
+        layout.addView(edtPassphrase);
+        layout.addView(chkChaCha);
+
+        String[] names = new String[backupFolders.size()];
+        boolean[] checked = new boolean[backupFolders.size()];
+        Set<String> encrypted = new HashSet<>(prefs.getStringSet(KEY_ENCRYPT_FOLDERS, new HashSet<>()));
+        for (int i = 0; i < backupFolders.size(); i++) {
+            Uri uri = backupFolders.get(i);
+            List<String> segments = uri.getPathSegments();
+            names[i] = segments.isEmpty() ? uri.toString() : segments.get(segments.size() - 1);
+            checked[i] = encrypted.contains(uri.toString());
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("Encrypt Folders")
+                .setView(layout)
+                .setMultiChoiceItems(names, checked, (d, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton("Save", (d, w) -> {
+                    Set<String> folders = new HashSet<>();
+                    for (int i = 0; i < checked.length; i++) {
+                        if (checked[i]) folders.add(backupFolders.get(i).toString());
+                    }
+                    String passphrase = edtPassphrase.getText().toString();
+                    if (!passphrase.isEmpty()) {
+                        try {
+                            vault.set(passphrase);
+                        } catch (GeneralSecurityException e) {
+                            Toast.makeText(this, "Could not store passphrase", Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                    }
+                    prefs.edit()
+                            .putString(KEY_ENCRYPT_ALGORITHM, chkChaCha.isChecked()
+                                    ? BackupCrypto.Algorithm.CHACHA20_POLY1305.name()
+                                    : BackupCrypto.Algorithm.AES_GCM.name())
+                            .putStringSet(KEY_ENCRYPT_FOLDERS, folders)
+                            .apply();
+                    Toast.makeText(this, "Encryption settings saved", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
     /** === SMB Credentials Handling === */
     private void onEditSMBCredentials() {
         View dlgView = getLayoutInflater().inflate(R.layout.dialog_smb_credentials, null);
@@ -207,52 +372,89 @@ public class MainActivity extends AppCompatActivity {
         edtShare.setText(prefs.getString(KEY_SMB_SHARE, ""));
         edtDomain.setText(prefs.getString(KEY_SMB_DOMAIN, ""));
         edtRemoteDir.setText(prefs.getString(KEY_REMOTE_DIR, ""));
+        Spinner spnProfile = dlgView.findViewById(R.id.spnProfile);
+        spnProfile.setAdapter(new ArrayAdapter<>(this, android.R.layout.simple_spinner_dropdown_item,
+                TransportProfile.values()));
+        spnProfile.setSelection(TransportProfile.fromName(prefs.getString(KEY_SMB_PROFILE, null)).ordinal());
+
+        Runnable save = () -> prefs.edit()
+                .putString(KEY_SMB_USER, edtUser.getText().toString())
+                .putString(KEY_SMB_PASS, edtPass.getText().toString())
+                .putString(KEY_SMB_SHARE, edtShare.getText().toString())
+                .putString(KEY_SMB_DOMAIN, edtDomain.getText().toString())
+                .putString(KEY_REMOTE_DIR, edtRemoteDir.getText().toString())
+                .putString(KEY_SMB_PROFILE, ((TransportProfile) spnProfile.getSelectedItem()).name())
+                .apply();
 
         new AlertDialog.Builder(this)
                 .setTitle("Edit SMB Credentials")
                 .setView(dlgView)
                 .setPositiveButton("Save", (d, w) -> {
-                    prefs.edit()
-                            .putString(KEY_SMB_USER, edtUser.getText().toString())
-                            .putString(KEY_SMB_PASS, edtPass.getText().toString())
-                            .putString(KEY_SMB_SHARE, edtShare.getText().toString())
-                            .putString(KEY_SMB_DOMAIN, edtDomain.getText().toString())
-                            .putString(KEY_REMOTE_DIR, edtRemoteDir.getText().toString())
-                            .apply();
+                    save.run();
                     Toast.makeText(this, "SMB credentials saved", Toast.LENGTH_SHORT).show();
                 })
+                .setNeutralButton("Save & benchmark", (d, w) -> {
+                    save.run();
+                    benchmarkProfiles();
+                })
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    /** Measures every transport profile against the last backup target and offers the fastest. */
+    private void benchmarkProfiles() {
+        DeviceManager.LastChosenDevice target = deviceManager.getLastChosenDevice();
+        if (target == null) {
+            Toast.makeText(this, "Run a backup first so the target is known", Toast.LENGTH_LONG).show();
+            return;
+        }
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        TransportBenchmark.Target smb = TransportBenchmark.smb(target.ip,
+                prefs.getString(KEY_SMB_SHARE, ""),
+                prefs.getString(KEY_SMB_DOMAIN, ""),
+                prefs.getString(KEY_SMB_USER, ""),
+                prefs.getString(KEY_SMB_PASS, ""),
+                prefs.getString(KEY_REMOTE_DIR, ""));
+        txtResult.setText("Benchmarking transport profiles against " + target.ip + "...");
+        AppExecutors.supply(() -> new TransportBenchmark().run(smb), AppExecutors.get().io())
+                .thenAccept(results -> runOnUiThread(() -> {
+                    String report = TransportBenchmark.describe(results);
+                    txtResult.setText(report);
+                    TransportProfile fastest = TransportBenchmark.fastest(results);
+                    if (fastest == null || isFinishing()) return;
+                    new AlertDialog.Builder(this)
+                            .setTitle("Transport benchmark")
+                            .setMessage(report)
+                            .setPositiveButton("Use " + fastest.name(), (d, w) ->
+                                    prefs.edit().putString(KEY_SMB_PROFILE, fastest.name()).apply())
+                            .setNegativeButton("Keep current", null)
+                            .show();
+                }));
+    }
+
     /** === Device Scan & Backup === */
     private void showAvailableDevices() {
         layoutScanProgress.setVisibility(View.VISIBLE);
-        coordinator.scanDevicesWithProgress(
-                (status, cur, tot) -> runOnUiThread(() -> {
-                    txtScanStatus.setText(status);
-                    progressScan.setMax(tot);
-                    progressScan.setProgress(cur);
-                }),
-                devices -> runOnUiThread(() -> {
-                    layoutScanProgress.setVisibility(View.GONE);
-                    if (devices.isEmpty()) {
-                        txtResult.setText("No devices found.");
-                        return;
-                    }
-                    List<NetworkMonitor.DeviceInfo> whitelisted = deviceManager.getWhitelistedDevices(devices);
-                    if (whitelisted.size() == 1) {
-                        txtResult.setText("One whitelisted device:\n" + whitelisted.get(0));
-                    } else {
-                        showDeviceSelectionDialog(devices, chosen -> {
-                            if (chosen != null) {
-                                deviceManager.addToWhitelist(chosen.mac);
-                                txtResult.setText("Whitelisted:\n" + chosen);
-                            }
-                        });
+        if (scanRequest != null) scanRequest.cancel(false);
+        scanRequest = coordinator.scanDevices();
+        scanRequest.thenAccept(devices -> runOnUiThread(() -> {
+            layoutScanProgress.setVisibility(View.GONE);
+            if (devices.isEmpty()) {
+                txtResult.setText("No devices found.");
+                return;
+            }
+            List<NetworkMonitor.DeviceInfo> whitelisted = deviceManager.getWhitelistedDevices(devices);
+            if (whitelisted.size() == 1) {
+                txtResult.setText("One whitelisted device:\n" + whitelisted.get(0));
+            } else {
+                showDeviceSelectionDialog(devices, chosen -> {
+                    if (chosen != null) {
+                        deviceManager.addToWhitelist(chosen.mac);
+                        txtResult.setText("Whitelisted:\n" + chosen);
                     }
-                })
-        );
+                });
+            }
+        }));
     }
 
     private void showDeviceSelectionDialog(List<NetworkMonitor.DeviceInfo> devices,
@@ -269,10 +471,33 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
+    /**
+     * Shows what the run would do (pending files, bytes, expected time to the
+     * last target) and starts it once confirmed, so nobody leaves Wi-Fi
+     * halfway through a three-hour run they expected to take a minute.
+     */
     private void manualBackup() {
-        coordinator.setBackupFolderUris(new ArrayList<>(backupFolders));
-        coordinator.setFileFilter(getFileFilterFromPrefs());
-        coordinator.startBackup((devices, done) -> runOnUiThread(() -> {
+        DeviceManager.LastChosenDevice last = deviceManager.getLastChosenDevice();
+        String share = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getString(KEY_SMB_SHARE, "");
+        String target = last != null ? BackupPlanner.targetKey(last.ip, share) : null;
+        AppExecutors.supply(() -> new BackupPlanner(this).plan(target), AppExecutors.get().io())
+                .thenAccept(plan -> runOnUiThread(() -> {
+                    if (isFinishing()) return;
+                    new AlertDialog.Builder(this)
+                            .setTitle("Start backup?")
+                            .setMessage(plan.summary() + (last != null ? "\nto " + last.ip : "")
+                                    + (BackupRunManager.get(this).isRunning()
+                                    ? "\nA backup is already running; this one joins it." : ""))
+                            .setPositiveButton("Start", (d, w) -> startManualBackup())
+                            .setNegativeButton("Cancel", null)
+                            .show();
+                }));
+    }
+
+    /** Joins a scheduled run already in flight rather than starting a second one. */
+    private void startManualBackup() {
+        BackupRunManager.get(this).request("manual", RunBudget.unrestricted(),
+                (devices, done) -> runOnUiThread(() -> {
                     if (devices == null || devices.isEmpty()) {
                         txtResult.setText("No devices connected.");
                     } else {
@@ -287,7 +512,8 @@ public class MainActivity extends AppCompatActivity {
         String[] perms = {
                 Manifest.permission.INTERNET,
                 Manifest.permission.ACCESS_NETWORK_STATE,
-                Manifest.permission.ACCESS_WIFI_STATE
+                Manifest.permission.ACCESS_WIFI_STATE,
+                Manifest.permission.POST_NOTIFICATIONS
         };
         ActivityCompat.requestPermissions(this, perms, 1);
     }
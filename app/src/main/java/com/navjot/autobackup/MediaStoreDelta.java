@@ -0,0 +1,124 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * MediaStoreDelta
+ * ===============
+ * Finds files created or modified under selected SAF trees since an earlier
+ * point, from the MediaStore generation counter of their storage volume, so
+ * the BackupIndex can be brought up to date without walking the folders.
+ * Only trees of the external storage provider map onto a MediaStore volume.
+ */
+public class MediaStoreDelta {
+
+    private static final String TAG = "MediaStoreDelta";
+    private static final String EXTERNAL_STORAGE_AUTHORITY = "com.android.externalstorage.documents";
+
+    private final Context context;
+
+    /** A changed file under a selected tree, addressed as the tree's provider does. */
+    public static class Change {
+        public final String treeUri;
+        public final String relativeDir;
+        public final String documentId;
+
+        Change(String treeUri, String relativeDir, String documentId) {
+            this.treeUri = treeUri;
+            this.relativeDir = relativeDir;
+            this.documentId = documentId;
+        }
+    }
+
+    public MediaStoreDelta(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * MediaStore volume holding a tree, e.g. "external_primary" for
+     * "primary:DCIM", or null if MediaStore does not index it.
+     */
+    public static String volumeOf(String treeUri) {
+        Uri uri = Uri.parse(treeUri);
+        if (!EXTERNAL_STORAGE_AUTHORITY.equals(uri.getAuthority())) return null;
+        String rootId = DocumentsContract.getTreeDocumentId(uri);
+        int colon = rootId.indexOf(':');
+        if (colon <= 0) return null;
+        String volumeId = rootId.substring(0, colon);
+        return "primary".equalsIgnoreCase(volumeId)
+                ? MediaStore.VOLUME_EXTERNAL_PRIMARY : volumeId.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Current position of a volume, as "version/generation". Generations are
+     * only comparable while the version stays the same.
+     */
+    public String stamp(String volume) {
+        return MediaStore.getVersion(context, volume) + "/" + MediaStore.getGeneration(context, volume);
+    }
+
+    /**
+     * Files on a volume changed after the stamp and lying under one of the trees.
+     * @return the changes, or null if the stamp is from another version of the volume.
+     */
+    public List<Change> changedSince(String volume, String stamp, List<String> treeUris) {
+        int slash = stamp.lastIndexOf('/');
+        if (slash < 0 || !stamp.substring(0, slash).equals(MediaStore.getVersion(context, volume))) return null;
+        long generation = Long.parseLong(stamp.substring(slash + 1));
+
+        List<Change> changes = new ArrayList<>();
+        String[] projection = { MediaStore.MediaColumns.RELATIVE_PATH, MediaStore.MediaColumns.DISPLAY_NAME };
+        try (Cursor c = context.getContentResolver().query(MediaStore.Files.getContentUri(volume), projection,
+                MediaStore.MediaColumns.GENERATION_MODIFIED + " > ? AND "
+                        + MediaStore.MediaColumns.MIME_TYPE + " IS NOT NULL",
+                new String[] { Long.toString(generation) }, null)) {
+            if (c == null) return null;
+            while (c.moveToNext()) {
+                String relativePath = c.getString(0);
+                String name = c.getString(1);
+                if (relativePath == null || name == null) continue;
+                for (String treeUri : treeUris) {
+                    if (!volume.equals(volumeOf(treeUri))) continue;
+                    Change change = under(treeUri, relativePath, name);
+                    if (change != null) changes.add(change);
+                }
+            }
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "Cannot query changes on " + volume + ": " + e.getMessage());
+            return null;
+        }
+        return changes;
+    }
+
+    /** The file as seen from a tree, or null if it lies outside it. */
+    private static Change under(String treeUri, String relativePath, String name) {
+        String rootId = DocumentsContract.getTreeDocumentId(Uri.parse(treeUri));
+        String rootPath = rootId.substring(rootId.indexOf(':') + 1);
+        // RELATIVE_PATH ends with '/', e.g. "DCIM/Camera/"
+        String dir = relativePath.endsWith("/") ? relativePath.substring(0, relativePath.length() - 1) : relativePath;
+        String relativeDir;
+        if (rootPath.isEmpty()) {
+            relativeDir = dir;
+        } else if (dir.equalsIgnoreCase(rootPath)) {
+            relativeDir = "";
+        } else if (dir.length() > rootPath.length() && dir.charAt(rootPath.length()) == '/'
+                && dir.regionMatches(true, 0, rootPath, 0, rootPath.length())) {
+            relativeDir = dir.substring(rootPath.length() + 1);
+        } else {
+            return null;
+        }
+        // Built on the tree's own id, so its spelling of the root is kept
+        String path = relativeDir.isEmpty() ? name : relativeDir + "/" + name;
+        String documentId = rootPath.isEmpty() ? rootId + path : rootId + "/" + path;
+        return new Change(treeUri, relativeDir, documentId);
+    }
+}
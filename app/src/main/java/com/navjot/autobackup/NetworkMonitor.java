@@ -2,21 +2,32 @@ package com.navjot.autobackup;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
 import android.net.Network;
+import android.net.DhcpInfo;
 import android.net.NetworkCapabilities;
+import android.net.RouteInfo;
 import android.net.wifi.WifiManager;
-import android.os.Handler;
-import android.os.Looper;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.lang.reflect.Method;
+import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * NetworkMonitor
@@ -69,6 +80,73 @@ public class NetworkMonitor {
         }
     }
 
+    /**
+     * Identity of the current network for per-network caches: "hotspot" when
+     * tethering, otherwise the addressing of the active network from its
+     * LinkProperties (search domains, gateway, DHCP server, subnet). SSID and
+     * BSSID are not used: without location access, which a background run
+     * never has, Android reports them as unknown for every network.
+     */
+    public String currentNetworkId() {
+        if (isHotspotOn()) return "hotspot";
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        Network net = cm.getActiveNetwork();
+        LinkProperties lp = net != null ? cm.getLinkProperties(net) : null;
+        if (lp == null) return "?|" + detectSubnetPrefix();
+        String gateway = "?";
+        for (RouteInfo route : lp.getRoutes()) {
+            if (route.isDefaultRoute() && route.getGateway() instanceof Inet4Address) {
+                gateway = route.getGateway().getHostAddress();
+                break;
+            }
+        }
+        String subnet = "?";
+        for (LinkAddress address : lp.getLinkAddresses()) {
+            if (address.getAddress() instanceof Inet4Address) {
+                subnet = subnetOf(address);
+                break;
+            }
+        }
+        Inet4Address dhcp = lp.getDhcpServerAddress();
+        return (lp.getDomains() != null ? lp.getDomains() : "") + "|" + gateway + "|"
+                + (dhcp != null ? dhcp.getHostAddress() : "?") + "|" + subnet;
+    }
+
+    /** Network address and prefix length of an interface address, e.g. "192.168.1.0/24". */
+    private static String subnetOf(LinkAddress address) {
+        byte[] ip = address.getAddress().getAddress();
+        int prefix = address.getPrefixLength();
+        for (int i = 0; i < ip.length; i++) {
+            int keep = Math.max(0, Math.min(8, prefix - 8 * i));
+            ip[i] &= (byte) (0xff << (8 - keep));
+        }
+        try {
+            return InetAddress.getByAddress(ip).getHostAddress() + "/" + prefix;
+        } catch (UnknownHostException e) {
+            return "?";
+        }
+    }
+
+    /** Checks whether the SMB port accepts connections. */
+    public boolean isSmbOpen(String ip, int timeout) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(ip, 445), timeout);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Reverse-resolves a hostname, or null if the name server has none. */
+    public String resolveHostname(String ip) {
+        try {
+            String name = InetAddress.getByName(ip).getCanonicalHostName();
+            return ip.equals(name) ? null : name;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     /** Pings an IP address with a given timeout in milliseconds. */
     public boolean pingIp(String ip, int timeout) {
         try {
@@ -97,6 +175,23 @@ public class NetworkMonitor {
         return null;
     }
 
+    /** Reads all complete entries of the kernel neighbor (ARP) table as IP → uppercase MAC. */
+    public Map<String, String> readArpTable() {
+        Map<String, String> table = new LinkedHashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader("/proc/net/arp"))) {
+            br.readLine();
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split("\\s+");
+                if (parts.length >= 4 && parts[3].matches("..:..:..:..:..:..")
+                        && !parts[3].equals("00:00:00:00:00:00")) {
+                    table.put(parts[0], parts[3].toUpperCase());
+                }
+            }
+        } catch (Exception ignored) {}
+        return table;
+    }
+
     /** Checks if a given device is reachable by ping and MAC comparison. */
     public boolean isDeviceReachable(DeviceInfo device) {
         try {
@@ -127,50 +222,117 @@ public class NetworkMonitor {
         @Override public String toString() { return ip + " (" + mac + ")"; }
     }
 
-    /** Callback to receive discovered devices. */
-    public interface ScanCallback {
-        void onScanCompleted(List<DeviceInfo> devices);
-    }
-
-    /** Callback to report scan progress for progress bar updates. */
-    public interface ScanProgressCallback {
-        void onProgress(String statusMessage, int current, int total);
-    }
-
     /**
-     * Scan the subnet asynchronously and report progress per IP.
+     * Scans the subnet on the shared probe pool. Per-host progress goes to
+     * BackupEventStream, which coalesces it into frames. The future completes on
+     * a probe thread; cancelling it skips the probes that have not started.
      */
-    public void scanSubnetAsync(ScanProgressCallback progressCb, final ScanCallback callback) {
+    public CompletableFuture<List<DeviceInfo>> scanSubnetAsync() {
         String baseIp = detectSubnetPrefix();
-        int total = 253; // Scanning .2 to .254
+        final int total = 253; // Scanning .2 to .254
+        final BackupEventStream events = BackupEventStream.shared();
+        final AtomicInteger probed = new AtomicInteger();
         List<DeviceInfo> found = Collections.synchronizedList(new ArrayList<>());
-        ExecutorService pool = Executors.newFixedThreadPool(20);
+        events.phase(BackupProgress.Phase.DISCOVERY, "Scanning " + baseIp + "0/24");
+        ExecutorService probes = AppExecutors.get().probes();
+        CompletableFuture<?>[] hosts = new CompletableFuture<?>[total];
         for (int i = 2; i <= 254; i++) {
-            final int currentIndex = i - 1;
             String ip = baseIp + i;
-            pool.submit(() -> {
-                if (progressCb != null) {
-                    new Handler(Looper.getMainLooper()).post(() ->
-                            progressCb.onProgress("Scanning " + ip, currentIndex, total));
-                }
+            hosts[i - 2] = CompletableFuture.runAsync(() -> {
                 if (pingIp(ip, 200)) {
                     String mac = getMacFromArp(ip);
                     if (mac != null) found.add(new DeviceInfo(ip, mac));
                 }
-            });
+                events.discoveryProgress(probed.incrementAndGet(), total);
+            }, probes);
         }
-        // Only call shutdown after all tasks submitted
-        pool.shutdown();
-        new Thread(() -> {
-            try {
-                while (!pool.isTerminated()) Thread.sleep(50);
-            } catch (InterruptedException ignored) {}
-            new Handler(Looper.getMainLooper()).post(() -> callback.onScanCompleted(found));
-        }).start();
+        CompletableFuture<List<DeviceInfo>> scan = CompletableFuture.allOf(hosts)
+                .thenApply(v -> (List<DeviceInfo>) new ArrayList<>(found));
+        scan.whenComplete((devices, error) -> {
+            if (scan.isCancelled()) {
+                for (CompletableFuture<?> host : hosts) host.cancel(false);
+            }
+            events.phase(BackupProgress.Phase.IDLE, found.size() + " devices found");
+        });
+        return scan;
+    }
+
+    /**
+     * Finds one whitelisted device as fast as possible and stops there.
+     * 1. Whitelisted MACs already in the neighbor table are verified with a short ping.
+     * 2. Otherwise hosts are probed most-likely first: the given IPs, the gateway
+     *    and the DHCP lease neighborhood around our own address, then the rest.
+     * The first verified match completes the future; probes still queued on the
+     * shared pool then return without sending anything, as they do on cancel.
+     * Completes with null if no whitelisted device answered.
+     */
+    public CompletableFuture<DeviceInfo> findWhitelistedDeviceAsync(Set<String> whitelistedMacs,
+                                                                    List<String> likelyIps) {
+        ExecutorService probes = AppExecutors.get().probes();
+        CompletableFuture<DeviceInfo> result = new CompletableFuture<>();
+        probes.execute(() -> {
+            // Passive pass: no traffic except one ping per whitelisted neighbor
+            for (Map.Entry<String, String> e : readArpTable().entrySet()) {
+                if (result.isDone()) return;
+                if (whitelistedMacs.contains(e.getValue()) && pingIp(e.getKey(), 150)) {
+                    result.complete(new DeviceInfo(e.getKey(), e.getValue()));
+                    return;
+                }
+            }
+            List<String> candidates = orderedCandidates(likelyIps);
+            if (candidates.isEmpty()) {
+                result.complete(null);
+                return;
+            }
+            BackupEventStream events = BackupEventStream.shared();
+            AtomicInteger probed = new AtomicInteger();
+            AtomicInteger pending = new AtomicInteger(candidates.size());
+            for (String ip : candidates) {
+                probes.execute(() -> {
+                    if (!result.isDone()) {
+                        events.discoveryProgress(probed.incrementAndGet(), candidates.size());
+                        if (pingIp(ip, 200)) {
+                            String mac = getMacFromArp(ip);
+                            if (mac != null && whitelistedMacs.contains(mac)) {
+                                result.complete(new DeviceInfo(ip, mac));
+                            }
+                        }
+                    }
+                    if (pending.decrementAndGet() == 0) result.complete(null);
+                });
+            }
+        });
+        return result;
     }
 
-    /** Original scan method for backward compat (no progress bar) */
-    public void scanSubnetAsync(final ScanCallback callback) {
-        scanSubnetAsync(null, callback);
+    /** Subnet hosts ordered by how likely they are to be the backup target. */
+    private List<String> orderedCandidates(List<String> likelyIps) {
+        String baseIp = detectSubnetPrefix();
+        Set<String> ordered = new LinkedHashSet<>();
+        for (String ip : likelyIps) {
+            if (ip != null && ip.startsWith(baseIp)) ordered.add(ip);
+        }
+        int own = -1;
+        try {
+            WifiManager wm = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            DhcpInfo dhcp = wm.getDhcpInfo();
+            if (dhcp != null) {
+                int gateway = dhcp.gateway >> 24 & 0xff;
+                if (gateway >= 2 && gateway <= 254) ordered.add(baseIp + gateway);
+                own = dhcp.ipAddress >> 24 & 0xff;
+            }
+        } catch (Exception ignored) {}
+        // DHCP servers hand out neighbouring leases, so hosts near ours come next
+        if (own > 0) {
+            for (int d = 1; d <= 16; d++) {
+                if (own - d >= 2) ordered.add(baseIp + (own - d));
+                if (own + d <= 254) ordered.add(baseIp + (own + d));
+            }
+        }
+        for (int i = 2; i <= 254; i++) {
+            if (i != own) ordered.add(baseIp + i);
+        }
+        return new ArrayList<>(ordered);
     }
+
 }
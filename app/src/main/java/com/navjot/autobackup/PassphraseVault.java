@@ -0,0 +1,110 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * PassphraseVault
+ * ===============
+ * Keeps the encryption passphrase in "BackupPrefs" sealed with an AES-GCM key
+ * held by the Android Keystore, which never hands the key out, so a copy of
+ * the prefs file alone does not reveal the passphrase. A passphrase stored in
+ * plain text by earlier versions is sealed and removed on first read.
+ */
+public class PassphraseVault {
+
+    private static final String TAG = "PassphraseVault";
+    private static final String PREFS_NAME = "BackupPrefs";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS = "backup_passphrase";
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+
+    private final SharedPreferences prefs;
+
+    public PassphraseVault(Context ctx) {
+        this.prefs = ctx.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Whether a passphrase was saved, without unsealing it. */
+    public boolean isSet() {
+        return prefs.contains(MainActivity.KEY_ENCRYPT_PASSPHRASE_SEALED)
+                || !prefs.getString(MainActivity.KEY_ENCRYPT_PASSPHRASE, "").isEmpty();
+    }
+
+    /**
+     * @return the saved passphrase, or an empty string if there is none.
+     * @throws GeneralSecurityException if it cannot be unsealed, e.g. the
+     *         prefs were restored to another device without the Keystore key
+     */
+    public synchronized String get() throws GeneralSecurityException {
+        String legacy = prefs.getString(MainActivity.KEY_ENCRYPT_PASSPHRASE, "");
+        if (!legacy.isEmpty()) {
+            set(legacy);
+            return legacy;
+        }
+        String sealed = prefs.getString(MainActivity.KEY_ENCRYPT_PASSPHRASE_SEALED, null);
+        if (sealed == null) return "";
+        ByteBuffer in = ByteBuffer.wrap(Base64.decode(sealed, Base64.NO_WRAP));
+        byte[] iv = new byte[IV_SIZE];
+        in.get(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+        byte[] plain = cipher.doFinal(in.array(), in.position(), in.remaining());
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    /** Seals and saves a passphrase; an empty one removes it. */
+    public synchronized void set(String passphrase) throws GeneralSecurityException {
+        SharedPreferences.Editor editor = prefs.edit().remove(MainActivity.KEY_ENCRYPT_PASSPHRASE);
+        if (passphrase.isEmpty()) {
+            editor.remove(MainActivity.KEY_ENCRYPT_PASSPHRASE_SEALED).apply();
+            return;
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        // The Keystore picks a random IV per encryption
+        cipher.init(Cipher.ENCRYPT_MODE, key());
+        byte[] iv = cipher.getIV();
+        byte[] sealed = cipher.doFinal(passphrase.getBytes(StandardCharsets.UTF_8));
+        byte[] out = ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array();
+        editor.putString(MainActivity.KEY_ENCRYPT_PASSPHRASE_SEALED, Base64.encodeToString(out, Base64.NO_WRAP))
+                .apply();
+    }
+
+    private static SecretKey key() throws GeneralSecurityException {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+            keyStore.load(null);
+            KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+            if (entry instanceof KeyStore.SecretKeyEntry) {
+                return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+            }
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+        Log.i(TAG, "Creating Keystore key for the passphrase");
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
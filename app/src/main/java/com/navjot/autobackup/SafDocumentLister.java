@@ -0,0 +1,84 @@
+package com.navjot.autobackup;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * SafDocumentLister
+ * =================
+ * DocumentLister over Storage Access Framework trees: one child-documents
+ * query per directory, reading name, type, size and mtime from the cursor.
+ */
+public class SafDocumentLister implements DocumentLister {
+
+    private static final String TAG = "SafDocumentLister";
+    private static final String[] PROJECTION = {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_SIZE,
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED
+    };
+
+    private final ContentResolver resolver;
+
+    public SafDocumentLister(Context context) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+    }
+
+    @Override
+    public String rootDocumentId(String treeUri) {
+        return DocumentsContract.getTreeDocumentId(Uri.parse(treeUri));
+    }
+
+    @Override
+    public String documentUri(String treeUri, String documentId) {
+        return DocumentsContract.buildDocumentUriUsingTree(Uri.parse(treeUri), documentId).toString();
+    }
+
+    @Override
+    public void listChildren(String treeUri, String parentDocumentId, ChildVisitor visitor) throws IOException {
+        Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(Uri.parse(treeUri), parentDocumentId);
+        try (Cursor c = resolver.query(children, PROJECTION, null, null, null)) {
+            if (c == null) throw new IOException("Provider returned no cursor for " + children);
+            while (c.moveToNext()) {
+                visitor.onChild(
+                        c.getString(0),
+                        c.getString(1),
+                        c.getString(2),
+                        c.isNull(3) ? -1 : c.getLong(3),
+                        c.isNull(4) ? 0 : c.getLong(4));
+            }
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "Cannot list " + children + ": " + e.getMessage());
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads the row of a single document, e.g. to confirm a change reported
+     * elsewhere. @return false if it no longer exists or cannot be read.
+     */
+    public boolean describe(String treeUri, String documentId, ChildVisitor visitor) {
+        Uri document = DocumentsContract.buildDocumentUriUsingTree(Uri.parse(treeUri), documentId);
+        try (Cursor c = resolver.query(document, PROJECTION, null, null, null)) {
+            if (c == null || !c.moveToFirst()) return false;
+            visitor.onChild(
+                    c.getString(0),
+                    c.getString(1),
+                    c.getString(2),
+                    c.isNull(3) ? -1 : c.getLong(3),
+                    c.isNull(4) ? 0 : c.getLong(4));
+            return true;
+        } catch (SecurityException | IllegalArgumentException e) {
+            // The provider reports a document that is gone this way
+            return false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.navjot.autobackup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * SharedPreferencesStore
+ * ======================
+ * KeyValueStore over the app's "BackupPrefs", so engine state sits next to
+ * the settings it always lived with. Writes are applied asynchronously.
+ */
+public class SharedPreferencesStore implements KeyValueStore {
+
+    private static final String PREFS_NAME = "BackupPrefs";
+
+    private final SharedPreferences prefs;
+
+    public SharedPreferencesStore(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        return prefs.getString(key, defaultValue);
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        if (value == null) {
+            prefs.edit().remove(key).apply();
+        } else {
+            prefs.edit().putString(key, value).apply();
+        }
+    }
+}
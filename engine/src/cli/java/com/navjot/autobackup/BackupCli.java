@@ -0,0 +1,153 @@
+package com.navjot.autobackup;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * BackupCli
+ * =========
+ * Backs up local directories to an SMB share with the same engine the app
+ * runs, so uploads can be profiled on a desktop JVM (JFR, async-profiler)
+ * without a phone in the loop:
+ *
+ *   backup-cli --server 192.168.1.10 --share Backup --user me [--profile SECURE] DIR...
+ *
+ * The password comes from --password or AUTOBACKUP_PASSWORD. History and the
+ * journal live in --state-dir (default ~/.autobackup), so a second run only
+ * sends new files and an interrupted one resumes. Ctrl-C stops the run the
+ * way cancelling it in the app does. --benchmark measures every profile, then
+ * the cost of each encryption algorithm against a plain upload with --profile.
+ */
+public final class BackupCli {
+
+    private static final String TAG = "BackupCli";
+    private static final String USAGE = "Usage: backup-cli --server HOST --share SHARE --user USER"
+            + " [--password PASS] [--domain DOMAIN] [--remote-dir DIR] [--profile "
+            + "TRUSTED_LAN|SECURE|COMPAT] [--verify NONE|SIZE|SAMPLED|FULL] [--filter RULE]..."
+            + " [--state-dir DIR] [--benchmark] SOURCE_DIR...";
+
+    private BackupCli() {}
+
+    public static void main(String[] args) throws Exception {
+        String server = null, share = null, user = null, domain = "", remoteDir = "";
+        String password = System.getenv("AUTOBACKUP_PASSWORD");
+        String profile = null;
+        UploadVerifier.Level verify = UploadVerifier.Level.SIZE;
+        File stateDir = new File(System.getProperty("user.home"), ".autobackup");
+        boolean benchmark = false;
+        List<String> rules = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--server": server = args[++i]; break;
+                    case "--share": share = args[++i]; break;
+                    case "--user": user = args[++i]; break;
+                    case "--password": password = args[++i]; break;
+                    case "--domain": domain = args[++i]; break;
+                    case "--remote-dir": remoteDir = args[++i]; break;
+                    case "--profile": profile = args[++i]; break;
+                    case "--verify": verify = UploadVerifier.Level.valueOf(args[++i]); break;
+                    case "--filter": rules.add(args[++i]); break;
+                    case "--state-dir": stateDir = new File(args[++i]); break;
+                    case "--benchmark": benchmark = true; break;
+                    default:
+                        if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown option " + arg);
+                        sources.add(new File(arg).getAbsolutePath());
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing option value");
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        if (server == null || share == null || user == null || password == null
+                || (sources.isEmpty() && !benchmark)) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        installCpuClock();
+
+        if (benchmark) {
+            TransportBenchmark.Target target = TransportBenchmark.smb(server, share, domain, user, password, remoteDir);
+            TransportBenchmark bench = new TransportBenchmark();
+            System.out.println(TransportBenchmark.describe(bench.run(target)));
+            System.out.println();
+            System.out.println(TransportBenchmark.describeEncryption(
+                    bench.runEncryption(target, TransportProfile.fromName(profile))));
+            System.exit(0);
+        }
+
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            System.err.println("Cannot create state directory " + stateDir);
+            System.exit(2);
+        }
+        BackupEngine engine = new BackupEngine(server, share, remoteDir,
+                new SmbjClient(server, share, domain, user, password, remoteDir, TransportProfile.fromName(profile)),
+                new LocalFileSource(),
+                BackupJournal.forTarget(stateDir, share, remoteDir),
+                new UploadHistory(new FileKeyValueStore(new File(stateDir, "state.properties"))));
+        final UploadVerifier.Level level = verify;
+        engine.setPolicy(new UploadRunner.FilePolicy() {
+            @Override public UploadVerifier.Level verifyLevel(BackupItem item) { return level; }
+            @Override public BackupCrypto.FileEncryptor encryptorFor(BackupItem item, byte[] fileId) { return null; }
+        });
+
+        final CountDownLatch finished = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (finished.getCount() == 0) return;
+            EngineLog.i(TAG, "Interrupted, stopping after files in flight");
+            engine.cancel();
+            try {
+                finished.await();
+            } catch (InterruptedException ignored) {}
+        }));
+
+        BackupEventStream events = BackupEventStream.shared();
+        BackupEventStream.Subscriber printer = p -> System.err.print("\r" + p.summary() + "   ");
+        events.subscribe(printer, 1000);
+        UploadRunner.Result result;
+        try {
+            List<BackupItem> files = engine.resumeInterruptedRun();
+            if (files != null) {
+                EngineLog.i(TAG, "Resuming interrupted run with " + files.size() + " files");
+            } else {
+                events.phase(BackupProgress.Phase.ENUMERATING, server);
+                long start = System.currentTimeMillis();
+                files = engine.findNewFiles(new LocalDocumentLister(), sources, BackupFilter.compile(rules),
+                        AppExecutors.get().enumeration());
+                EngineLog.i(TAG, "Found " + files.size() + " new files in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
+            long bytes = 0;
+            for (BackupItem f : files) bytes += Math.max(0, f.size);
+            events.planned(files.size(), bytes);
+            events.phase(BackupProgress.Phase.UPLOADING, server);
+            long start = System.currentTimeMillis();
+            result = engine.upload(files, RunBudget.unrestricted());
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            events.phase(BackupProgress.Phase.FINISHED, result.toString());
+            System.err.println();
+            System.out.println(result + " in " + elapsed + " ms ("
+                    + BackupProgress.formatRate(result.bytes * 1000 / elapsed) + ")");
+        } finally {
+            events.unsubscribe(printer);
+            finished.countDown();
+        }
+        System.exit(result.failed > 0 || result.abortReason != null || engine.isCancelled() ? 1 : 0);
+    }
+
+    /** Lets benchmarks report CPU per MiB on HotSpot-style JVMs, as the app does on Android. */
+    private static void installCpuClock() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            com.sun.management.OperatingSystemMXBean bean = (com.sun.management.OperatingSystemMXBean) os;
+            TransportBenchmark.setCpuClock(() -> bean.getProcessCpuTime() / 1_000_000);
+        }
+    }
+}
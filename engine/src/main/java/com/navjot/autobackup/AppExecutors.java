@@ -0,0 +1,155 @@
+package com.navjot.autobackup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AppExecutors
+ * ============
+ * The app's only thread pools, created once per process:
+ *  - probes:      short network probes (ping, port checks), 16 threads, bounded queue
+ *  - enumeration: work-stealing pool for folder listing, FolderScanner parallelism
+ *  - io:          uploads, backup runs and other blocking I/O; hands tasks straight
+ *                 to a thread (up to 32) because runs wait on files and files on ranges
+ *  - scheduler:   one thread for timers and frame ticks; tasks on it must not block
+ *
+ * Idle threads time out, so nothing is created per scan or per run. When a
+ * bounded pool is saturated the submitting thread runs the task itself, which
+ * slows producers instead of failing or deadlocking nested waits.
+ */
+public final class AppExecutors {
+
+    private static final int PROBE_THREADS = 16;
+    private static final int PROBE_QUEUE = 1024;
+    private static final int IO_CORE_THREADS = 2;
+    private static final int IO_MAX_THREADS = 32;
+    private static final long KEEP_ALIVE_S = 30;
+
+    private static volatile AppExecutors instance;
+
+    private final ThreadPoolExecutor probes;
+    private final ThreadPoolExecutor io;
+    private final ForkJoinPool enumeration;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /** Point-in-time load of one pool, for logs and diagnostics. */
+    public static class PoolStats {
+        public final String name;
+        public final int threads, active, largest;
+        public final long queued, completed;
+
+        PoolStats(String name, int threads, int active, int largest, long queued, long completed) {
+            this.name = name;
+            this.threads = threads;
+            this.active = active;
+            this.largest = largest;
+            this.queued = queued;
+            this.completed = completed;
+        }
+
+        @Override public String toString() {
+            return name + " " + active + "/" + threads + " active (peak " + largest + "), "
+                    + queued + " queued, " + completed + " done";
+        }
+    }
+
+    private AppExecutors() {
+        probes = new ThreadPoolExecutor(PROBE_THREADS, PROBE_THREADS, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(PROBE_QUEUE), threads("probe"), new ThreadPoolExecutor.CallerRunsPolicy());
+        probes.allowCoreThreadTimeOut(true);
+        io = new ThreadPoolExecutor(IO_CORE_THREADS, IO_MAX_THREADS, KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threads("io"), new ThreadPoolExecutor.CallerRunsPolicy());
+        AtomicInteger enumCount = new AtomicInteger();
+        enumeration = new ForkJoinPool(FolderScanner.DEFAULT_PARALLELISM, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("enumeration-" + enumCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+        scheduler = new ScheduledThreadPoolExecutor(1, threads("scheduler"));
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    public static AppExecutors get() {
+        AppExecutors e = instance;
+        if (e == null) {
+            synchronized (AppExecutors.class) {
+                e = instance;
+                if (e == null) instance = e = new AppExecutors();
+            }
+        }
+        return e;
+    }
+
+    public ExecutorService probes() { return probes; }
+
+    public ForkJoinPool enumeration() { return enumeration; }
+
+    public ExecutorService io() { return io; }
+
+    public ScheduledExecutorService scheduler() { return scheduler; }
+
+    /** Runs a task that may throw on the given executor; failures complete the future exceptionally. */
+    public static <T> CompletableFuture<T> supply(Callable<T> task, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    public List<PoolStats> stats() {
+        List<PoolStats> list = new ArrayList<>();
+        list.add(stats("probes", probes));
+        list.add(stats("io", io));
+        list.add(new PoolStats("enumeration", enumeration.getPoolSize(), enumeration.getActiveThreadCount(),
+                enumeration.getParallelism(),
+                enumeration.getQueuedSubmissionCount() + enumeration.getQueuedTaskCount(),
+                enumeration.getStealCount()));
+        list.add(stats("scheduler", scheduler));
+        return list;
+    }
+
+    /** One line per pool, e.g. for a log statement at the end of a run. */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (PoolStats s : stats()) {
+            if (sb.length() > 0) sb.append("; ");
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static PoolStats stats(String name, ThreadPoolExecutor pool) {
+        return new PoolStats(name, pool.getPoolSize(), pool.getActiveCount(), pool.getLargestPoolSize(),
+                pool.getQueue().size(), pool.getCompletedTaskCount());
+    }
+
+    private static ThreadFactory threads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
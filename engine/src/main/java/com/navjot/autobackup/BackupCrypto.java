@@ -0,0 +1,360 @@
+package com.navjot.autobackup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * BackupCrypto
+ * ============
+ * Client-side encryption of backed-up files in independent fixed-size chunks,
+ * so any chunk can be encrypted, uploaded or resumed on its own (range uploads).
+ *
+ * File layout:
+ *   header (64 bytes): "ABKE", version, algorithm, chunk size, plaintext length,
+ *                      PBKDF2 salt and iterations, file id
+ *   chunk i:           AEAD(ciphertext + 16 byte tag), at HEADER_SIZE + i * (chunk + 16)
+ *
+ * The passphrase is stretched once per run with PBKDF2-HMAC-SHA256; each file
+ * gets its own key, HMAC-SHA256(master key, file id), and chunk i uses the
+ * nonce 0x00000000 || i. The file id is random per upload, never derived from
+ * file metadata, so a key never seals two different contents; only a resumed
+ * range upload reuses its id, taken from the journal. The whole header is
+ * authenticated with every chunk, so truncating, reordering or splicing
+ * chunks fails decryption.
+ *
+ * AES-256-GCM uses the CPU's AES instructions where present; ChaCha20-Poly1305
+ * is the faster choice on cores without them. Target: encryption costs less
+ * than 10% of a 40 MB/s upload, as measured by backup-cli --benchmark.
+ *
+ * Restore on a PC: java com.navjot.autobackup.BackupCrypto decrypt in.abk out
+ * (passphrase read from the ABK_PASSPHRASE environment variable or stdin).
+ */
+public class BackupCrypto {
+
+    public static final int HEADER_SIZE = 64;
+    public static final int TAG_SIZE = 16;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_ITERATIONS = 200_000;
+    public static final String FILE_SUFFIX = ".abk";
+
+    private static final byte[] MAGIC = { 'A', 'B', 'K', 'E' };
+    private static final byte VERSION = 1;
+    private static final int SALT_SIZE = 16;
+    private static final int FILE_ID_SIZE = 16;
+
+    public enum Algorithm {
+        AES_GCM(1),
+        CHACHA20_POLY1305(2);
+
+        final byte id;
+
+        Algorithm(int id) { this.id = (byte) id; }
+
+        static Algorithm fromId(int id) throws IOException {
+            for (Algorithm a : values()) if (a.id == id) return a;
+            throw new IOException("Unknown cipher id " + id);
+        }
+    }
+
+    /** Passphrase-derived key with the parameters needed to re-derive it. */
+    public static class MasterKey {
+        final byte[] key;
+        final byte[] salt;
+        final int iterations;
+
+        MasterKey(byte[] key, byte[] salt, int iterations) {
+            this.key = key;
+            this.salt = salt;
+            this.iterations = iterations;
+        }
+    }
+
+    /** Stretches a passphrase; expensive on purpose, so call once per run. */
+    public static MasterKey deriveKey(char[] passphrase, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        byte[] key = f.generateSecret(new PBEKeySpec(passphrase, salt, iterations, 256)).getEncoded();
+        return new MasterKey(key, salt.clone(), iterations);
+    }
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_SIZE];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    /** Size of the encrypted file for a given plaintext length. */
+    public static long encryptedLength(long plainLength, int chunkSize) {
+        long chunks = (plainLength + chunkSize - 1) / chunkSize;
+        return HEADER_SIZE + plainLength + chunks * TAG_SIZE;
+    }
+
+    /**
+     * Per-file encryption state: header plus a key bound to this file.
+     * encryptChunk may be called from several threads at once.
+     */
+    public static class FileEncryptor {
+        private final Algorithm algorithm;
+        private final int chunkSize;
+        private final long plainLength;
+        private final byte[] header;
+        private final byte[] fileId;
+        private final SecretKeySpec fileKey;
+        private final ThreadLocal<Cipher> ciphers;
+
+        FileEncryptor(Algorithm algorithm, int chunkSize, long plainLength, byte[] header, byte[] fileId,
+                      byte[] fileKey) {
+            this.algorithm = algorithm;
+            this.chunkSize = chunkSize;
+            this.plainLength = plainLength;
+            this.header = header;
+            this.fileId = fileId;
+            this.fileKey = new SecretKeySpec(fileKey, keyAlgorithm(algorithm));
+            this.ciphers = new ThreadLocal<Cipher>() {
+                @Override protected Cipher initialValue() {
+                    try {
+                        return newCipher(algorithm);
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+        }
+
+        public byte[] header() { return header.clone(); }
+
+        /** Id in the header that the file key derives from. */
+        public byte[] fileId() { return fileId.clone(); }
+
+        public int chunkSize() { return chunkSize; }
+
+        /** Size of the plaintext the encryptor was created for. */
+        public long plainLength() { return plainLength; }
+
+        public long encryptedLength() { return BackupCrypto.encryptedLength(plainLength, chunkSize); }
+
+        /** Offset of chunk i in the encrypted file. */
+        public long chunkOffset(long index) {
+            return HEADER_SIZE + index * (chunkSize + TAG_SIZE);
+        }
+
+        /**
+         * Encrypts one chunk (at most chunkSize bytes, only the last may be short).
+         * @return bytes written to out, always len + TAG_SIZE.
+         */
+        public int encryptChunk(long index, byte[] in, int off, int len, byte[] out, int outOff)
+                throws GeneralSecurityException {
+            Cipher c = ciphers.get();
+            init(c, Cipher.ENCRYPT_MODE, algorithm, fileKey, index);
+            c.updateAAD(header);
+            return c.doFinal(in, off, len, out, outOff);
+        }
+
+        /**
+         * Seals a chunk again, to compare with what was uploaded. Uses a cipher
+         * of its own: providers refuse to reuse a GCM nonce on the same cipher.
+         */
+        public int encryptChunkAgain(long index, byte[] in, int off, int len, byte[] out, int outOff)
+                throws GeneralSecurityException {
+            Cipher c = newCipher(algorithm);
+            init(c, Cipher.ENCRYPT_MODE, algorithm, fileKey, index);
+            c.updateAAD(header);
+            return c.doFinal(in, off, len, out, outOff);
+        }
+    }
+
+    /** Random id for a new upload of a file; record it to resume that upload. */
+    public static byte[] newFileId() {
+        byte[] id = new byte[FILE_ID_SIZE];
+        new SecureRandom().nextBytes(id);
+        return id;
+    }
+
+    /**
+     * Starts encryption of one file of the given plaintext length. Create a new
+     * encryptor per upload attempt; its ciphers are not reused across attempts.
+     * @param fileId from newFileId(), or the recorded id of a range upload being resumed.
+     */
+    public static FileEncryptor newFile(MasterKey master, Algorithm algorithm, int chunkSize,
+                                        long plainLength, byte[] fileId) throws GeneralSecurityException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_SIZE);
+        h.put(MAGIC).put(VERSION).put(algorithm.id).putShort((short) 0)
+                .putInt(chunkSize).putLong(plainLength)
+                .put(master.salt).putInt(master.iterations).put(fileId);
+        return new FileEncryptor(algorithm, chunkSize, plainLength, h.array(), fileId.clone(),
+                fileKey(master.key, fileId));
+    }
+
+    /**
+     * Wraps a plaintext stream of known length into the encrypted file format.
+     * The source must deliver exactly plainLength bytes.
+     */
+    public static InputStream encryptingStream(InputStream plain, FileEncryptor enc) {
+        return new InputStream() {
+            private final byte[] in = new byte[enc.chunkSize];
+            private final byte[] out = new byte[enc.chunkSize + TAG_SIZE];
+            private int outPos = 0, outLen = 0;
+            private long chunkIndex = 0, consumed = 0;
+            private boolean headerSent = false;
+
+            @Override public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override public int read(byte[] b, int off, int len) throws IOException {
+                if (outPos == outLen && !fill()) return -1;
+                int n = Math.min(len, outLen - outPos);
+                System.arraycopy(out, outPos, b, off, n);
+                outPos += n;
+                return n;
+            }
+
+            private boolean fill() throws IOException {
+                if (!headerSent) {
+                    System.arraycopy(enc.header, 0, out, 0, HEADER_SIZE);
+                    outPos = 0;
+                    outLen = HEADER_SIZE;
+                    headerSent = true;
+                    return true;
+                }
+                int want = (int) Math.min(enc.chunkSize, enc.plainLength - consumed);
+                if (want <= 0) {
+                    if (plain.read() != -1) throw new IOException("Source is longer than " + enc.plainLength);
+                    return false;
+                }
+                readFully(plain, in, want);
+                try {
+                    outLen = enc.encryptChunk(chunkIndex++, in, 0, want, out, 0);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+                outPos = 0;
+                consumed += want;
+                return true;
+            }
+
+            @Override public void close() throws IOException { plain.close(); }
+        };
+    }
+
+    /** Decrypts a whole encrypted file, failing on any tampering or truncation. */
+    public static void decrypt(InputStream encrypted, OutputStream plain, char[] passphrase)
+            throws IOException, GeneralSecurityException {
+        DataInputStream in = new DataInputStream(encrypted);
+        byte[] header = new byte[HEADER_SIZE];
+        in.readFully(header);
+        ByteBuffer h = ByteBuffer.wrap(header);
+        byte[] magic = new byte[4];
+        h.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not an encrypted backup file");
+        if (h.get() != VERSION) throw new IOException("Unsupported backup file version");
+        Algorithm algorithm = Algorithm.fromId(h.get());
+        h.getShort();
+        int chunkSize = h.getInt();
+        long plainLength = h.getLong();
+        byte[] salt = new byte[SALT_SIZE];
+        h.get(salt);
+        int iterations = h.getInt();
+        byte[] fileId = new byte[FILE_ID_SIZE];
+        h.get(fileId);
+
+        MasterKey master = deriveKey(passphrase, salt, iterations);
+        SecretKeySpec key = new SecretKeySpec(fileKey(master.key, fileId), keyAlgorithm(algorithm));
+        Cipher c = newCipher(algorithm);
+        byte[] buf = new byte[chunkSize + TAG_SIZE];
+        byte[] out = new byte[chunkSize + TAG_SIZE];
+        long remaining = plainLength;
+        for (long index = 0; remaining > 0; index++) {
+            int plainLen = (int) Math.min(chunkSize, remaining);
+            try {
+                in.readFully(buf, 0, plainLen + TAG_SIZE);
+            } catch (EOFException e) {
+                throw new IOException("Encrypted file is truncated at chunk " + index);
+            }
+            init(c, Cipher.DECRYPT_MODE, algorithm, key, index);
+            c.updateAAD(header);
+            int n = c.doFinal(buf, 0, plainLen + TAG_SIZE, out, 0);
+            plain.write(out, 0, n);
+            remaining -= n;
+        }
+        if (in.read() != -1) throw new IOException("Unexpected data after last chunk");
+    }
+
+    /** Restore utility: decrypt in.abk out.file */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 || !args[0].equals("decrypt")) {
+            System.err.println("usage: BackupCrypto decrypt <in.abk> <out>");
+            System.exit(2);
+        }
+        String pass = System.getenv("ABK_PASSPHRASE");
+        if (pass == null) {
+            System.err.print("Passphrase: ");
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int ch;
+            while ((ch = System.in.read()) != -1 && ch != '\n') line.write(ch);
+            pass = line.toString("UTF-8").trim();
+        }
+        try (InputStream in = new FileInputStream(args[1]);
+             OutputStream out = new FileOutputStream(args[2])) {
+            decrypt(in, out, pass.toCharArray());
+        }
+    }
+
+    private static byte[] fileKey(byte[] masterKey, byte[] fileId) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+        return mac.doFinal(fileId);
+    }
+
+    private static String keyAlgorithm(Algorithm a) {
+        return a == Algorithm.AES_GCM ? "AES" : "ChaCha20";
+    }
+
+    private static Cipher newCipher(Algorithm a) throws GeneralSecurityException {
+        if (a == Algorithm.AES_GCM) return Cipher.getInstance("AES/GCM/NoPadding");
+        try {
+            return Cipher.getInstance("ChaCha20-Poly1305");
+        } catch (GeneralSecurityException e) {
+            // Android (Conscrypt) registers it under the transformation-style name
+            return Cipher.getInstance("ChaCha20/Poly1305/NoPadding");
+        }
+    }
+
+    private static void init(Cipher c, int mode, Algorithm a, SecretKeySpec key, long index)
+            throws GeneralSecurityException {
+        byte[] nonce = ByteBuffer.allocate(12).putInt(0).putLong(index).array();
+        if (a == Algorithm.AES_GCM) {
+            c.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        } else {
+            c.init(mode, key, new IvParameterSpec(nonce));
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int done = 0;
+        while (done < len) {
+            int n = in.read(buf, done, len - done);
+            if (n == -1) throw new EOFException("Source ended " + (len - done) + " bytes early");
+            done += n;
+        }
+    }
+}
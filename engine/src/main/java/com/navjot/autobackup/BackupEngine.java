@@ -0,0 +1,205 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * BackupEngine
+ * ============
+ * One backup target and the run logic that does not depend on a platform:
+ * finding new files, resuming an interrupted run from the journal, uploading
+ * through an UploadRunner and reporting to the BackupEventStream. The host
+ * supplies the transport, how files are read, where history is kept and
+ * (optionally) per-file policy, tuning and a listener; FileBackupManager is
+ * the Android host, BackupCli the desktop one.
+ */
+public class BackupEngine {
+
+    private static final String TAG = "BackupEngine";
+
+    private final String serverIp, shareName, remoteDir;
+    private final BackupTransport transport;
+    private final UploadRunner.Source source;
+    private final BackupJournal journal;
+    private final UploadHistory history;
+    private UploadRunner.FilePolicy policy;
+    private UploadRunner.Tuner tuner;
+    private UploadRunner.Listener listener;
+    private UploadRunner.History onUploaded;
+    private CircuitBreaker breaker;
+    private volatile UploadRunner activeRunner;
+    private volatile boolean cancelled = false;
+    private UploadRunner.Result lastResult;
+
+    public BackupEngine(String serverIp, String shareName, String remoteDir, BackupTransport transport,
+                        UploadRunner.Source source, BackupJournal journal, UploadHistory history) {
+        this.serverIp = serverIp;
+        this.shareName = shareName;
+        this.remoteDir = remoteDir;
+        this.transport = transport;
+        this.source = source;
+        this.journal = journal;
+        this.history = history;
+        this.breaker = CircuitBreaker.forTarget(serverIp + "/" + shareName);
+    }
+
+    /** Verification and encryption per file; size check without encryption if unset. */
+    public void setPolicy(UploadRunner.FilePolicy policy) { this.policy = policy; }
+
+    /** Persisted link tuning; without one each run probes the link afresh. */
+    public void setTuner(UploadRunner.Tuner tuner) { this.tuner = tuner; }
+
+    /** Receives file events in addition to the BackupEventStream. */
+    public void setListener(UploadRunner.Listener listener) { this.listener = listener; }
+
+    /** Called after a file is added to history, e.g. to update a catalog. */
+    public void setOnUploaded(UploadRunner.History onUploaded) { this.onUploaded = onUploaded; }
+
+    public void setCircuitBreaker(CircuitBreaker breaker) { this.breaker = breaker; }
+
+    public UploadHistory getHistory() { return history; }
+
+    /**
+     * Picks up a run interrupted by process death, if its journal targets the same share.
+     * @return remaining files of that run (already uploaded ones dropped), or null if none.
+     */
+    public List<BackupItem> resumeInterruptedRun() {
+        BackupJournal.PendingRun run = journal.recover();
+        if (run == null) return null;
+        if (!run.isFor(shareName, remoteDir)) {
+            // Journals are per target; this one is another target's and stays for it
+            EngineLog.w(TAG, "Journal holds a run to " + run.serverIp + "/" + run.shareName + ", not resuming it");
+            return null;
+        }
+        // "Done" records are fsynced in batches; history is the authority for finished files
+        Set<String> historySet = history.keys();
+        List<BackupItem> remaining = new ArrayList<>();
+        for (BackupItem item : run.remaining) {
+            if (!historySet.contains(item.historyKey())) remaining.add(item);
+        }
+        if (remaining.isEmpty()) {
+            journal.finishRun();
+            return null;
+        }
+        try {
+            journal.resumeRun(run);
+        } catch (IOException e) {
+            EngineLog.w(TAG, "Cannot reopen backup journal: " + e.getMessage());
+        }
+        return remaining;
+    }
+
+    /**
+     * Walks the trees and returns the files that pass the filter and are not
+     * in upload history, in no particular order.
+     * @param pool listing pool owned by the caller.
+     */
+    public List<BackupItem> findNewFiles(DocumentLister lister, List<String> treeUris, BackupFilter filter,
+                                         ForkJoinPool pool) {
+        if (!filter.getInvalidRules().isEmpty()) {
+            EngineLog.w(TAG, "Ignoring invalid filter rules: " + filter.getInvalidRules());
+        }
+        final Set<String> historySet = history.keys();
+        final List<BackupItem> result = Collections.synchronizedList(new ArrayList<>());
+        FolderScanner scanner = new FolderScanner(lister, pool);
+        scanner.setDirectoryFilter(filter);
+        scanner.scan(treeUris, (treeUri, dir, documentId, name, mime, size, lastModified) -> {
+            if (!filter.accepts(name, mime, size, lastModified)) return;
+            BackupItem item = new BackupItem(treeUri, dir, lister.documentUri(treeUri, documentId),
+                    name, size, lastModified);
+            if (!historySet.contains(item.historyKey())) result.add(item);
+        });
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Uploads files with the concurrency the budget allows. Once the byte
+     * budget is spent the remaining files are left for a later run, which
+     * finds them again. The journal is finished when the run went through;
+     * a cancelled or aborted run keeps it, so the next one resumes.
+     */
+    public UploadRunner.Result upload(List<BackupItem> files, RunBudget budget) {
+        if (!journal.isActive()) {
+            try {
+                journal.beginRun(serverIp, shareName, remoteDir, files);
+            } catch (IOException e) {
+                EngineLog.w(TAG, "Backup journal unavailable, run will not be resumable: " + e.getMessage());
+            }
+        }
+        UploadRunner runner = new UploadRunner(transport, source, journal, item -> {
+            history.add(item);
+            if (onUploaded != null) onUploaded.add(item);
+        });
+        if (tuner != null) runner.setTuner(tuner);
+        if (policy != null) runner.setPolicy(policy);
+        runner.setCircuitBreaker(breaker);
+        final BackupEventStream events = BackupEventStream.shared();
+        final UploadRunner.Listener host = listener;
+        runner.setListener(new UploadRunner.Listener() {
+            @Override public void onFileStarted(BackupItem item) {
+                events.fileStarted(item.name);
+                if (host != null) host.onFileStarted(item);
+            }
+            @Override public void onBytes(BackupItem item, long bytes) {
+                events.bytes(item.name, bytes);
+                if (host != null) host.onBytes(item, bytes);
+            }
+            @Override public void onAttemptFailed(BackupItem item, int attempt, Exception error) {
+                events.retry(item.name, attempt);
+                if (error != null) {
+                    EngineLog.e(TAG, "Error uploading file " + item.name + ": " + error.getMessage(), error);
+                }
+                if (host != null) host.onAttemptFailed(item, attempt, error);
+            }
+            @Override public void onFileFinished(BackupItem item, boolean success) {
+                events.fileFinished(item.name, item.size, success);
+                if (host != null) host.onFileFinished(item, success);
+            }
+        });
+
+        activeRunner = runner;
+        if (cancelled) runner.cancel();
+        UploadRunner.Result result;
+        try {
+            result = runner.run(files, budget);
+        } finally {
+            activeRunner = null;
+        }
+        lastResult = result;
+        if (result.abortReason != null) {
+            EngineLog.w(TAG, "Run stopped early (" + result.abortReason + "); " + result.deferred + " files deferred");
+        } else if (result.deferred > 0) {
+            EngineLog.i(TAG, "Byte budget of " + budget + " reached; " + result.deferred + " files deferred");
+        }
+        if (result.abortReason != null || cancelled) {
+            journal.suspendRun();
+        } else {
+            journal.finishRun();
+        }
+        return result;
+    }
+
+    /** Outcome of the last upload call, or null before the first. */
+    public UploadRunner.Result getLastResult() {
+        return lastResult;
+    }
+
+    /** True once cancel() was called. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops the upload in progress: files in flight finish their attempt, the
+     * rest stay in the journal for the next run.
+     */
+    public void cancel() {
+        cancelled = true;
+        UploadRunner runner = activeRunner;
+        if (runner != null) runner.cancel();
+    }
+}
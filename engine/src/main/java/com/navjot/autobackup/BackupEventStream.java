@@ -0,0 +1,224 @@
+package com.navjot.autobackup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BackupEventStream
+ * =================
+ * Process-wide stream of backup events: discovery progress, phase changes,
+ * per-file start/bytes/completion and retries. Producers publish into a
+ * preallocated lock-free ring without allocating or blocking; a sampler drains
+ * the ring once per frame, folds it into BackupProgress and hands each
+ * subscriber at most one snapshot per its own interval. Render cost therefore
+ * depends on the frame rate, not on how many events were published.
+ *
+ * The ring is lossy under overload: if producers lap the sampler the oldest
+ * events are skipped and counted in BackupProgress.droppedEvents.
+ */
+public class BackupEventStream {
+
+    /** Sampling period; subscribers can ask for any multiple of it. */
+    public static final long FRAME_MS = 100;
+    private static final int CAPACITY = 8192; // power of two
+
+    private static final int PHASE = 1, DISCOVERY = 2, PLANNED = 3, FILE_STARTED = 4,
+            FILE_BYTES = 5, RETRY = 6, FILE_DONE = 7, FILE_FAILED = 8;
+
+    private static final BackupEventStream SHARED = new BackupEventStream();
+
+    /** Receives coalesced progress on the sampler thread. */
+    public interface Subscriber {
+        void onProgress(BackupProgress progress);
+    }
+
+    /**
+     * Preallocated event record. seq is the sequence published into it, or -1
+     * while written. Fields are volatile so the reader's re-check of seq cannot
+     * be reordered before its reads of them (a seqlock without fences).
+     */
+    private static final class Slot {
+        volatile long seq = -1;
+        volatile int type;
+        volatile long a, b, c;
+        volatile Object ref;
+    }
+
+    private static final class Subscription {
+        final Subscriber subscriber;
+        final long intervalMs;
+        long lastDeliveredMs;
+        long lastVersion = -1;
+
+        Subscription(Subscriber subscriber, long intervalMs) {
+            this.subscriber = subscriber;
+            this.intervalMs = intervalMs;
+        }
+    }
+
+    private final Slot[] ring = new Slot[CAPACITY];
+    private final AtomicLong claimed = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final BackupProgress state = new BackupProgress();
+    private long cursor = 0;
+    private long version = 0;
+    private ScheduledFuture<?> frames;
+
+    public BackupEventStream() {
+        for (int i = 0; i < CAPACITY; i++) ring[i] = new Slot();
+    }
+
+    public static BackupEventStream shared() {
+        return SHARED;
+    }
+
+    // === Producers: any thread, wait-free ===
+
+    public void phase(BackupProgress.Phase phase, String detail) { publish(PHASE, phase.ordinal(), 0, 0, detail); }
+
+    public void discoveryProgress(int probed, int total) { publish(DISCOVERY, probed, total, 0, null); }
+
+    public void planned(int files, long bytes) { planned(files, bytes, -1); }
+
+    /** Planned work with the upload time expected from history, -1 if none; it stands in for a live ETA. */
+    public void planned(int files, long bytes, long estimateMs) { publish(PLANNED, files, bytes, estimateMs, null); }
+
+    public void fileStarted(String name) { publish(FILE_STARTED, 0, 0, 0, name); }
+
+    public void bytes(String name, long n) { publish(FILE_BYTES, n, 0, 0, name); }
+
+    public void retry(String name, int attempt) { publish(RETRY, attempt, 0, 0, name); }
+
+    public void fileFinished(String name, long size, boolean success) {
+        publish(success ? FILE_DONE : FILE_FAILED, size, 0, 0, name);
+    }
+
+    private void publish(int type, long a, long b, long c, Object ref) {
+        long seq = claimed.getAndIncrement();
+        Slot slot = ring[(int) (seq & (CAPACITY - 1))];
+        slot.seq = -1;
+        slot.type = type;
+        slot.a = a;
+        slot.b = b;
+        slot.c = c;
+        slot.ref = ref;
+        slot.seq = seq;
+    }
+
+    // === Subscribers ===
+
+    /**
+     * Delivers progress at most every intervalMs (rounded up to frames), and only
+     * when something changed. The sampler runs on the AppExecutors scheduler
+     * while there is a subscriber.
+     */
+    public synchronized void subscribe(Subscriber subscriber, long intervalMs) {
+        subscriptions.add(new Subscription(subscriber, Math.max(FRAME_MS, intervalMs)));
+        if (frames == null) {
+            frames = AppExecutors.get().scheduler()
+                    .scheduleAtFixedRate(this::frame, 0, FRAME_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        List<Subscription> gone = new ArrayList<>();
+        for (Subscription s : subscriptions) {
+            if (s.subscriber == subscriber) gone.add(s);
+        }
+        subscriptions.removeAll(gone);
+        if (subscriptions.isEmpty() && frames != null) {
+            frames.cancel(false);
+            frames = null;
+        }
+    }
+
+    /** Drains and folds all events published so far; returns a copy of the result. */
+    public synchronized BackupProgress snapshot() {
+        drain();
+        state.sample(System.currentTimeMillis());
+        return state.copy();
+    }
+
+    private void frame() {
+        long now = System.currentTimeMillis();
+        BackupProgress snapshot;
+        long v;
+        synchronized (this) {
+            drain();
+            state.sample(now);
+            snapshot = state.copy();
+            v = version;
+        }
+        for (Subscription s : subscriptions) {
+            // Rate and ETA move every frame; deliver on the subscriber's interval
+            if (now - s.lastDeliveredMs < s.intervalMs) continue;
+            if (v == s.lastVersion && snapshot.phase != BackupProgress.Phase.UPLOADING) continue;
+            s.lastDeliveredMs = now;
+            s.lastVersion = v;
+            try {
+                s.subscriber.onProgress(snapshot);
+            } catch (RuntimeException ignored) {
+                // A failing subscriber must not stop the frames for the others
+            }
+        }
+    }
+
+    /** Single consumer: folds published slots from the cursor up to the first unpublished one. */
+    private void drain() {
+        long end = claimed.get();
+        if (end - cursor > CAPACITY) {
+            state.droppedEvents += end - CAPACITY - cursor;
+            cursor = end - CAPACITY;
+        }
+        while (cursor < end) {
+            Slot slot = ring[(int) (cursor & (CAPACITY - 1))];
+            long seq = slot.seq;
+            if (seq < cursor) break; // claimed but not yet written; pick it up next frame
+            int type = slot.type;
+            long a = slot.a, b = slot.b, c = slot.c;
+            Object ref = slot.ref;
+            if (seq > cursor || slot.seq != seq) {
+                // Overwritten by a producer a full lap ahead while we were reading
+                state.droppedEvents++;
+                cursor++;
+                continue;
+            }
+            apply(type, a, b, c, ref);
+            cursor++;
+            version++;
+        }
+    }
+
+    private void apply(int type, long a, long b, long c, Object ref) {
+        switch (type) {
+            case PHASE:
+                state.onPhase(BackupProgress.Phase.values()[(int) a], (String) ref);
+                break;
+            case DISCOVERY:
+                state.onDiscovery((int) a, (int) b);
+                break;
+            case PLANNED:
+                state.onPlanned((int) a, b, c);
+                break;
+            case FILE_STARTED:
+                state.onFileStarted((String) ref);
+                break;
+            case FILE_BYTES:
+                state.onBytes((String) ref, a);
+                break;
+            case RETRY:
+                state.onRetry((String) ref);
+                break;
+            case FILE_DONE:
+            case FILE_FAILED:
+                state.onFileFinished((String) ref, a, type == FILE_DONE);
+                break;
+            default:
+                break;
+        }
+    }
+}
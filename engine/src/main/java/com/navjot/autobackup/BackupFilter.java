@@ -0,0 +1,227 @@
+package com.navjot.autobackup;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * BackupFilter
+ * ============
+ * User filter rules compiled once per scan and evaluated on the columns the
+ * directory query already returned (name, MIME type, size, modification time).
+ * Rejecting a file costs no provider call and allocates nothing.
+ *
+ * Rules, comma separated in the filter preference:
+ *   jpg  .png       extension (the old "jpg,png" format)
+ *   IMG_*.jp?       glob on the file name, '*' and '?' wildcards
+ *   mime:image/     MIME type prefix
+ *   min:1MB  max:2GB    size limits (B, KB, MB, GB)
+ *   after:2024-01-31    modified on or after that day (device time zone)
+ *   exclude:.thumbnails exclude:DCIM/Trash   folder name or path, not descended into
+ *
+ * A file passes if it matches any extension, glob or MIME rule (or none are
+ * given) and every size and date limit. Matching ignores case.
+ */
+public class BackupFilter implements FolderScanner.DirectoryFilter {
+
+    public static final String PREFIX_MIME = "mime:";
+    public static final String PREFIX_MIN_SIZE = "min:";
+    public static final String PREFIX_MAX_SIZE = "max:";
+    public static final String PREFIX_AFTER = "after:";
+    public static final String PREFIX_EXCLUDE = "exclude:";
+
+    /** Extensions in an open-addressed table keyed by a case-folded hash of the suffix. */
+    private final String[] extensions;
+    private final String[] globs;
+    private final String[] mimePrefixes;
+    private final String[] excludedNames;
+    private final String[] excludedPaths;
+    private final long minSize, maxSize, modifiedAfter;
+    private final boolean matchAnyName;
+    private final List<String> invalidRules;
+
+    private BackupFilter(List<String> extensions, List<String> globs, List<String> mimePrefixes,
+                         List<String> excludedNames, List<String> excludedPaths,
+                         long minSize, long maxSize, long modifiedAfter, List<String> invalidRules) {
+        this.extensions = hashTable(extensions);
+        this.globs = globs.toArray(new String[0]);
+        this.mimePrefixes = mimePrefixes.toArray(new String[0]);
+        this.excludedNames = excludedNames.toArray(new String[0]);
+        this.excludedPaths = excludedPaths.toArray(new String[0]);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.modifiedAfter = modifiedAfter;
+        this.matchAnyName = extensions.isEmpty() && globs.isEmpty() && mimePrefixes.isEmpty();
+        this.invalidRules = Collections.unmodifiableList(invalidRules);
+    }
+
+    /** Compiles rules; malformed ones are skipped and listed by getInvalidRules(). */
+    public static BackupFilter compile(List<String> rules) {
+        List<String> extensions = new ArrayList<>(), globs = new ArrayList<>(), mimes = new ArrayList<>();
+        List<String> excludedNames = new ArrayList<>(), excludedPaths = new ArrayList<>();
+        List<String> invalid = new ArrayList<>();
+        long minSize = 0, maxSize = Long.MAX_VALUE, after = Long.MIN_VALUE;
+        if (rules != null) {
+            for (String raw : rules) {
+                String rule = raw == null ? "" : raw.trim();
+                if (rule.isEmpty()) continue;
+                String lower = rule.toLowerCase(Locale.ROOT);
+                try {
+                    if (lower.startsWith(PREFIX_MIME)) {
+                        mimes.add(lower.substring(PREFIX_MIME.length()));
+                    } else if (lower.startsWith(PREFIX_MIN_SIZE)) {
+                        minSize = Math.max(minSize, parseSize(lower.substring(PREFIX_MIN_SIZE.length())));
+                    } else if (lower.startsWith(PREFIX_MAX_SIZE)) {
+                        maxSize = Math.min(maxSize, parseSize(lower.substring(PREFIX_MAX_SIZE.length())));
+                    } else if (lower.startsWith(PREFIX_AFTER)) {
+                        after = Math.max(after, LocalDate.parse(rule.substring(PREFIX_AFTER.length()))
+                                .atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                    } else if (lower.startsWith(PREFIX_EXCLUDE)) {
+                        String folder = trimSlashes(rule.substring(PREFIX_EXCLUDE.length()));
+                        if (folder.isEmpty()) throw new IllegalArgumentException();
+                        (folder.indexOf('/') >= 0 ? excludedPaths : excludedNames).add(folder);
+                    } else if (rule.indexOf('*') >= 0 || rule.indexOf('?') >= 0) {
+                        globs.add(rule);
+                    } else {
+                        String ext = lower.startsWith(".") ? lower.substring(1) : lower;
+                        if (ext.isEmpty() || ext.indexOf('/') >= 0) throw new IllegalArgumentException();
+                        if (ext.indexOf('.') >= 0) {
+                            globs.add("*." + ext); // "tar.gz" spans two suffixes
+                        } else if (!extensions.contains(ext)) {
+                            extensions.add(ext);
+                        }
+                    }
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    invalid.add(rule);
+                }
+            }
+        }
+        return new BackupFilter(extensions, globs, mimes, excludedNames, excludedPaths,
+                minSize, maxSize, after, invalid);
+    }
+
+    public List<String> getInvalidRules() {
+        return invalidRules;
+    }
+
+    /** Evaluates a file row; mimeType may be null. */
+    public boolean accepts(String name, String mimeType, long size, long lastModified) {
+        if (name == null) return false;
+        if (size >= 0 && (size < minSize || size > maxSize)) return false;
+        if (lastModified > 0 && lastModified < modifiedAfter) return false;
+        if (matchAnyName) return true;
+        if (hasExtension(name)) return true;
+        for (String glob : globs) {
+            if (globMatches(glob, name)) return true;
+        }
+        if (mimeType != null) {
+            for (String prefix : mimePrefixes) {
+                if (mimeType.regionMatches(true, 0, prefix, 0, prefix.length())) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a sub-directory is listed at all. Paths match the end of the
+     * document id ("primary:DCIM/Trash" for exclude:DCIM/Trash).
+     */
+    @Override
+    public boolean descends(String documentId, String name) {
+        if (name != null) {
+            for (String excluded : excludedNames) {
+                if (excluded.equalsIgnoreCase(name)) return false;
+            }
+        }
+        if (documentId != null) {
+            for (String path : excludedPaths) {
+                int start = documentId.length() - path.length();
+                if (start >= 0 && documentId.regionMatches(true, start, path, 0, path.length())
+                        && (start == 0 || documentId.charAt(start - 1) == '/'
+                        || documentId.charAt(start - 1) == ':')) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean hasExtension(String name) {
+        if (extensions.length == 0) return false;
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1) return false;
+        int len = name.length() - dot - 1;
+        int mask = extensions.length - 1;
+        for (int i = foldedHash(name, dot + 1) & mask; extensions[i] != null; i = (i + 1) & mask) {
+            String ext = extensions[i];
+            if (ext.length() == len && name.regionMatches(true, dot + 1, ext, 0, len)) return true;
+        }
+        return false;
+    }
+
+    private static String[] hashTable(List<String> keys) {
+        int size = 1;
+        while (size < keys.size() * 2 + 1) size <<= 1;
+        String[] table = new String[size];
+        for (String key : keys) {
+            int i = foldedHash(key, 0) & (size - 1);
+            while (table[i] != null) i = (i + 1) & (size - 1);
+            table[i] = key;
+        }
+        return table;
+    }
+
+    private static int foldedHash(String s, int from) {
+        int h = 0;
+        for (int i = from; i < s.length(); i++) h = 31 * h + Character.toLowerCase(s.charAt(i));
+        return h ^ (h >>> 16);
+    }
+
+    /** Iterative wildcard match: backtracks only to the last '*'. */
+    static boolean globMatches(String glob, String name) {
+        int g = 0, n = 0, star = -1, resume = 0;
+        while (n < name.length()) {
+            if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                resume = n;
+            } else if (g < glob.length() && (glob.charAt(g) == '?' || sameIgnoringCase(glob.charAt(g), name.charAt(n)))) {
+                g++;
+                n++;
+            } else if (star >= 0) {
+                g = star + 1;
+                n = ++resume;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') g++;
+        return g == glob.length();
+    }
+
+    private static boolean sameIgnoringCase(char a, char b) {
+        return a == b || Character.toLowerCase(a) == Character.toLowerCase(b);
+    }
+
+    private static long parseSize(String s) {
+        long unit = 1;
+        if (s.endsWith("kb")) unit = 1L << 10;
+        else if (s.endsWith("mb")) unit = 1L << 20;
+        else if (s.endsWith("gb")) unit = 1L << 30;
+        String digits = unit == 1 ? (s.endsWith("b") ? s.substring(0, s.length() - 1) : s)
+                : s.substring(0, s.length() - 2);
+        long value = Long.parseLong(digits); // NumberFormatException is an IllegalArgumentException
+        if (value < 0) throw new IllegalArgumentException(s);
+        return value * unit;
+    }
+
+    private static String trimSlashes(String s) {
+        int start = 0, end = s.length();
+        while (start < end && s.charAt(start) == '/') start++;
+        while (end > start && s.charAt(end - 1) == '/') end--;
+        return s.substring(start, end);
+    }
+}
@@ -0,0 +1,46 @@
+package com.navjot.autobackup;
+
+/**
+ * BackupItem
+ * ==========
+ * One file planned for upload: which selected folder it came from, the
+ * sub-directory below it, its document URI and the metadata used to key it
+ * in upload history. The sub-directory is mirrored on the target, so files
+ * of the same name in different folders do not overwrite each other.
+ */
+public class BackupItem {
+
+    public final String folderUri;
+    /** Directory below the selected folder, '/'-separated; empty for its top level. */
+    public final String relativeDir;
+    public final String documentUri;
+    public final String name;
+    public final long size;
+    public final long lastModified;
+
+    public BackupItem(String folderUri, String documentUri, String name, long size, long lastModified) {
+        this(folderUri, "", documentUri, name, size, lastModified);
+    }
+
+    public BackupItem(String folderUri, String relativeDir, String documentUri, String name,
+                      long size, long lastModified) {
+        this.folderUri = folderUri;
+        this.relativeDir = relativeDir != null ? relativeDir : "";
+        this.documentUri = documentUri;
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /** Key recorded in upload history once this file is on the target; unchanged for top-level files. */
+    public String historyKey() {
+        return folderUri + "|" + remotePath() + "_" + lastModified;
+    }
+
+    /** Path on the target below the backup directory. */
+    public String remotePath() {
+        return relativeDir.isEmpty() ? name : relativeDir + "/" + name;
+    }
+
+    @Override public String toString() { return remotePath() + " (" + size + " bytes)"; }
+}
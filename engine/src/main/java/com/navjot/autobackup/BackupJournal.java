@@ -0,0 +1,390 @@
+package com.navjot.autobackup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BackupJournal
+ * =============
+ * Write-ahead log of the current backup run, so a run interrupted by process
+ * death can resume its remaining queue without re-enumerating the folders.
+ *
+ * One record per line, tab separated:
+ *   P  serverIp share remoteDir        run header (starts a new journal)
+ *   F  idx folderUri docUri name size lastModified relativeDir
+ *   B                                  planned set complete, uploads begin
+ *   S/D/X idx                          file started / done / failed
+ *   R  idx range                       range of a large file is on the share
+ *   K  idx fileId                      encryption id of a range upload, hex; "-" if
+ *                                      unencrypted. Drops the file's earlier ranges
+ *
+ * Plan records are fsynced before any upload starts; per-file transitions are
+ * fsynced in batches. A lost "D" record only means that file is re-checked
+ * against upload history on resume, so batching never loses uploads.
+ */
+public class BackupJournal {
+
+    private static final String TAG = "BackupJournal";
+    private static final int SYNC_EVERY_RECORDS = 64;
+    private static final long SYNC_INTERVAL_MS = 2000;
+    private static final String LEGACY_FILE = "backup_journal.log";
+
+    private final File file;
+    private final Map<String, Integer> indexByUri = new HashMap<>();
+    private final Map<String, Set<Integer>> rangesByUri = new HashMap<>();
+    private final Map<String, byte[]> fileIdsByUri = new HashMap<>();
+    private FileOutputStream out;
+    private Writer writer;
+    private int unsyncedRecords = 0;
+    private long lastSyncMs = 0;
+
+    /** A run found in the journal that did not reach its end. */
+    public static class PendingRun {
+        public final String serverIp, shareName, remoteDir;
+        public final List<BackupItem> remaining;
+        private final Map<String, Integer> indexByUri;
+        private final Map<String, Set<Integer>> rangesByUri;
+        private final Map<String, byte[]> fileIdsByUri;
+
+        PendingRun(String serverIp, String shareName, String remoteDir, List<BackupItem> remaining,
+                   Map<String, Integer> indexByUri, Map<String, Set<Integer>> rangesByUri,
+                   Map<String, byte[]> fileIdsByUri) {
+            this.serverIp = serverIp;
+            this.shareName = shareName;
+            this.remoteDir = remoteDir;
+            this.remaining = remaining;
+            this.indexByUri = indexByUri;
+            this.rangesByUri = rangesByUri;
+            this.fileIdsByUri = fileIdsByUri;
+        }
+
+        /** Whether the run went to this share and remote directory; empty and null are the same. */
+        public boolean isFor(String shareName, String remoteDir) {
+            return same(this.shareName, shareName) && same(this.remoteDir, remoteDir);
+        }
+
+        private static boolean same(String a, String b) {
+            return (a == null || a.isEmpty()) ? (b == null || b.isEmpty()) : a.equals(b);
+        }
+    }
+
+    public BackupJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Journal of the runs to one share and remote directory, so an unfinished
+     * run to one target survives runs to another. A journal from before
+     * journals were per target is moved to the file of the target its run
+     * went to, whichever target asks first, so it is only read once.
+     */
+    public static BackupJournal forTarget(File dir, String shareName, String remoteDir) {
+        File legacy = new File(dir, LEGACY_FILE);
+        if (legacy.exists()) {
+            PendingRun run = new BackupJournal(legacy).recover();
+            File owner = run != null ? fileFor(dir, run.shareName, run.remoteDir) : null;
+            if (owner != null && !owner.exists() && legacy.renameTo(owner)) {
+                EngineLog.i(TAG, "Moved unfinished run to " + run.shareName + "/" + run.remoteDir
+                        + " into " + owner.getName());
+            } else {
+                // Nothing to resume, or the target has journaled a newer run since
+                //noinspection ResultOfMethodCallIgnored
+                legacy.delete();
+                EngineLog.i(TAG, "Removed old backup journal"
+                        + (run != null ? " of a run to " + run.shareName + "/" + run.remoteDir : ""));
+            }
+        }
+        return new BackupJournal(fileFor(dir, shareName, remoteDir));
+    }
+
+    private static File fileFor(File dir, String shareName, String remoteDir) {
+        String target = (shareName != null ? shareName : "") + "|" + (remoteDir != null ? remoteDir : "");
+        return new File(dir, String.format("backup_journal-%08x.log", target.hashCode()));
+    }
+
+    public synchronized boolean isActive() {
+        return writer != null;
+    }
+
+    /**
+     * Reads the journal and returns the unfinished run, or null if there is
+     * nothing to resume (no journal, plan never completed, or all files settled).
+     */
+    public synchronized PendingRun recover() {
+        if (!file.exists()) return null;
+        String serverIp = null, share = null, remoteDir = null;
+        boolean planComplete = false;
+        Map<Integer, BackupItem> planned = new LinkedHashMap<>();
+        Map<String, Integer> indexByUri = new HashMap<>();
+        Map<Integer, Set<Integer>> ranges = new HashMap<>();
+        Map<Integer, byte[]> fileIds = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] f = line.split("\t", -1);
+                try {
+                    switch (f[0]) {
+                        case "P":
+                            serverIp = unescape(f[1]);
+                            share = unescape(f[2]);
+                            remoteDir = unescape(f[3]);
+                            break;
+                        case "F":
+                            int idx = Integer.parseInt(f[1]);
+                            // relativeDir is absent in journals written before it was recorded
+                            BackupItem item = new BackupItem(unescape(f[2]), f.length > 7 ? unescape(f[7]) : "",
+                                    unescape(f[3]), unescape(f[4]), Long.parseLong(f[5]), Long.parseLong(f[6]));
+                            planned.put(idx, item);
+                            indexByUri.put(item.documentUri, idx);
+                            break;
+                        case "B":
+                            planComplete = true;
+                            break;
+                        case "D":
+                        case "X":
+                            planned.remove(Integer.parseInt(f[1]));
+                            break;
+                        case "R":
+                            int owner = Integer.parseInt(f[1]);
+                            int range = Integer.parseInt(f[2]);
+                            Set<Integer> done = ranges.get(owner);
+                            if (done == null) ranges.put(owner, done = new HashSet<>());
+                            done.add(range);
+                            break;
+                        case "K":
+                            int keyed = Integer.parseInt(f[1]);
+                            ranges.remove(keyed);
+                            if (f[2].equals("-")) {
+                                fileIds.remove(keyed);
+                            } else {
+                                fileIds.put(keyed, fromHex(f[2]));
+                            }
+                            break;
+                        default:
+                            // "S" carries no state on its own; unknown records are ignored
+                            break;
+                    }
+                } catch (RuntimeException torn) {
+                    // Last record may be half-written if the process died mid-append
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        if (share == null || !planComplete || planned.isEmpty()) return null;
+        Map<String, Set<Integer>> rangesByUri = new HashMap<>();
+        for (Map.Entry<Integer, Set<Integer>> e : ranges.entrySet()) {
+            BackupItem item = planned.get(e.getKey());
+            if (item != null) rangesByUri.put(item.documentUri, e.getValue());
+        }
+        Map<String, byte[]> fileIdsByUri = new HashMap<>();
+        for (Map.Entry<Integer, byte[]> e : fileIds.entrySet()) {
+            BackupItem item = planned.get(e.getKey());
+            if (item != null) fileIdsByUri.put(item.documentUri, e.getValue());
+        }
+        return new PendingRun(serverIp, share, remoteDir, new ArrayList<>(planned.values()),
+                indexByUri, rangesByUri, fileIdsByUri);
+    }
+
+    /** Starts a fresh journal for the given planned work set. */
+    public synchronized void beginRun(String serverIp, String shareName, String remoteDir,
+                                      List<BackupItem> items) throws IOException {
+        close();
+        indexByUri.clear();
+        rangesByUri.clear();
+        fileIdsByUri.clear();
+        open(false);
+        append("P\t" + escape(serverIp) + "\t" + escape(shareName) + "\t" + escape(remoteDir), false);
+        int idx = 0;
+        for (BackupItem item : items) {
+            indexByUri.put(item.documentUri, idx);
+            append("F\t" + idx + "\t" + escape(item.folderUri) + "\t" + escape(item.documentUri)
+                    + "\t" + escape(item.name) + "\t" + item.size + "\t" + item.lastModified
+                    + "\t" + escape(item.relativeDir), false);
+            idx++;
+        }
+        append("B", true);
+    }
+
+    /** Re-opens the journal of a recovered run for further appends. */
+    public synchronized void resumeRun(PendingRun run) throws IOException {
+        close();
+        indexByUri.clear();
+        indexByUri.putAll(run.indexByUri);
+        rangesByUri.clear();
+        rangesByUri.putAll(run.rangesByUri);
+        fileIdsByUri.clear();
+        fileIdsByUri.putAll(run.fileIdsByUri);
+        open(true);
+    }
+
+    public void markStarted(BackupItem item) { mark("S", item); }
+
+    public void markDone(BackupItem item) { mark("D", item); }
+
+    public void markFailed(BackupItem item) { mark("X", item); }
+
+    /** @return true if the given range of a large file was checkpointed as written. */
+    public synchronized boolean isRangeDone(BackupItem item, int range) {
+        Set<Integer> done = rangesByUri.get(item.documentUri);
+        return done != null && done.contains(range);
+    }
+
+    /** Checkpoints one written range; synced at once since each range is many MB of work. */
+    public synchronized void markRangeDone(BackupItem item, int range) {
+        Integer idx = indexByUri.get(item.documentUri);
+        Set<Integer> done = rangesByUri.get(item.documentUri);
+        if (done == null) rangesByUri.put(item.documentUri, done = new HashSet<>());
+        done.add(range);
+        if (writer == null || idx == null) return;
+        try {
+            append("R\t" + idx + "\t" + range, true);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /** @return encryption id the file's recorded ranges were sealed with, or null if there is none. */
+    public synchronized byte[] fileId(BackupItem item) {
+        byte[] id = fileIdsByUri.get(item.documentUri);
+        return id != null ? id.clone() : null;
+    }
+
+    /**
+     * Records the encryption id of a new range upload, or null for an
+     * unencrypted one. Ranges written under another id no longer count.
+     */
+    public synchronized void setFileId(BackupItem item, byte[] fileId) {
+        Integer idx = indexByUri.get(item.documentUri);
+        rangesByUri.remove(item.documentUri);
+        if (fileId != null) {
+            fileIdsByUri.put(item.documentUri, fileId.clone());
+        } else {
+            fileIdsByUri.remove(item.documentUri);
+        }
+        if (writer == null || idx == null) return;
+        try {
+            append("K\t" + idx + "\t" + (fileId != null ? toHex(fileId) : "-"), true);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the journal of a run that stopped early (cancelled, or aborted
+     * by the target) but keeps it, so the next run resumes its remaining files.
+     */
+    public synchronized void suspendRun() {
+        close();
+    }
+
+    /** Ends the run: the journal is removed so nothing is resumed next time. */
+    public synchronized void finishRun() {
+        close();
+        indexByUri.clear();
+        rangesByUri.clear();
+        fileIdsByUri.clear();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    /** Flushes and fsyncs any batched records, keeping the journal open. */
+    public synchronized void sync() throws IOException {
+        if (writer == null) return;
+        writer.flush();
+        out.getFD().sync();
+        unsyncedRecords = 0;
+        lastSyncMs = System.currentTimeMillis();
+    }
+
+    private synchronized void mark(String type, BackupItem item) {
+        Integer idx = indexByUri.get(item.documentUri);
+        if (writer == null || idx == null) return;
+        try {
+            append(type + "\t" + idx, false);
+        } catch (IOException e) {
+            // Journal is best-effort once the plan is durable; stop writing to it
+            close();
+        }
+    }
+
+    private void open(boolean append) throws IOException {
+        out = new FileOutputStream(file, append);
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        unsyncedRecords = 0;
+        lastSyncMs = System.currentTimeMillis();
+    }
+
+    private void append(String record, boolean forceSync) throws IOException {
+        writer.write(record);
+        writer.write('\n');
+        unsyncedRecords++;
+        if (forceSync
+                || unsyncedRecords >= SYNC_EVERY_RECORDS
+                || System.currentTimeMillis() - lastSyncMs >= SYNC_INTERVAL_MS) {
+            sync();
+        }
+    }
+
+    private void close() {
+        if (writer == null) return;
+        try {
+            sync();
+            writer.close();
+        } catch (IOException ignored) {
+        } finally {
+            writer = null;
+            out = null;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String escape(String s) {
+        if (s == null) return "";
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
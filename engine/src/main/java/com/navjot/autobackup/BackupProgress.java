@@ -0,0 +1,189 @@
+package com.navjot.autobackup;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * BackupProgress
+ * ==============
+ * Coalesced state of the backup event stream: what subscribers render. The
+ * stream folds any number of events into one instance and hands out copies,
+ * so a frame costs the same whether it follows ten events or ten thousand.
+ */
+public class BackupProgress {
+
+    public enum Phase { IDLE, DISCOVERY, ENUMERATING, UPLOADING, FINISHED }
+
+    /** Weight of the newest frame in the smoothed transfer rate. */
+    private static final double RATE_SMOOTHING = 0.2;
+
+    public Phase phase = Phase.IDLE;
+    public String detail = "";
+    public int probed, probeTotal;
+    public int filesPlanned, filesDone, filesFailed, retries;
+    public long bytesPlanned, bytesDone;
+    /** Smoothed transfer rate over the last frames, bytes per second. */
+    public long bytesPerSec;
+    /** Estimated time to send the rest of the planned bytes; -1 if unknown. */
+    public long etaMs = -1;
+    /** Upload time the plan expected from the target's history; -1 if it had none. */
+    public long estimateMs = -1;
+    public String currentFile;
+    /** Events overwritten before they were sampled; counters may lag by these. */
+    public long droppedEvents;
+
+    // Folding state; copies carry inFlight for bytesSent() but not the rate counters
+    private final Map<String, Long> inFlight = new HashMap<>();
+    private long rawBytes, lastRawBytes, lastSampleMs;
+
+    void onPhase(Phase phase, String detail) {
+        this.phase = phase;
+        this.detail = detail != null ? detail : "";
+        if (phase == Phase.DISCOVERY) {
+            probed = probeTotal = 0;
+        } else if (phase == Phase.ENUMERATING) {
+            filesPlanned = filesDone = filesFailed = retries = 0;
+            bytesPlanned = bytesDone = 0;
+            estimateMs = -1;
+            inFlight.clear();
+            currentFile = null;
+        }
+    }
+
+    void onDiscovery(int probed, int total) {
+        this.probed = Math.max(this.probed, probed);
+        this.probeTotal = total;
+    }
+
+    void onPlanned(int files, long bytes, long estimateMs) {
+        filesPlanned = files;
+        bytesPlanned = bytes;
+        this.estimateMs = estimateMs;
+    }
+
+    void onFileStarted(String name) {
+        inFlight.put(name, 0L);
+        currentFile = name;
+    }
+
+    void onBytes(String name, long n) {
+        rawBytes += n;
+        Long sofar = inFlight.get(name);
+        if (sofar != null) inFlight.put(name, sofar + n);
+    }
+
+    void onRetry(String name) {
+        retries++;
+        // The next attempt sends the file again (or its missing ranges)
+        if (inFlight.containsKey(name)) inFlight.put(name, 0L);
+    }
+
+    void onFileFinished(String name, long size, boolean success) {
+        inFlight.remove(name);
+        if (success) {
+            filesDone++;
+            bytesDone += Math.max(0, size);
+        } else {
+            filesFailed++;
+        }
+        if (name.equals(currentFile)) currentFile = inFlight.isEmpty() ? null : inFlight.keySet().iterator().next();
+    }
+
+    /** Updates rate and ETA at a frame boundary. */
+    void sample(long nowMs) {
+        if (lastSampleMs > 0 && nowMs > lastSampleMs) {
+            long instant = (rawBytes - lastRawBytes) * 1000 / (nowMs - lastSampleMs);
+            bytesPerSec = bytesPerSec == 0 ? instant
+                    : (long) (RATE_SMOOTHING * instant + (1 - RATE_SMOOTHING) * bytesPerSec);
+        }
+        lastRawBytes = rawBytes;
+        lastSampleMs = nowMs;
+        long remaining = bytesPlanned - bytesDone - inFlightBytes();
+        if (phase != Phase.UPLOADING || remaining < 0) {
+            etaMs = -1;
+        } else if (bytesPerSec > 0) {
+            etaMs = remaining * 1000 / bytesPerSec;
+        } else if (estimateMs >= 0 && bytesPlanned > 0) {
+            // No bytes moved yet (connecting, first files opening): fall back on the history estimate
+            etaMs = (long) (estimateMs * ((double) remaining / bytesPlanned));
+        } else {
+            etaMs = -1;
+        }
+    }
+
+    /** Bytes of planned files done or in flight; what a progress bar shows. */
+    public long bytesSent() {
+        return Math.min(bytesPlanned, bytesDone + inFlightBytes());
+    }
+
+    private long inFlightBytes() {
+        long sum = 0;
+        for (long v : inFlight.values()) sum += v;
+        return sum;
+    }
+
+    BackupProgress copy() {
+        BackupProgress c = new BackupProgress();
+        c.phase = phase;
+        c.detail = detail;
+        c.probed = probed;
+        c.probeTotal = probeTotal;
+        c.filesPlanned = filesPlanned;
+        c.filesDone = filesDone;
+        c.filesFailed = filesFailed;
+        c.retries = retries;
+        c.bytesPlanned = bytesPlanned;
+        c.bytesDone = bytesDone;
+        c.bytesPerSec = bytesPerSec;
+        c.etaMs = etaMs;
+        c.estimateMs = estimateMs;
+        c.currentFile = currentFile;
+        c.droppedEvents = droppedEvents;
+        c.inFlight.putAll(inFlight);
+        return c;
+    }
+
+    /** One-line summary, e.g. "12/340 files · 5.2 MB/s · 3 min left". */
+    public String summary() {
+        switch (phase) {
+            case DISCOVERY:
+                return probeTotal > 0 ? "Looking for backup PC (" + probed + "/" + probeTotal + ")"
+                        : "Looking for backup PC";
+            case ENUMERATING:
+                return "Listing files...";
+            case UPLOADING:
+                StringBuilder sb = new StringBuilder();
+                sb.append(filesDone).append('/').append(filesPlanned).append(" files");
+                if (bytesPerSec > 0) sb.append(" · ").append(formatRate(bytesPerSec));
+                if (etaMs >= 0) sb.append(" · ").append(formatEta(etaMs)).append(" left");
+                return sb.toString();
+            case FINISHED:
+                return detail.isEmpty() ? "Backup finished" : detail;
+            default:
+                return detail;
+        }
+    }
+
+    static String formatRate(long bytesPerSec) {
+        if (bytesPerSec >= 1024 * 1024) {
+            return String.format(Locale.US, "%.1f MB/s", bytesPerSec / (1024.0 * 1024));
+        }
+        return (bytesPerSec / 1024) + " KB/s";
+    }
+
+    static String formatSize(long bytes) {
+        if (bytes >= 1024L * 1024 * 1024) {
+            return String.format(Locale.US, "%.1f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+        if (bytes >= 1024 * 1024) return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024));
+        return (bytes / 1024) + " KB";
+    }
+
+    static String formatEta(long ms) {
+        long s = ms / 1000;
+        if (s < 60) return s + " s";
+        if (s < 3600) return (s / 60) + " min";
+        return (s / 3600) + " h " + (s % 3600 / 60) + " min";
+    }
+}
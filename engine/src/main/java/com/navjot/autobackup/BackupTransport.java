@@ -0,0 +1,48 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * BackupTransport
+ * ===============
+ * A backup target bound to one share and remote directory. SmbjClient is the
+ * real implementation; tests substitute an in-memory simulator. Remote file
+ * names are paths below the remote directory, '/'-separated; missing parent
+ * directories are created by the upload.
+ */
+public interface BackupTransport {
+
+    /** Size of one independently written and checkpointed range of a large file. */
+    long RANGE_SIZE = 16L * 1024 * 1024;
+
+    /** Persists which ranges of a large upload are already on the share. */
+    interface RangeCheckpoint {
+        boolean isRangeDone(int rangeIndex);
+        void onRangeDone(int rangeIndex);
+    }
+
+    /** Applies buffer size and timeouts to subsequent uploads. */
+    void setTuning(TransferTuning tuning);
+
+    /** Pre-flight measurement of the link; @return null if the target could not be probed. */
+    LinkQuality probeLink();
+
+    /** Cheap liveness check without a session, used to re-probe a target whose circuit is open. */
+    boolean isReachable();
+
+    /**
+     * Streams a file to the target. @return true once it is written and, if a
+     * verifier is given, passed its verification level.
+     * @throws TransferError (or another IOException) if the transfer failed
+     */
+    boolean upload(String remoteFileName, InputStream in, UploadVerifier verifier) throws IOException;
+
+    /**
+     * Writes a seekable file as RANGE_SIZE ranges, skipping those the checkpoint
+     * already holds. With an encryptor every chunk is sealed before it is written.
+     */
+    boolean uploadRanges(String remoteFileName, SeekableSource source, int streams,
+                         RangeCheckpoint checkpoint, UploadVerifier verifier,
+                         BackupCrypto.FileEncryptor encryptor) throws IOException;
+}
@@ -0,0 +1,56 @@
+package com.navjot.autobackup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+/**
+ * CancelScope
+ * ===========
+ * Cancellation shared by every stage of one piece of work. Stages register
+ * what stops them (a probe future, an upload runner); cancelling the scope
+ * stops all of them, including stages registered after the fact.
+ */
+public class CancelScope {
+
+    private final List<Runnable> hooks = new ArrayList<>();
+    private boolean cancelled = false;
+
+    /** Runs the hook on cancel, or right away if the scope is already cancelled. */
+    public void onCancel(Runnable hook) {
+        synchronized (this) {
+            if (!cancelled) {
+                hooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    /** Cancels the future together with this scope; @return the future. */
+    public <F extends Future<?>> F track(F future) {
+        onCancel(() -> future.cancel(true));
+        return future;
+    }
+
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            toRun = new ArrayList<>(hooks);
+            hooks.clear();
+        }
+        for (Runnable hook : toRun) hook.run();
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Ends the current stage if the work was cancelled meanwhile. */
+    public void throwIfCancelled() {
+        if (isCancelled()) throw new CancellationException();
+    }
+}
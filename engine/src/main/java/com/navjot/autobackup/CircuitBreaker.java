@@ -0,0 +1,100 @@
+package com.navjot.autobackup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CircuitBreaker
+ * ==============
+ * Per-target connection health. After FAILURE_THRESHOLD consecutive transient
+ * failures the circuit opens and no upload is attempted until a cheap
+ * reachability probe succeeds (half open); a single trial upload then closes
+ * it or, if it fails too, opens it again at once, while other uploads wait for
+ * its outcome instead of all hitting a link that may still be down. Breakers
+ * are kept per target for the process lifetime, so a run to a sleeping PC
+ * starts with a probe rather than with a full reconnect per file.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static final int FAILURE_THRESHOLD = 3;
+
+    private static final Map<String, CircuitBreaker> TARGETS = new ConcurrentHashMap<>();
+
+    private final int failureThreshold;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    /** Thread running the half-open trial, or null while none is. */
+    private Thread trialOwner;
+
+    public CircuitBreaker(int failureThreshold) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+    }
+
+    /** Shared breaker for a target, e.g. "192.168.1.20/backup". */
+    public static CircuitBreaker forTarget(String target) {
+        return TARGETS.computeIfAbsent(target, t -> new CircuitBreaker(FAILURE_THRESHOLD));
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /** Whether uploads may be attempted; false while the circuit is open. */
+    public synchronized boolean allowsRequests() {
+        return state != State.OPEN;
+    }
+
+    /**
+     * Whether the calling thread may upload now: always while closed, never
+     * while open, and while half open only for the one thread holding the trial.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state != State.HALF_OPEN) return state == State.CLOSED;
+        if (trialOwner == null) trialOwner = Thread.currentThread();
+        return trialOwner == Thread.currentThread();
+    }
+
+    /** Blocks while another thread's trial is running. */
+    public synchronized void awaitTrial() throws InterruptedException {
+        while (state == State.HALF_OPEN && trialOwner != null && trialOwner != Thread.currentThread()) {
+            wait();
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        endTrial();
+    }
+
+    /** A transient failure talking to the target. Other error kinds say nothing about the link. */
+    public synchronized void onTransientFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) state = State.OPEN;
+        endTrial();
+    }
+
+    /**
+     * The caller's attempt ended without saying anything about the link, e.g.
+     * a file error; if it held the trial, the next waiting thread may take it.
+     */
+    public synchronized void onInconclusive() {
+        if (trialOwner == Thread.currentThread()) endTrial();
+    }
+
+    /** Result of a reachability probe while open; reachable lets one upload through. */
+    public synchronized void onProbe(boolean reachable) {
+        if (state == State.OPEN && reachable) state = State.HALF_OPEN;
+    }
+
+    private void endTrial() {
+        trialOwner = null;
+        notifyAll();
+    }
+
+    @Override public synchronized String toString() {
+        return state + " (" + consecutiveFailures + " consecutive failures)";
+    }
+}
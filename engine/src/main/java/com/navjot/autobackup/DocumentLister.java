@@ -0,0 +1,30 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+
+/**
+ * DocumentLister
+ * ==============
+ * Directory listing over a document tree (SAF on Android). One call is one
+ * provider query; every child is reported with the columns that query
+ * already fetched, so callers never need a second lookup per file.
+ */
+public interface DocumentLister {
+
+    /** MIME type the document provider reports for directories. */
+    String DIRECTORY_MIME = "vnd.android.document/directory";
+
+    /** Receives one child row; called on the listing thread. */
+    interface ChildVisitor {
+        void onChild(String documentId, String name, String mimeType, long size, long lastModified);
+    }
+
+    /** @return document id of the root of a granted tree. */
+    String rootDocumentId(String treeUri);
+
+    /** @return URI that opens the given document of the tree. */
+    String documentUri(String treeUri, String documentId);
+
+    /** Lists the direct children of a directory document. */
+    void listChildren(String treeUri, String parentDocumentId, ChildVisitor visitor) throws IOException;
+}
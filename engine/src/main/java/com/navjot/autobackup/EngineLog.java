@@ -0,0 +1,29 @@
+package com.navjot.autobackup;
+
+/**
+ * EngineLog
+ * =========
+ * Static logging entry point for engine classes, shaped like android.util.Log
+ * so call sites read the same in both modules. Output goes to the installed
+ * Logger, stderr until the host installs its own.
+ */
+public final class EngineLog {
+
+    private static volatile Logger logger = Logger.STDERR;
+
+    private EngineLog() {}
+
+    public static void setLogger(Logger l) {
+        logger = l != null ? l : Logger.STDERR;
+    }
+
+    public static void d(String tag, String message) { logger.log(Logger.DEBUG, tag, message, null); }
+
+    public static void i(String tag, String message) { logger.log(Logger.INFO, tag, message, null); }
+
+    public static void w(String tag, String message) { logger.log(Logger.WARN, tag, message, null); }
+
+    public static void e(String tag, String message) { logger.log(Logger.ERROR, tag, message, null); }
+
+    public static void e(String tag, String message, Throwable error) { logger.log(Logger.ERROR, tag, message, error); }
+}
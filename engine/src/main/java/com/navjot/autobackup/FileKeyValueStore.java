@@ -0,0 +1,60 @@
+package com.navjot.autobackup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * FileKeyValueStore
+ * =================
+ * KeyValueStore in a properties file. Every write replaces the file through a
+ * temporary one, so a killed process leaves either the old or the new state.
+ */
+public class FileKeyValueStore implements KeyValueStore {
+
+    private static final String TAG = "FileKeyValueStore";
+
+    private final File file;
+    private final Properties props = new Properties();
+
+    public FileKeyValueStore(File file) {
+        this.file = file;
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            } catch (IOException e) {
+                EngineLog.w(TAG, "Cannot read " + file + ", starting empty: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public synchronized String getString(String key, String defaultValue) {
+        return props.getProperty(key, defaultValue);
+    }
+
+    @Override
+    public synchronized void putString(String key, String value) {
+        if (value == null) {
+            props.remove(key);
+        } else {
+            props.setProperty(key, value);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, null);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            EngineLog.e(TAG, "Cannot save " + file + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.navjot.autobackup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * FolderScanner
+ * =============
+ * Enumerates several document trees in parallel on a work-stealing pool.
+ * Each selected folder and each sub-directory found is its own task, so the
+ * total time approaches the slowest subtree instead of the sum of all of them.
+ * Parallelism is bounded to keep the document provider from being flooded;
+ * on the device the scan runs on the shared AppExecutors enumeration pool.
+ */
+public class FolderScanner {
+
+    /** Default number of concurrent directory listings. */
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private final DocumentLister lister;
+    private final int parallelism;
+    private final ForkJoinPool sharedPool;
+    private DirectoryFilter directoryFilter;
+
+    /**
+     * Receives files as they are found; must be thread-safe. relativeDir is
+     * the '/'-separated path of the file's directory below the tree root,
+     * empty at its top level.
+     */
+    public interface FileSink {
+        void onFile(String treeUri, String relativeDir, String documentId, String name, String mimeType,
+                    long size, long lastModified);
+    }
+
+    /** Decides from the listing row whether a sub-directory is walked at all. */
+    public interface DirectoryFilter {
+        boolean descends(String documentId, String name);
+    }
+
+    public FolderScanner(DocumentLister lister) {
+        this(lister, DEFAULT_PARALLELISM);
+    }
+
+    /** Scans on a pool of its own, created per scan. */
+    public FolderScanner(DocumentLister lister, int parallelism) {
+        this.lister = lister;
+        this.parallelism = Math.max(1, parallelism);
+        this.sharedPool = null;
+    }
+
+    /** Scans on a long-lived pool that the caller owns; its parallelism is the bound. */
+    public FolderScanner(DocumentLister lister, ForkJoinPool pool) {
+        this.lister = lister;
+        this.parallelism = pool.getParallelism();
+        this.sharedPool = pool;
+    }
+
+    /** Skipped sub-directories cost no listing; the selected roots are always walked. */
+    public void setDirectoryFilter(DirectoryFilter filter) {
+        this.directoryFilter = filter;
+    }
+
+    /** Walks all trees recursively and returns once every listing has finished. */
+    public void scan(List<String> treeUris, FileSink sink) {
+        ForkJoinPool pool = sharedPool != null ? sharedPool : new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<DirectoryTask> roots = new ArrayList<>();
+                    for (String treeUri : treeUris) {
+                        roots.add(new DirectoryTask(treeUri, null, "", sink));
+                    }
+                    invokeAll(roots);
+                }
+            });
+        } finally {
+            if (pool != sharedPool) pool.shutdown();
+        }
+    }
+
+    /** Lists one directory, forking a task per sub-directory. */
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String treeUri;
+        private final String documentId;
+        private final String path;
+        private final FileSink sink;
+
+        DirectoryTask(String treeUri, String documentId, String path, FileSink sink) {
+            this.treeUri = treeUri;
+            this.documentId = documentId;
+            this.path = path;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            final List<DirectoryTask> subdirs = new ArrayList<>();
+            try {
+                String parent = documentId != null ? documentId : lister.rootDocumentId(treeUri);
+                lister.listChildren(treeUri, parent, (id, name, mime, size, lastModified) -> {
+                    if (DocumentLister.DIRECTORY_MIME.equals(mime)) {
+                        if (directoryFilter == null || directoryFilter.descends(id, name)) {
+                            subdirs.add(new DirectoryTask(treeUri, id,
+                                    path.isEmpty() ? name : path + "/" + name, sink));
+                        }
+                    } else {
+                        sink.onFile(treeUri, path, id, name, mime, size, lastModified);
+                    }
+                });
+            } catch (Exception e) {
+                // An unreadable directory only drops its own subtree
+                return;
+            }
+            invokeAll(subdirs);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.navjot.autobackup;
+
+import java.util.Locale;
+
+/**
+ * FolderStats
+ * ===========
+ * What the folder list shows for one selected folder: its resolved display
+ * name and, from the BackupIndex, how many files pass the filter, their total
+ * size and how much of it is still to upload. Counts are -1 until the folder
+ * has been indexed. Immutable, so the list can diff old rows against new ones.
+ */
+public class FolderStats {
+
+    public final String folderUri;
+    public final String name;
+    public final long fileCount;
+    public final long totalBytes;
+    public final long pendingBytes;
+
+    public FolderStats(String folderUri, String name, long fileCount, long totalBytes, long pendingBytes) {
+        this.folderUri = folderUri;
+        this.name = name;
+        this.fileCount = fileCount;
+        this.totalBytes = totalBytes;
+        this.pendingBytes = pendingBytes;
+    }
+
+    /** A folder nothing is known about yet, shown under a name derived from its URI. */
+    public static FolderStats unknown(String folderUri, String name) {
+        return new FolderStats(folderUri, name, -1, -1, -1);
+    }
+
+    public boolean isIndexed() {
+        return fileCount >= 0;
+    }
+
+    public FolderStats withName(String name) {
+        return new FolderStats(folderUri, name, fileCount, totalBytes, pendingBytes);
+    }
+
+    /** e.g. "1,204 files · 3.2 GB · 120 MB pending" */
+    public String summary() {
+        if (!isIndexed()) return "Not indexed yet";
+        String s = String.format(Locale.US, "%,d files · %s", fileCount, BackupProgress.formatSize(totalBytes));
+        return pendingBytes > 0 ? s + " · " + BackupProgress.formatSize(pendingBytes) + " pending" : s + " · backed up";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FolderStats)) return false;
+        FolderStats other = (FolderStats) o;
+        return folderUri.equals(other.folderUri)
+                && (name == null ? other.name == null : name.equals(other.name))
+                && fileCount == other.fileCount
+                && totalBytes == other.totalBytes
+                && pendingBytes == other.pendingBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = folderUri.hashCode();
+        h = 31 * h + (name != null ? name.hashCode() : 0);
+        h = 31 * h + Long.hashCode(fileCount);
+        h = 31 * h + Long.hashCode(totalBytes);
+        return 31 * h + Long.hashCode(pendingBytes);
+    }
+
+    @Override public String toString() { return name + ": " + summary(); }
+}
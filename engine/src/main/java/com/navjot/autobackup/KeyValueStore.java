@@ -0,0 +1,15 @@
+package com.navjot.autobackup;
+
+/**
+ * KeyValueStore
+ * =============
+ * Small persistent string settings and state: SharedPreferences ("BackupPrefs")
+ * in the app, a properties file for the command line.
+ */
+public interface KeyValueStore {
+
+    String getString(String key, String defaultValue);
+
+    /** Stores a value; null removes the key. May be written asynchronously. */
+    void putString(String key, String value);
+}
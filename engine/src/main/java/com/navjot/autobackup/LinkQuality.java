@@ -0,0 +1,50 @@
+package com.navjot.autobackup;
+
+/**
+ * LinkQuality
+ * ===========
+ * Measured round-trip time and throughput to a backup target, as found by
+ * the pre-flight probe and refined from real uploads.
+ */
+public class LinkQuality {
+
+    /** Weight of a new observation when refining the throughput estimate. */
+    private static final double REFINE_WEIGHT = 0.3;
+
+    public final long rttMs;
+    public final long bytesPerSec;
+    public final long measuredAt;
+
+    public LinkQuality(long rttMs, long bytesPerSec, long measuredAt) {
+        this.rttMs = rttMs;
+        this.bytesPerSec = bytesPerSec;
+        this.measuredAt = measuredAt;
+    }
+
+    /** @return a copy with throughput moved towards an observed value. */
+    public LinkQuality refine(long observedBytesPerSec, long now) {
+        long blended = (long) (bytesPerSec * (1 - REFINE_WEIGHT) + observedBytesPerSec * REFINE_WEIGHT);
+        return new LinkQuality(rttMs, blended, now);
+    }
+
+    /** Compact form for SharedPreferences. */
+    public String serialize() {
+        return rttMs + "," + bytesPerSec + "," + measuredAt;
+    }
+
+    /** @return parsed value, or null if the stored string is unusable. */
+    public static LinkQuality parse(String s) {
+        if (s == null) return null;
+        String[] parts = s.split(",");
+        if (parts.length != 3) return null;
+        try {
+            return new LinkQuality(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override public String toString() {
+        return "rtt " + rttMs + " ms, " + (bytesPerSec / 1024) + " KB/s";
+    }
+}
@@ -0,0 +1,49 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * LocalDocumentLister
+ * ===================
+ * DocumentLister over a local directory tree for running the engine on a
+ * desktop JVM. The tree "URI" is the absolute root path, a document id is the
+ * path relative to it ("" for the root) and a document URI is the absolute
+ * file path, which LocalFileSource opens.
+ */
+public class LocalDocumentLister implements DocumentLister {
+
+    @Override
+    public String rootDocumentId(String treeUri) {
+        return "";
+    }
+
+    @Override
+    public String documentUri(String treeUri, String documentId) {
+        return Paths.get(treeUri).resolve(documentId).toAbsolutePath().toString();
+    }
+
+    @Override
+    public void listChildren(String treeUri, String parentDocumentId, ChildVisitor visitor) throws IOException {
+        Path root = Paths.get(treeUri);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(root.resolve(parentDocumentId))) {
+            for (Path child : children) {
+                BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                String name = child.getFileName().toString();
+                String id = root.relativize(child).toString();
+                if (attrs.isDirectory()) {
+                    visitor.onChild(id, name, DIRECTORY_MIME, 0, attrs.lastModifiedTime().toMillis());
+                } else if (attrs.isRegularFile()) {
+                    String mime = URLConnection.guessContentTypeFromName(name);
+                    visitor.onChild(id, name, mime != null ? mime : "application/octet-stream",
+                            attrs.size(), attrs.lastModifiedTime().toMillis());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * LocalFileSource
+ * ===============
+ * Reads the files a LocalDocumentLister found; document URIs are plain paths.
+ */
+public class LocalFileSource implements UploadRunner.Source {
+
+    @Override
+    public InputStream open(BackupItem item) throws IOException {
+        return Files.newInputStream(Paths.get(item.documentUri));
+    }
+
+    @Override
+    public SeekableSource openSeekable(BackupItem item) throws IOException {
+        return SeekableSource.of(FileChannel.open(Paths.get(item.documentUri), StandardOpenOption.READ));
+    }
+
+    @Override
+    public long lastModified(BackupItem item) throws IOException {
+        return Files.getLastModifiedTime(Paths.get(item.documentUri)).toMillis();
+    }
+}
@@ -0,0 +1,22 @@
+package com.navjot.autobackup;
+
+/**
+ * Logger
+ * ======
+ * Where engine code logs. The app installs one that forwards to logcat; the
+ * default writes to stderr so the engine runs unchanged on a desktop JVM.
+ * Levels and arguments mirror android.util.Log.
+ */
+public interface Logger {
+
+    int DEBUG = 3, INFO = 4, WARN = 5, ERROR = 6;
+
+    /** @param error may be null. */
+    void log(int level, String tag, String message, Throwable error);
+
+    Logger STDERR = (level, tag, message, error) -> {
+        String prefix = level >= ERROR ? "E" : level >= WARN ? "W" : level >= INFO ? "I" : "D";
+        System.err.println(prefix + "/" + tag + ": " + message);
+        if (error != null) error.printStackTrace();
+    };
+}
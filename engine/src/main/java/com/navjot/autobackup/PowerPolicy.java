@@ -0,0 +1,63 @@
+package com.navjot.autobackup;
+
+/**
+ * PowerPolicy
+ * ===========
+ * Turns battery, charging, thermal and idle signals into a RunBudget:
+ * full throttle while charging, a capped trickle on battery, and no run at
+ * all when the phone is hot, low or dozing. Heavy transfers are pushed to
+ * the times they are cheap.
+ */
+public class PowerPolicy {
+
+    private static final long MB = 1024L * 1024;
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    static final int LOW_BATTERY_PERCENT = 15;
+    static final int POWER_SAVE_MIN_PERCENT = 30;
+    static final int TRICKLE_HIGH_PERCENT = 50;
+    static final long TRICKLE_HIGH_BUDGET = 200 * MB;
+    static final long TRICKLE_LOW_BUDGET = 50 * MB;
+
+    private final PowerState.Provider provider;
+
+    public PowerPolicy(PowerState.Provider provider) {
+        this.provider = provider;
+    }
+
+    /** Decides the budget for a run starting now. */
+    public RunBudget decide() {
+        return decide(provider.current());
+    }
+
+    public RunBudget decide(PowerState s) {
+        if (s.thermalStatus >= PowerState.THERMAL_SEVERE) {
+            return paused(15 * MINUTE_MS, "thermal status " + s.thermalStatus);
+        }
+        if (s.charging) {
+            if (s.thermalStatus >= PowerState.THERMAL_MODERATE) {
+                return new RunBudget(RunBudget.Mode.TRICKLE, 1, 2, Long.MAX_VALUE,
+                        30 * MINUTE_MS, "charging, warm");
+            }
+            return new RunBudget(RunBudget.Mode.FULL, 3, 4, Long.MAX_VALUE,
+                    30 * MINUTE_MS, "charging");
+        }
+        if (s.batteryPercent < LOW_BATTERY_PERCENT) {
+            return paused(60 * MINUTE_MS, "battery " + s.batteryPercent + "%");
+        }
+        if (s.powerSave && s.batteryPercent < POWER_SAVE_MIN_PERCENT) {
+            return paused(60 * MINUTE_MS, "battery saver");
+        }
+        if (s.deviceIdle) {
+            return paused(30 * MINUTE_MS, "device idle");
+        }
+        long budget = s.batteryPercent >= TRICKLE_HIGH_PERCENT && !s.powerSave
+                ? TRICKLE_HIGH_BUDGET : TRICKLE_LOW_BUDGET;
+        return new RunBudget(RunBudget.Mode.TRICKLE, 1, 1, budget,
+                60 * MINUTE_MS, "on battery " + s.batteryPercent + "%");
+    }
+
+    private static RunBudget paused(long nextCheckMs, String reason) {
+        return new RunBudget(RunBudget.Mode.PAUSED, 0, 0, 0, nextCheckMs, reason);
+    }
+}
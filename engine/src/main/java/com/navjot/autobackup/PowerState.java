@@ -0,0 +1,40 @@
+package com.navjot.autobackup;
+
+/**
+ * PowerState
+ * ==========
+ * Snapshot of the power signals the run scheduler looks at.
+ * Thermal levels use the PowerManager.THERMAL_STATUS_* numbering.
+ */
+public class PowerState {
+
+    public static final int THERMAL_NONE = 0;
+    public static final int THERMAL_LIGHT = 1;
+    public static final int THERMAL_MODERATE = 2;
+    public static final int THERMAL_SEVERE = 3;
+
+    public final int batteryPercent;
+    public final boolean charging;
+    public final int thermalStatus;
+    public final boolean deviceIdle;
+    public final boolean powerSave;
+
+    public PowerState(int batteryPercent, boolean charging, int thermalStatus,
+                      boolean deviceIdle, boolean powerSave) {
+        this.batteryPercent = batteryPercent;
+        this.charging = charging;
+        this.thermalStatus = thermalStatus;
+        this.deviceIdle = deviceIdle;
+        this.powerSave = powerSave;
+    }
+
+    @Override public String toString() {
+        return batteryPercent + "%" + (charging ? " charging" : "") + ", thermal " + thermalStatus
+                + (deviceIdle ? ", idle" : "") + (powerSave ? ", power save" : "");
+    }
+
+    /** Source of power snapshots; swapped for a fake in tests. */
+    public interface Provider {
+        PowerState current();
+    }
+}
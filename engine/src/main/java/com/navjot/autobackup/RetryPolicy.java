@@ -0,0 +1,67 @@
+package com.navjot.autobackup;
+
+import java.util.Random;
+
+/**
+ * RetryPolicy
+ * ===========
+ * How often and how patiently UploadRunner retries, by error kind:
+ *  - transient: up to the link tuning's attempts, exponential backoff from its
+ *    base delay with jitter, so parallel uploads do not reconnect in lockstep
+ *  - file-specific: one more attempt, the cause rarely goes away
+ *  - auth, missing share, disk full: none, the run ends
+ * While the circuit breaker is open the target is re-probed with growing
+ * delays; after maxPauseMs without an answer the run gives up.
+ */
+public class RetryPolicy {
+
+    public static final long MAX_BACKOFF_MS = 30_000;
+    public static final long FIRST_PROBE_DELAY_MS = 2_000;
+    public static final long MAX_PROBE_DELAY_MS = 60_000;
+    public static final long DEFAULT_MAX_PAUSE_MS = 5 * 60_000;
+    private static final int FILE_ERROR_ATTEMPTS = 2;
+
+    private final Random random;
+    private final long maxPauseMs;
+
+    public RetryPolicy() {
+        this(new Random(), DEFAULT_MAX_PAUSE_MS);
+    }
+
+    public RetryPolicy(Random random, long maxPauseMs) {
+        this.random = random;
+        this.maxPauseMs = maxPauseMs;
+    }
+
+    /** Attempts a file gets for failures of this kind. */
+    public int maxAttempts(TransferError.Kind kind, TransferTuning tuning) {
+        if (kind.endsRun) return 1;
+        if (kind == TransferError.Kind.FILE) return Math.min(FILE_ERROR_ATTEMPTS, tuning.maxAttempts);
+        return tuning.maxAttempts;
+    }
+
+    /** Delay before the next attempt: base * 2^(attempt-1), capped, half of it random. */
+    public long backoffMs(int failedAttempts, long baseMs) {
+        return jitter(exponential(baseMs, failedAttempts, MAX_BACKOFF_MS));
+    }
+
+    /** Delay before the n-th reachability probe of an open circuit (n from 1). */
+    public long probeDelayMs(int probe) {
+        return jitter(exponential(FIRST_PROBE_DELAY_MS, probe, MAX_PROBE_DELAY_MS));
+    }
+
+    /** Longest a run waits for an open circuit before it gives up. */
+    public long maxPauseMs() {
+        return maxPauseMs;
+    }
+
+    private static long exponential(long baseMs, int n, long capMs) {
+        int shift = Math.max(0, Math.min(n - 1, 20));
+        return Math.min(capMs, Math.max(1, baseMs) << shift);
+    }
+
+    private long jitter(long delayMs) {
+        long half = delayMs / 2;
+        return half + (long) (random.nextDouble() * (delayMs - half + 1));
+    }
+}
@@ -0,0 +1,63 @@
+package com.navjot.autobackup;
+
+/**
+ * RunBudget
+ * =========
+ * What a backup run is allowed to spend, as decided by the PowerPolicy.
+ */
+public class RunBudget {
+
+    public enum Mode { FULL, TRICKLE, PAUSED }
+
+    public final Mode mode;
+    public final int uploadConcurrency;
+    public final int largeFileStreams;
+    /** Bytes a run may send before deferring the remaining files; Long.MAX_VALUE for no limit. */
+    public final long byteBudget;
+    /** Delay until the scheduler should look again. */
+    public final long nextCheckMs;
+    public final String reason;
+
+    public RunBudget(Mode mode, int uploadConcurrency, int largeFileStreams,
+                     long byteBudget, long nextCheckMs, String reason) {
+        this.mode = mode;
+        this.uploadConcurrency = uploadConcurrency;
+        this.largeFileStreams = largeFileStreams;
+        this.byteBudget = byteBudget;
+        this.nextCheckMs = nextCheckMs;
+        this.reason = reason;
+    }
+
+    public boolean isAdmitted() { return mode != Mode.PAUSED; }
+
+    /** Budget for user-initiated runs: no power limits beyond the defaults. */
+    public static RunBudget unrestricted() {
+        return new RunBudget(Mode.FULL, 2, 4, Long.MAX_VALUE, 0, "manual");
+    }
+
+    /** Whether a run with this budget may spend at least what other allows, in every respect. */
+    public boolean covers(RunBudget other) {
+        // Modes are declared from most to least permissive
+        return mode.ordinal() <= other.mode.ordinal()
+                && uploadConcurrency >= other.uploadConcurrency
+                && largeFileStreams >= other.largeFileStreams
+                && byteBudget >= other.byteBudget;
+    }
+
+    /** The most permissive of two budgets, for one run serving both requests. */
+    public static RunBudget max(RunBudget a, RunBudget b) {
+        if (a.covers(b)) return a;
+        if (b.covers(a)) return b;
+        return new RunBudget(a.mode.ordinal() <= b.mode.ordinal() ? a.mode : b.mode,
+                Math.max(a.uploadConcurrency, b.uploadConcurrency),
+                Math.max(a.largeFileStreams, b.largeFileStreams),
+                Math.max(a.byteBudget, b.byteBudget),
+                Math.min(a.nextCheckMs, b.nextCheckMs),
+                a.reason + " + " + b.reason);
+    }
+
+    @Override public String toString() {
+        return mode + " (" + reason + ", " + uploadConcurrency + " uploads"
+                + (byteBudget == Long.MAX_VALUE ? "" : ", " + (byteBudget >> 20) + " MB") + ")";
+    }
+}
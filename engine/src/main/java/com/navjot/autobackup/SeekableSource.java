@@ -0,0 +1,30 @@
+package com.navjot.autobackup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * SeekableSource
+ * ==============
+ * Local file content that can be read at arbitrary offsets, as needed by
+ * range uploads. On Android this wraps the FileChannel of an opened document.
+ */
+public interface SeekableSource extends Closeable {
+
+    long size() throws IOException;
+
+    /** Reads into dst at the given file position; @return bytes read, or -1 at end of file. */
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    static SeekableSource of(FileChannel channel) {
+        return new SeekableSource() {
+            @Override public long size() throws IOException { return channel.size(); }
+            @Override public int read(ByteBuffer dst, long position) throws IOException {
+                return channel.read(dst, position);
+            }
+            @Override public void close() throws IOException { channel.close(); }
+        };
+    }
+}
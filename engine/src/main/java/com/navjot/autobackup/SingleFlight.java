@@ -0,0 +1,155 @@
+package com.navjot.autobackup;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SingleFlight
+ * ============
+ * Keeps at most one backup run in flight. A request made while a run is
+ * still listing its files joins that run, which will find the same files,
+ * as long as the run's budget covers the request's; otherwise, or once the
+ * listing is done, it queues one follow-up run for whatever is left by the
+ * time the first ends. Further requests join that follow-up, which runs the
+ * latest request's task with the most permissive of their budgets. So however
+ * requests overlap, each file is listed by one run and sent once, and no
+ * request is served with less than it asked for.
+ */
+public class SingleFlight {
+
+    /** Starts one run; must call Flight.markListed once its file list is fixed. */
+    public interface Task {
+        CompletableFuture<Void> start(Flight flight, RunBudget budget);
+    }
+
+    /** What a request did. */
+    public enum Admission { STARTED, JOINED, QUEUED }
+
+    /** One run, started or queued. */
+    public static final class Flight {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile boolean listed;
+        /** Guarded by the SingleFlight: grows while the flight is queued. */
+        private RunBudget budget;
+        /** Guarded by the SingleFlight: set by cancel, possibly before the run has started. */
+        private boolean cancelled;
+
+        Flight(RunBudget budget) {
+            this.budget = budget;
+        }
+
+        /** From now on a new request cannot be served by this run. */
+        public void markListed() { listed = true; }
+
+        public boolean isListed() { return listed; }
+    }
+
+    /** Outcome of a request. */
+    public static final class Ticket {
+        public final Admission admission;
+        /**
+         * Completes as the run serving the request ends. Cancelling it only
+         * stops waiting; the run goes on for its other requesters.
+         */
+        public final CompletableFuture<Void> done;
+
+        Ticket(Admission admission, Flight flight) {
+            this.admission = admission;
+            this.done = flight.done.whenComplete((v, error) -> {});
+        }
+    }
+
+    private Flight current;
+    private CompletableFuture<Void> currentRun;
+    private Flight next;
+    private Task nextTask;
+
+    public Ticket submit(RunBudget budget, Task task) {
+        Flight started;
+        synchronized (this) {
+            if (current != null) {
+                if (next == null && !current.isListed() && current.budget.covers(budget)) {
+                    return new Ticket(Admission.JOINED, current);
+                }
+                if (next == null) {
+                    next = new Flight(budget);
+                } else {
+                    next.budget = RunBudget.max(next.budget, budget);
+                }
+                nextTask = task;
+                return new Ticket(Admission.QUEUED, next);
+            }
+            started = current = new Flight(budget);
+        }
+        // Outside the lock: starting may do synchronous work
+        start(started, task);
+        return new Ticket(Admission.STARTED, started);
+    }
+
+    public synchronized boolean isRunning() {
+        return current != null;
+    }
+
+    /** Cancels the run in flight and drops the queued one; tickets waiting on either fail. */
+    public void cancel() {
+        CompletableFuture<Void> run;
+        Flight dropped;
+        synchronized (this) {
+            if (current != null) current.cancelled = true;
+            run = currentRun;
+            dropped = next;
+            next = null;
+            nextTask = null;
+        }
+        if (dropped != null) dropped.done.cancel(false);
+        if (run != null) run.cancel(true);
+    }
+
+    private void start(Flight flight, Task task) {
+        RunBudget budget;
+        boolean cancelled;
+        synchronized (this) {
+            budget = flight.budget;
+            cancelled = flight.cancelled;
+        }
+        CompletableFuture<Void> run;
+        if (cancelled) {
+            run = new CompletableFuture<>();
+            run.cancel(false);
+        } else {
+            try {
+                run = task.start(flight, budget);
+            } catch (RuntimeException e) {
+                run = new CompletableFuture<>();
+                run.completeExceptionally(e);
+            }
+        }
+        synchronized (this) {
+            if (current == flight) currentRun = run;
+            // A cancel that came while the task was starting could not reach the run
+            cancelled = flight.cancelled;
+        }
+        if (cancelled) run.cancel(true);
+        run.whenComplete((v, error) -> finished(flight, error));
+    }
+
+    private void finished(Flight flight, Throwable error) {
+        Flight queued;
+        Task task;
+        synchronized (this) {
+            if (current != flight) return;
+            // The follow-up is current at once, so requests from now on join or queue behind it
+            queued = next;
+            task = nextTask;
+            current = queued;
+            currentRun = null;
+            next = null;
+            nextTask = null;
+        }
+        if (error != null) {
+            flight.done.completeExceptionally(error);
+        } else {
+            flight.done.complete(null);
+        }
+        if (queued != null) start(queued, task);
+    }
+}
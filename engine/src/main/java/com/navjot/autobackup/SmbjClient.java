@@ -0,0 +1,549 @@
+package com.navjot.autobackup;
+
+import com.hierynomus.msdtyp.AccessMask;
+import com.hierynomus.msfscc.fileinformation.FileStandardInformation;
+import com.hierynomus.mssmb2.SMB2CreateDisposition;
+import com.hierynomus.mssmb2.SMB2CreateOptions;
+import com.hierynomus.mssmb2.SMB2ShareAccess;
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smbj.SMBClient;
+import com.hierynomus.smbj.auth.AuthenticationContext;
+import com.hierynomus.smbj.connection.Connection;
+import com.hierynomus.smbj.session.Session;
+import com.hierynomus.smbj.share.DiskShare;
+import com.hierynomus.smbj.share.File;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SmbjClient
+ * ==========
+ * Handles SMB file uploads, now supporting SAF InputStream sources.
+ */
+public class SmbjClient implements BackupTransport {
+
+    private static final String TAG = "SmbjClient";
+    private static final int RANGE_BUFFER = 1024 * 1024;
+    private static final int SMB_PORT = 445;
+    private static final int PROBE_RTT_SAMPLES = 3;
+    private static final int PROBE_BURST_BYTES = 2 * 1024 * 1024;
+    private static final String PROBE_FILE = ".autobackup_probe";
+    private static final int REACHABILITY_TIMEOUT_MS = 1500;
+
+    private final String serverIp, shareName, domain, username, password, remoteDir;
+    private final TransportProfile profile;
+    private volatile TransferTuning tuning = TransferTuning.DEFAULT;
+    /** Directories known to exist on the share, so each is created or checked once per client. */
+    private final Set<String> knownDirs = ConcurrentHashMap.newKeySet();
+
+    public SmbjClient() {
+        this(null, null, null, null, null, null);
+    }
+
+    /** Client bound to one target, as used through the BackupTransport methods. */
+    public SmbjClient(String serverIp, String shareName, String domain,
+                      String username, String password, String remoteDir) {
+        this(serverIp, shareName, domain, username, password, remoteDir, TransportProfile.DEFAULT);
+    }
+
+    public SmbjClient(String serverIp, String shareName, String domain,
+                      String username, String password, String remoteDir, TransportProfile profile) {
+        this.profile = profile != null ? profile : TransportProfile.DEFAULT;
+        this.serverIp = serverIp;
+        this.shareName = shareName;
+        this.domain = domain;
+        this.username = username;
+        this.password = password;
+        this.remoteDir = remoteDir;
+    }
+
+    @Override
+    public LinkQuality probeLink() {
+        return probeLink(serverIp, shareName, domain, username, password, remoteDir);
+    }
+
+    /** A TCP connect to the SMB port: no session, no authentication. */
+    @Override
+    public boolean isReachable() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(serverIp, SMB_PORT), REACHABILITY_TIMEOUT_MS);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean upload(String remoteFileName, InputStream in, UploadVerifier verifier) throws TransferError {
+        return uploadFile(serverIp, shareName, domain, username, password, remoteDir,
+                remoteFileName, in, verifier);
+    }
+
+    @Override
+    public boolean uploadRanges(String remoteFileName, SeekableSource source, int streams,
+                                RangeCheckpoint checkpoint, UploadVerifier verifier,
+                                BackupCrypto.FileEncryptor encryptor) throws TransferError {
+        return uploadLargeFile(serverIp, shareName, domain, username, password, remoteDir,
+                remoteFileName, source, streams, checkpoint, verifier, encryptor);
+    }
+
+    @Override
+    public void setTuning(TransferTuning tuning) {
+        this.tuning = tuning != null ? tuning : TransferTuning.DEFAULT;
+    }
+
+    private SMBClient newClient() {
+        return new SMBClient(profile.toConfig(tuning));
+    }
+
+    /**
+     * Writes a burst of the given size to a temporary file with this client's
+     * profile, timing session setup and the writes separately. With an
+     * algorithm the burst is sealed chunk by chunk as it is written, the way
+     * range uploads do, so the write time includes the encryption.
+     * @throws IOException if the target cannot be reached or written
+     */
+    public TransportBenchmark.Sample benchmark(long bytes, BackupCrypto.Algorithm encryption) throws IOException {
+        long cpuStart = TransportBenchmark.cpuTimeMs();
+        long start = System.nanoTime();
+        AuthenticationContext ac = new AuthenticationContext(username, password.toCharArray(), domain);
+        boolean connected = false;
+        try (Connection connection = newClient().connect(serverIp);
+             Session session = connection.authenticate(ac);
+             DiskShare share = (DiskShare) session.connectShare(shareName)) {
+            connected = true;
+            BackupCrypto.FileEncryptor encryptor = null;
+            if (encryption != null) {
+                // A throwaway key: stretching a real passphrase is per run, not per byte
+                BackupCrypto.MasterKey key = BackupCrypto.deriveKey("benchmark".toCharArray(),
+                        BackupCrypto.newSalt(), 1000);
+                encryptor = BackupCrypto.newFile(key, encryption, BackupCrypto.DEFAULT_CHUNK_SIZE, bytes,
+                        BackupCrypto.newFileId());
+            }
+            long setupNs = System.nanoTime() - start;
+            long writeStart = System.nanoTime();
+            writeBurst(share, remoteDir, bytes, encryptor);
+            long writeNs = Math.max(1, System.nanoTime() - writeStart);
+            long cpuMs = cpuStart < 0 ? -1 : TransportBenchmark.cpuTimeMs() - cpuStart;
+            return new TransportBenchmark.Sample(profile, bytes, setupNs / 1_000_000, writeNs,
+                    cpuMs, connection.getNegotiatedProtocol().getDialect().name(), encryption);
+        } catch (Exception e) {
+            throw classify(e, connected);
+        }
+    }
+
+    /**
+     * Writes bytes of random data to a delete-on-close probe file in the
+     * remote directory, sealed first if an encryptor is given.
+     */
+    private static void writeBurst(DiskShare share, String remoteDir, long bytes,
+                                   BackupCrypto.FileEncryptor encryptor) throws GeneralSecurityException {
+        String remotePath = (remoteDir == null || remoteDir.isEmpty())
+                ? PROBE_FILE
+                : remoteDir + "/" + PROBE_FILE;
+        try (File probe = share.openFile(
+                remotePath,
+                EnumSet.of(AccessMask.GENERIC_WRITE, AccessMask.DELETE),
+                null,
+                SMB2ShareAccess.ALL,
+                SMB2CreateDisposition.FILE_OVERWRITE_IF,
+                EnumSet.of(SMB2CreateOptions.FILE_DELETE_ON_CLOSE))) {
+            byte[] buf = new byte[256 * 1024];
+            new Random().nextBytes(buf);
+            if (encryptor == null) {
+                for (long offset = 0; offset < bytes; offset += buf.length) {
+                    probe.write(buf, offset, 0, (int) Math.min(buf.length, bytes - offset));
+                }
+                return;
+            }
+            int chunk = encryptor.chunkSize();
+            byte[] sealed = new byte[(buf.length / chunk) * (chunk + BackupCrypto.TAG_SIZE)];
+            byte[] header = encryptor.header();
+            probe.write(header, 0, 0, header.length);
+            for (long offset = 0; offset < bytes; offset += buf.length) {
+                int n = (int) Math.min(buf.length, bytes - offset);
+                int sealedLen = 0;
+                for (int p = 0; p < n; p += chunk) {
+                    sealedLen += encryptor.encryptChunk((offset + p) / chunk, buf, p,
+                            Math.min(chunk, n - p), sealed, sealedLen);
+                }
+                probe.write(sealed, encryptor.chunkOffset(offset / chunk), 0, sealedLen);
+            }
+        }
+    }
+
+    /**
+     * Pre-flight link probe: RTT from TCP connects to the SMB port, then a
+     * short write burst to a temporary file that is deleted on close.
+     * @return measurement, or null if the target could not be probed.
+     */
+    public LinkQuality probeLink(String serverIp,
+                                 String shareName,
+                                 String domain,
+                                 String username,
+                                 String password,
+                                 String remoteDir) {
+        try {
+            long rtt = Long.MAX_VALUE;
+            for (int i = 0; i < PROBE_RTT_SAMPLES; i++) {
+                long start = System.nanoTime();
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(serverIp, SMB_PORT), 2000);
+                }
+                rtt = Math.min(rtt, (System.nanoTime() - start) / 1_000_000);
+            }
+            AuthenticationContext ac = new AuthenticationContext(username, password.toCharArray(), domain);
+            try (Connection connection = newClient().connect(serverIp);
+                 Session session = connection.authenticate(ac);
+                 DiskShare share = (DiskShare) session.connectShare(shareName)) {
+                long start = System.nanoTime();
+                writeBurst(share, remoteDir, PROBE_BURST_BYTES, null);
+                long elapsedNs = Math.max(1, System.nanoTime() - start);
+                LinkQuality q = new LinkQuality(rtt, PROBE_BURST_BYTES * 1_000_000_000L / elapsedNs,
+                        System.currentTimeMillis());
+                EngineLog.i(TAG, "Link probe to " + serverIp + ": " + q);
+                return q;
+            }
+        } catch (Exception e) {
+            EngineLog.w(TAG, "Link probe to " + serverIp + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Uploads data from input stream to SMB share.
+     */
+    public boolean uploadFile(String serverIp,
+                              String shareName,
+                              String domain,
+                              String username,
+                              String password,
+                              String remoteDir,
+                              String remoteFileName,
+                              InputStream inputStream) {
+        try {
+            return uploadFile(serverIp, shareName, domain, username, password, remoteDir,
+                    remoteFileName, inputStream, null);
+        } catch (TransferError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Uploads data from input stream to SMB share and, if a verifier is given,
+     * only reports success once the remote file passes its verification level.
+     * @throws TransferError classified by the SMB status or socket error
+     */
+    public boolean uploadFile(String serverIp,
+                              String shareName,
+                              String domain,
+                              String username,
+                              String password,
+                              String remoteDir,
+                              String remoteFileName,
+                              InputStream inputStream,
+                              UploadVerifier verifier) throws TransferError {
+        SMBClient client = newClient();
+        boolean connected = false;
+        try (Connection connection = client.connect(serverIp)) {
+            AuthenticationContext ac = new AuthenticationContext(username, password.toCharArray(), domain);
+            try (Session session = connection.authenticate(ac)) {
+                try (DiskShare share = (DiskShare) session.connectShare(shareName)) {
+                    connected = true;
+                    String remotePath = (remoteDir == null || remoteDir.isEmpty())
+                            ? remoteFileName
+                            : remoteDir + "/" + remoteFileName;
+                    ensureParentDirs(share, remotePath);
+                    try (File remoteFile = share.openFile(
+                            remotePath,
+                            EnumSet.of(AccessMask.GENERIC_WRITE, AccessMask.GENERIC_READ),
+                            null, null,
+                            SMB2CreateDisposition.FILE_OVERWRITE_IF,
+                            null);
+                         OutputStream os = remoteFile.getOutputStream()) {
+                        byte[] buf = new byte[tuning.bufferSize];
+                        int len;
+                        while ((len = inputStream.read(buf)) != -1) {
+                            os.write(buf, 0, len);
+                            if (verifier != null) verifier.observe(buf, 0, len);
+                        }
+                        os.flush();
+                        if (verifier != null && !verifier.verify(view(remoteFile))) {
+                            EngineLog.w(TAG, "SMB upload failed verification (" + verifier.getLevel() + "): "
+                                    + remoteFileName + " → " + verifier.getFailure());
+                            return false;
+                        }
+                        EngineLog.i(TAG, "SMB upload successful: " + remoteFileName);
+                        return true;
+                    }
+                }
+            }
+        } catch (Exception e) {
+            EngineLog.e(TAG, "SMB upload failed for: " + remoteFileName + " → " + e.getMessage(), e);
+            throw classify(e, connected);
+        }
+    }
+
+    /**
+     * Uploads a seekable source as fixed-size ranges written concurrently at
+     * their offsets into a preallocated remote file. Each stream uses its own
+     * SMB connection so transfers are not serialised on one TCP socket.
+     * Ranges already recorded in the checkpoint are skipped, so a failed
+     * upload resumes where it stopped. With an encryptor every chunk of a
+     * range is encrypted independently and written at its encrypted offset.
+     */
+    public boolean uploadLargeFile(String serverIp,
+                                   String shareName,
+                                   String domain,
+                                   String username,
+                                   String password,
+                                   String remoteDir,
+                                   String remoteFileName,
+                                   SeekableSource source,
+                                   int streams,
+                                   RangeCheckpoint checkpoint,
+                                   UploadVerifier verifier,
+                                   BackupCrypto.FileEncryptor encryptor) throws TransferError {
+        String remotePath = (remoteDir == null || remoteDir.isEmpty())
+                ? remoteFileName
+                : remoteDir + "/" + remoteFileName;
+        AuthenticationContext ac = new AuthenticationContext(username, password.toCharArray(), domain);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        boolean connected = false;
+        try (Connection connection = newClient().connect(serverIp);
+             Session session = connection.authenticate(ac);
+             DiskShare share = (DiskShare) session.connectShare(shareName)) {
+            connected = true;
+            long size = source.size();
+            if (encryptor != null && (RANGE_SIZE % encryptor.chunkSize() != 0
+                    || RANGE_BUFFER % encryptor.chunkSize() != 0)) {
+                throw new IllegalArgumentException("Chunk size must divide the range size");
+            }
+            // Preallocating for one length and writing another would leave a torn file
+            if (encryptor != null && encryptor.plainLength() != size) {
+                throw new TransferError(TransferError.Kind.FILE, "Source has " + size
+                        + " bytes, encryptor was made for " + encryptor.plainLength());
+            }
+            long remoteSize = encryptor != null ? encryptor.encryptedLength() : size;
+            int rangeCount = (int) ((size + RANGE_SIZE - 1) / RANGE_SIZE);
+            List<Integer> pending = new ArrayList<>();
+            for (int i = 0; i < rangeCount; i++) {
+                if (!checkpoint.isRangeDone(i)) pending.add(i);
+            }
+            boolean resuming = pending.size() < rangeCount;
+            ensureParentDirs(share, remotePath);
+
+            try (File remoteFile = share.openFile(
+                    remotePath,
+                    EnumSet.of(AccessMask.GENERIC_WRITE, AccessMask.GENERIC_READ),
+                    null, null,
+                    resuming ? SMB2CreateDisposition.FILE_OPEN_IF : SMB2CreateDisposition.FILE_OVERWRITE_IF,
+                    null)) {
+                remoteFile.setLength(remoteSize);
+                if (encryptor != null) {
+                    byte[] header = encryptor.header();
+                    remoteFile.write(header, 0, 0, header.length);
+                }
+
+                AtomicInteger next = new AtomicInteger();
+                int workers = Math.max(1, Math.min(streams, pending.size()));
+                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for (int w = 0; w < workers; w++) {
+                    futures.add(AppExecutors.supply(() -> {
+                        writeRanges(serverIp, shareName, ac, remotePath, source, size,
+                                pending, next, failed, checkpoint, encryptor);
+                        return null;
+                    }, AppExecutors.get().io()));
+                }
+                for (CompletableFuture<Void> f : futures) f.get();
+                if (failed.get()) return false;
+
+                // Preallocated, so the size alone says nothing: each range is read back
+                if (verifier != null) {
+                    if (!verifier.verifyRanges(view(remoteFile), source, RANGE_SIZE, encryptor)) {
+                        EngineLog.w(TAG, "SMB upload failed verification (" + verifier.getLevel() + "): "
+                                + remoteFileName + " → " + verifier.getFailure());
+                        return false;
+                    }
+                }
+                EngineLog.i(TAG, "SMB range upload successful: " + remoteFileName + " (" + rangeCount
+                        + " ranges, " + workers + " streams" + (resuming ? ", resumed" : "") + ")");
+                return true;
+            }
+        } catch (Exception e) {
+            EngineLog.e(TAG, "SMB range upload failed for: " + remoteFileName + " → " + e.getMessage(), e);
+            throw classify(e, connected);
+        } finally {
+            // Remaining workers stop before their next range
+            failed.set(true);
+        }
+    }
+
+    /**
+     * Maps an smbj status or socket failure onto the TransferError kind that
+     * decides the retry. Connected means the share was already mounted, so a
+     * refusal came from a file rather than from the credentials.
+     */
+    static TransferError classify(Exception error, boolean connected) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            // Already classified by a range worker with its own session
+            if (t instanceof TransferError) return (TransferError) t;
+            if (t instanceof SMBApiException) {
+                return new TransferError(kindOf(((SMBApiException) t).getStatusCode(), connected),
+                        t.getMessage(), error);
+            }
+            if (t instanceof TransportException) {
+                return new TransferError(TransferError.Kind.TRANSIENT, t.getMessage(), error);
+            }
+        }
+        return new TransferError(TransferError.classify(error), error.getMessage(), error);
+    }
+
+    /** NTSTATUS values that decide between retrying, pausing and ending the run. */
+    private static TransferError.Kind kindOf(long status, boolean connected) {
+        switch ((int) status) {
+            case 0xC0000022: // STATUS_ACCESS_DENIED
+                // On session setup or tree connect it is the account; on create or write, the file
+                return connected ? TransferError.Kind.FILE : TransferError.Kind.AUTH_FAILED;
+            case 0xC000006D: // STATUS_LOGON_FAILURE
+            case 0xC000006E: // STATUS_ACCOUNT_RESTRICTION
+            case 0xC0000071: // STATUS_PASSWORD_EXPIRED
+            case 0xC0000072: // STATUS_ACCOUNT_DISABLED
+            case 0xC0000234: // STATUS_ACCOUNT_LOCKED_OUT
+                return TransferError.Kind.AUTH_FAILED;
+            case 0xC00000CC: // STATUS_BAD_NETWORK_NAME
+            case 0xC000003A: // STATUS_OBJECT_PATH_NOT_FOUND (remote directory)
+                return TransferError.Kind.SHARE_MISSING;
+            case 0xC000007F: // STATUS_DISK_FULL
+            case 0xC0000044: // STATUS_QUOTA_EXCEEDED
+                return TransferError.Kind.DISK_FULL;
+            case 0xC000009A: // STATUS_INSUFFICIENT_RESOURCES
+            case 0xC00000B5: // STATUS_IO_TIMEOUT
+            case 0xC00000C9: // STATUS_NETWORK_NAME_DELETED
+            case 0xC0000203: // STATUS_USER_SESSION_DELETED
+            case 0xC000020C: // STATUS_CONNECTION_DISCONNECTED
+            case 0xC000020D: // STATUS_CONNECTION_RESET
+                return TransferError.Kind.TRANSIENT;
+            default:
+                // Sharing violations, invalid names and the like only concern this file
+                return TransferError.Kind.FILE;
+        }
+    }
+
+    /**
+     * Creates the directories above a remote path that do not exist yet, so
+     * the folder structure below a selected folder is mirrored on the share.
+     */
+    private void ensureParentDirs(DiskShare share, String remotePath) {
+        int slash = -1;
+        while ((slash = remotePath.indexOf('/', slash + 1)) > 0) {
+            String dir = remotePath.substring(0, slash);
+            String key = share.getSmbPath().toUncPath() + "\\" + dir;
+            if (knownDirs.contains(key)) continue;
+            if (!share.folderExists(dir)) {
+                try {
+                    share.mkdir(dir);
+                } catch (SMBApiException e) {
+                    // Another worker or client may have created it in between
+                    if (!share.folderExists(dir)) throw e;
+                }
+            }
+            knownDirs.add(key);
+        }
+    }
+
+    /** Exposes an open smbj handle to the verifier. */
+    private static UploadVerifier.RemoteFile view(File remoteFile) {
+        return new UploadVerifier.RemoteFile() {
+            @Override public long size() {
+                return remoteFile.getFileInformation(FileStandardInformation.class).getEndOfFile();
+            }
+            @Override public int read(byte[] buf, long fileOffset, int off, int len) {
+                return remoteFile.read(buf, fileOffset, off, len);
+            }
+        };
+    }
+
+    /** Worker loop: claims pending ranges and writes them over a dedicated connection. */
+    private void writeRanges(String serverIp,
+                             String shareName,
+                             AuthenticationContext ac,
+                             String remotePath,
+                             SeekableSource source,
+                             long size,
+                             List<Integer> pending,
+                             AtomicInteger next,
+                             AtomicBoolean failed,
+                             RangeCheckpoint checkpoint,
+                             BackupCrypto.FileEncryptor encryptor) throws IOException {
+        boolean connected = false;
+        try (Connection connection = newClient().connect(serverIp);
+             Session session = connection.authenticate(ac);
+             DiskShare share = (DiskShare) session.connectShare(shareName)) {
+            connected = true;
+            try (File remoteFile = share.openFile(
+                    remotePath,
+                    EnumSet.of(AccessMask.GENERIC_WRITE),
+                    null, null,
+                    SMB2CreateDisposition.FILE_OPEN,
+                    null)) {
+                byte[] buf = new byte[RANGE_BUFFER];
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                int chunk = encryptor != null ? encryptor.chunkSize() : 0;
+                byte[] sealed = encryptor != null
+                        ? new byte[(RANGE_BUFFER / chunk) * (chunk + BackupCrypto.TAG_SIZE)] : null;
+                int claim;
+                while (!failed.get() && (claim = next.getAndIncrement()) < pending.size()) {
+                    int range = pending.get(claim);
+                    long offset = range * RANGE_SIZE;
+                    long end = Math.min(offset + RANGE_SIZE, size);
+                    while (offset < end) {
+                        bb.clear();
+                        bb.limit((int) Math.min(buf.length, end - offset));
+                        int n = source.read(bb, offset);
+                        if (n <= 0) throw new IOException("Source ended at " + offset + " of " + size);
+                        if (encryptor == null) {
+                            remoteFile.write(buf, offset, 0, n);
+                        } else {
+                            // Only whole chunks (or the file's last one) may be sealed
+                            if (n < bb.limit() && offset + n < end) n -= n % chunk;
+                            int sealedLen = 0;
+                            for (int p = 0; p < n; p += chunk) {
+                                sealedLen += encryptor.encryptChunk((offset + p) / chunk, buf, p,
+                                        Math.min(chunk, n - p), sealed, sealedLen);
+                            }
+                            remoteFile.write(sealed, encryptor.chunkOffset(offset / chunk), 0, sealedLen);
+                        }
+                        offset += n;
+                    }
+                    checkpoint.onRangeDone(range);
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            failed.set(true);
+            throw new IOException(e);
+        } catch (SMBApiException e) {
+            failed.set(true);
+            throw classify(e, connected);
+        } catch (IOException | RuntimeException e) {
+            failed.set(true);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.navjot.autobackup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ThroughputHistory
+ * =================
+ * Rolling record of the last runs to one target: files, bytes and the time
+ * the upload phase took. A run's time is modelled as a fixed cost per file
+ * (open, verify, history write) plus bytes over an effective rate, fitted over
+ * the window by least squares, so a plan of many small photos and one of a few
+ * videos both get a sensible estimate. With too little spread in the samples
+ * to separate the two, bytes over the window's average rate is used.
+ */
+public class ThroughputHistory {
+
+    public static final int WINDOW = 8;
+    /** Runs this small say more about setup than about throughput and are not recorded. */
+    public static final long MIN_SAMPLE_BYTES = 1024 * 1024;
+
+    /** One finished run. */
+    public static class Sample {
+        public final int files;
+        public final long bytes;
+        public final long elapsedMs;
+
+        public Sample(int files, long bytes, long elapsedMs) {
+            this.files = files;
+            this.bytes = bytes;
+            this.elapsedMs = elapsedMs;
+        }
+    }
+
+    private final List<Sample> samples = new ArrayList<>();
+
+    public List<Sample> samples() {
+        return Collections.unmodifiableList(samples);
+    }
+
+    /** Adds a run, dropping the oldest beyond WINDOW. @return false if it was too small to count. */
+    public boolean record(int files, long bytes, long elapsedMs) {
+        if (files <= 0 || bytes < MIN_SAMPLE_BYTES || elapsedMs <= 0) return false;
+        samples.add(new Sample(files, bytes, elapsedMs));
+        while (samples.size() > WINDOW) samples.remove(0);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return samples.isEmpty();
+    }
+
+    /** Estimated upload time for a plan; -1 without history. */
+    public long estimateMs(int files, long bytes) {
+        if (samples.isEmpty()) return -1;
+        double[] fit = fit();
+        return Math.round(fit[0] * files + fit[1] * bytes);
+    }
+
+    /** [ms per file, ms per byte] from least squares without intercept, or the average rate alone. */
+    private double[] fit() {
+        double ff = 0, fb = 0, bb = 0, ft = 0, bt = 0, bytes = 0, ms = 0;
+        for (Sample s : samples) {
+            ff += (double) s.files * s.files;
+            fb += (double) s.files * s.bytes;
+            bb += (double) s.bytes * s.bytes;
+            ft += (double) s.files * s.elapsedMs;
+            bt += (double) s.bytes * s.elapsedMs;
+            bytes += s.bytes;
+            ms += s.elapsedMs;
+        }
+        double det = ff * bb - fb * fb;
+        // Near-collinear samples (all runs with the same average file size) cannot separate the costs
+        if (samples.size() >= 3 && det > 1e-6 * ff * bb) {
+            double perFile = (ft * bb - bt * fb) / det;
+            double perByte = (ff * bt - fb * ft) / det;
+            if (perFile >= 0 && perByte > 0) return new double[] { perFile, perByte };
+        }
+        return new double[] { 0, ms / bytes };
+    }
+
+    /** Compact form for SharedPreferences: "files:bytes:ms;..." oldest first. */
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Sample s : samples) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append(s.files).append(':').append(s.bytes).append(':').append(s.elapsedMs);
+        }
+        return sb.toString();
+    }
+
+    /** @return parsed history; unusable entries are skipped, null gives an empty history. */
+    public static ThroughputHistory parse(String s) {
+        ThroughputHistory history = new ThroughputHistory();
+        if (s == null || s.isEmpty()) return history;
+        for (String entry : s.split(";")) {
+            String[] parts = entry.split(":");
+            if (parts.length != 3) continue;
+            try {
+                history.record(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            } catch (NumberFormatException ignored) {}
+        }
+        return history;
+    }
+}
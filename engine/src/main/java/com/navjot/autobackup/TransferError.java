@@ -0,0 +1,64 @@
+package com.navjot.autobackup;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+/**
+ * TransferError
+ * =============
+ * A failed transfer with the class of its cause, which decides what the
+ * UploadRunner does next: retry the file, pause for the target, or end the run.
+ * Transports throw it with the class mapped from their own status codes.
+ */
+public class TransferError extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Kind {
+        /** Connection lost, timed out or refused, or a server hiccup: retry, counts toward the circuit breaker. */
+        TRANSIENT(false),
+        /** Credentials rejected or account locked: no file can succeed. */
+        AUTH_FAILED(true),
+        /** Share or remote directory does not exist. */
+        SHARE_MISSING(true),
+        /** Share is out of space or quota. */
+        DISK_FULL(true),
+        /** Only this file is affected: unreadable source, invalid name, sharing violation. */
+        FILE(false);
+
+        /** Whether the whole run ends, since every remaining file would fail the same way. */
+        public final boolean endsRun;
+
+        Kind(boolean endsRun) {
+            this.endsRun = endsRun;
+        }
+    }
+
+    public final Kind kind;
+
+    public TransferError(Kind kind, String message, Throwable cause) {
+        super(message, cause);
+        this.kind = kind;
+    }
+
+    public TransferError(Kind kind, String message) {
+        this(kind, message, null);
+    }
+
+    /** Classifies any failure; causes are followed so wrapped socket errors still count as transient. */
+    public static Kind classify(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof TransferError) return ((TransferError) t).kind;
+            if (t instanceof FileNotFoundException) return Kind.FILE;
+            if (t instanceof SocketException || t instanceof InterruptedIOException
+                    || t instanceof UnknownHostException || t instanceof EOFException) {
+                return Kind.TRANSIENT;
+            }
+        }
+        return Kind.FILE;
+    }
+}
@@ -0,0 +1,124 @@
+package com.navjot.autobackup;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TransferSession
+ * ===============
+ * Holds the locks that keep the radio and CPU at full speed (Wi-Fi high-perf
+ * lock, partial wake lock) only while upload bytes are actually flowing.
+ * The first bytes acquire them, a watchdog releases them once no bytes have
+ * moved for IDLE_RELEASE_MS (retry backoff, breaker pauses), and close()
+ * releases them for good. Locks are acquired with a MAX_HOLD_MS timeout that
+ * is renewed while bytes flow, so a lock with a platform timeout (the wake
+ * lock) cannot outlive a lost session by more than that. Time held is
+ * accounted per lock.
+ */
+public class TransferSession implements Closeable {
+
+    public static final long IDLE_RELEASE_MS = 10_000;
+    public static final long MAX_HOLD_MS = 10 * 60_000;
+    private static final long RENEW_AFTER_MS = MAX_HOLD_MS / 2;
+
+    /** One platform lock; acquire may be called again while held to renew its timeout. */
+    public interface Lock {
+        String name();
+        void acquire(long timeoutMs);
+        void release();
+    }
+
+    private final List<Lock> locks;
+    private final UploadRunner.Clock clock;
+    private final Map<String, Long> heldMs = new LinkedHashMap<>();
+    private volatile boolean held = false;
+    private volatile long lastBytesAt;
+    private volatile long renewedAt;
+    private long heldSince;
+    private int acquisitions = 0;
+    private boolean closed = false;
+    private ScheduledFuture<?> watchdog;
+
+    public TransferSession(List<Lock> locks, UploadRunner.Clock clock) {
+        this.locks = new ArrayList<>(locks);
+        this.clock = clock;
+        for (Lock lock : locks) heldMs.put(lock.name(), 0L);
+    }
+
+    /** Starts the idle watchdog. */
+    public synchronized void start(ScheduledExecutorService scheduler) {
+        if (watchdog == null && !closed) {
+            watchdog = scheduler.scheduleWithFixedDelay(this::releaseIfIdle,
+                    IDLE_RELEASE_MS / 2, IDLE_RELEASE_MS / 2, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Called from upload threads for every buffer; only the first one after idle takes the lock. */
+    public void onBytes(long bytes) {
+        long now = clock.now();
+        lastBytesAt = now;
+        if (!held || now - renewedAt >= RENEW_AFTER_MS) acquire(now);
+    }
+
+    private synchronized void acquire(long now) {
+        if (closed) return;
+        for (Lock lock : locks) lock.acquire(MAX_HOLD_MS);
+        if (!held) {
+            held = true;
+            heldSince = now;
+            acquisitions++;
+        }
+        renewedAt = now;
+    }
+
+    /** Watchdog tick: drops the locks once the transfer has stalled. */
+    public synchronized void releaseIfIdle() {
+        if (held && clock.now() - lastBytesAt >= IDLE_RELEASE_MS) release();
+    }
+
+    private void release() {
+        long now = clock.now();
+        for (Lock lock : locks) {
+            lock.release();
+            heldMs.put(lock.name(), heldMs.get(lock.name()) + (now - heldSince));
+        }
+        held = false;
+    }
+
+    public synchronized boolean isHeld() {
+        return held;
+    }
+
+    /** Total time each lock was held, by lock name, including a hold in progress. */
+    public synchronized Map<String, Long> heldMs() {
+        Map<String, Long> copy = new LinkedHashMap<>(heldMs);
+        if (held) {
+            long current = clock.now() - heldSince;
+            for (Map.Entry<String, Long> e : copy.entrySet()) e.setValue(e.getValue() + current);
+        }
+        return copy;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        if (held) release();
+        closed = true;
+        if (watchdog != null) watchdog.cancel(false);
+    }
+
+    @Override public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : heldMs().entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(e.getKey()).append(' ').append(e.getValue() / 1000).append(" s");
+        }
+        return sb.append(" over ").append(acquisitions).append(" holds").toString();
+    }
+}
@@ -0,0 +1,60 @@
+package com.navjot.autobackup;
+
+/**
+ * TransferTuning
+ * ==============
+ * Transfer parameters picked for a link: copy buffer, write window for range
+ * uploads, parallel uploads, SMB timeout and retry pacing.
+ */
+public class TransferTuning {
+
+    private static final long KB = 1024, MB = 1024 * 1024;
+
+    public final String name;
+    public final int bufferSize;
+    public final int writeWindow;
+    public final int concurrency;
+    public final long timeoutMs;
+    public final int maxAttempts;
+    public final long retryBackoffMs;
+
+    public TransferTuning(String name, int bufferSize, int writeWindow, int concurrency,
+                          long timeoutMs, int maxAttempts, long retryBackoffMs) {
+        this.name = name;
+        this.bufferSize = bufferSize;
+        this.writeWindow = writeWindow;
+        this.concurrency = concurrency;
+        this.timeoutMs = timeoutMs;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    /**
+     * Tuning table, best link first. A row applies when RTT is at most
+     * MAX_RTT_MS and throughput at least MIN_THROUGHPUT.
+     */
+    private static final long[] MAX_RTT_MS = { 5, 15, 60, Long.MAX_VALUE };
+    private static final long[] MIN_THROUGHPUT = { 20 * MB, 5 * MB, 1 * MB, 0 };
+    private static final TransferTuning[] TABLE = {
+            new TransferTuning("excellent", (int) (1 * MB), 4, 3, 15000, 3, 1000),
+            new TransferTuning("good", (int) (256 * KB), 3, 2, 30000, 3, 1500),
+            new TransferTuning("fair", (int) (64 * KB), 2, 2, 45000, 4, 2500),
+            new TransferTuning("poor", (int) (32 * KB), 1, 1, 60000, 5, 4000)
+    };
+
+    /** Used when no probe result is available. */
+    public static final TransferTuning DEFAULT = TABLE[2];
+
+    public static TransferTuning forLink(LinkQuality link) {
+        if (link == null) return DEFAULT;
+        for (int i = 0; i < TABLE.length; i++) {
+            if (link.rttMs <= MAX_RTT_MS[i] && link.bytesPerSec >= MIN_THROUGHPUT[i]) return TABLE[i];
+        }
+        return TABLE[TABLE.length - 1];
+    }
+
+    @Override public String toString() {
+        return name + " (buffer " + (bufferSize / KB) + " KB, window " + writeWindow
+                + ", " + concurrency + " uploads, timeout " + (timeoutMs / 1000) + " s)";
+    }
+}
@@ -0,0 +1,203 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * TransportBenchmark
+ * ==================
+ * Measures every TransportProfile against one target: session setup time,
+ * write throughput and the process CPU time spent per MiB, which is where
+ * signing and encryption show up on a phone. Profiles are measured in turns
+ * for several rounds and each keeps its best round, so a burst of Wi-Fi
+ * interference does not decide the ranking. runEncryption does the same for
+ * one profile with the burst uploaded plain and sealed by each BackupCrypto
+ * algorithm, which shows what client-side encryption costs on this link.
+ */
+public class TransportBenchmark {
+
+    public static final long DEFAULT_BYTES = 32L * 1024 * 1024;
+    public static final int DEFAULT_ROUNDS = 2;
+
+    /** Something that can write a burst with a given profile: an SmbjClient or a local stand-in. */
+    public interface Target {
+        /** @param encryption algorithm to seal the burst with while writing it, or null to send it plain. */
+        Sample measure(TransportProfile profile, long bytes, BackupCrypto.Algorithm encryption) throws IOException;
+    }
+
+    /** One measured burst. */
+    public static class Sample {
+        public final TransportProfile profile;
+        public final long bytes;
+        public final long setupMs;
+        public final long writeNs;
+        public final long cpuMs;
+        public final String dialect;
+        /** Algorithm the burst was sealed with, null if it was sent plain. */
+        public final BackupCrypto.Algorithm encryption;
+        /** Why the profile could not be measured, null for a measured burst. */
+        public final String error;
+
+        public Sample(TransportProfile profile, long bytes, long setupMs, long writeNs, long cpuMs, String dialect,
+                      BackupCrypto.Algorithm encryption) {
+            this(profile, bytes, setupMs, writeNs, cpuMs, dialect, encryption, null);
+        }
+
+        private Sample(TransportProfile profile, long bytes, long setupMs, long writeNs, long cpuMs,
+                       String dialect, BackupCrypto.Algorithm encryption, String error) {
+            this.profile = profile;
+            this.bytes = bytes;
+            this.setupMs = setupMs;
+            this.writeNs = Math.max(1, writeNs);
+            this.cpuMs = cpuMs;
+            this.dialect = dialect;
+            this.encryption = encryption;
+            this.error = error;
+        }
+
+        static Sample failed(TransportProfile profile, BackupCrypto.Algorithm encryption, IOException e) {
+            return new Sample(profile, 0, 0, 1, 0, null, encryption,
+                    e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+
+        /** Profile name, followed by the algorithm for a sealed burst. */
+        public String label() {
+            return encryption != null ? profile.name() + " + " + encryption.name() : profile.name();
+        }
+
+        public long bytesPerSecond() {
+            return bytes * 1_000_000_000L / writeNs;
+        }
+
+        public double cpuMsPerMiB() {
+            return cpuMs * (1024.0 * 1024.0) / Math.max(1, bytes);
+        }
+
+        @Override public String toString() {
+            if (error != null) return label() + ": failed (" + error + ")";
+            if (cpuMs < 0) {
+                return String.format(Locale.US, "%s: %.1f MB/s, setup %d ms, %s",
+                        label(), bytesPerSecond() / 1e6, setupMs, dialect);
+            }
+            return String.format(Locale.US, "%s: %.1f MB/s, %.1f ms CPU/MiB, setup %d ms, %s",
+                    label(), bytesPerSecond() / 1e6, cpuMsPerMiB(), setupMs, dialect);
+        }
+    }
+
+    private static volatile LongSupplier cpuClock = () -> -1;
+
+    private final long bytes;
+    private final int rounds;
+
+    /** Source of process CPU time in ms; the host installs one, unset reads -1. */
+    public static void setCpuClock(LongSupplier clock) {
+        cpuClock = clock != null ? clock : () -> -1;
+    }
+
+    /** Process CPU time in ms, or -1 if the host has no way to read it. */
+    public static long cpuTimeMs() {
+        return cpuClock.getAsLong();
+    }
+
+    public TransportBenchmark() {
+        this(DEFAULT_BYTES, DEFAULT_ROUNDS);
+    }
+
+    public TransportBenchmark(long bytes, int rounds) {
+        this.bytes = bytes;
+        this.rounds = Math.max(1, rounds);
+    }
+
+    /** Benchmarks an SMB target with each profile. */
+    public static Target smb(String serverIp, String shareName, String domain,
+                             String username, String password, String remoteDir) {
+        return (profile, bytes, encryption) -> new SmbjClient(serverIp, shareName, domain, username, password,
+                remoteDir, profile).benchmark(bytes, encryption);
+    }
+
+    /**
+     * Runs the benchmark. A profile the target rejects (e.g. SECURE against
+     * an SMB2-only NAS) is reported with its error and not measured again.
+     * @return best sample per profile, in profile order.
+     */
+    public Map<TransportProfile, Sample> run(Target target) {
+        Map<TransportProfile, Sample> results = new LinkedHashMap<>();
+        for (int round = 0; round < rounds; round++) {
+            for (TransportProfile profile : TransportProfile.values()) {
+                results.put(profile, measureBetter(target, profile, null, results.get(profile)));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Uploads the same burst with one profile plain and sealed by each
+     * BackupCrypto algorithm, in turns like run().
+     * @return best sample per variant, plain first.
+     */
+    public List<Sample> runEncryption(Target target, TransportProfile profile) {
+        List<BackupCrypto.Algorithm> variants = new ArrayList<>();
+        variants.add(null);
+        variants.addAll(Arrays.asList(BackupCrypto.Algorithm.values()));
+        List<Sample> results = new ArrayList<>(Collections.nCopies(variants.size(), (Sample) null));
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < variants.size(); i++) {
+                results.set(i, measureBetter(target, profile, variants.get(i), results.get(i)));
+            }
+        }
+        return results;
+    }
+
+    /** Measures once more unless best already failed; @return the faster of the two. */
+    private Sample measureBetter(Target target, TransportProfile profile, BackupCrypto.Algorithm encryption,
+                                 Sample best) {
+        if (best != null && best.error != null) return best;
+        Sample sample;
+        try {
+            sample = target.measure(profile, bytes, encryption);
+        } catch (IOException e) {
+            sample = Sample.failed(profile, encryption, e);
+        }
+        if (best == null || (sample.error == null && sample.bytesPerSecond() > best.bytesPerSecond())) {
+            return sample;
+        }
+        return best;
+    }
+
+    /** Fastest profile that worked, or null if none did. */
+    public static TransportProfile fastest(Map<TransportProfile, Sample> results) {
+        Sample best = null;
+        for (Sample s : results.values()) {
+            if (s.error == null && (best == null || s.bytesPerSecond() > best.bytesPerSecond())) best = s;
+        }
+        return best != null ? best.profile : null;
+    }
+
+    public static String describe(Map<TransportProfile, Sample> results) {
+        List<String> lines = new ArrayList<>();
+        for (Sample s : results.values()) lines.add(s.toString());
+        return String.join("\n", lines);
+    }
+
+    /** Results of runEncryption, each sealed variant with its throughput cost against the plain upload. */
+    public static String describeEncryption(List<Sample> results) {
+        Sample plain = results.get(0);
+        List<String> lines = new ArrayList<>();
+        for (Sample s : results) {
+            if (s == plain || s.error != null || plain.error != null) {
+                lines.add(s.toString());
+            } else {
+                double cost = 1.0 - (double) s.bytesPerSecond() / plain.bytesPerSecond();
+                lines.add(String.format(Locale.US, "%s, %.1f%% below plain", s, cost * 100));
+            }
+        }
+        return String.join("\n", lines);
+    }
+}
@@ -0,0 +1,148 @@
+package com.navjot.autobackup;
+
+import com.hierynomus.mssmb2.SMB2Dialect;
+import com.hierynomus.smbj.SmbConfig;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import javax.net.SocketFactory;
+
+/**
+ * TransportProfile
+ * ================
+ * Named SMB settings for a target: dialects, signing, SMB3 encryption, buffer
+ * sizes and the TCP socket buffers. Signing and encryption cost CPU on every
+ * byte, which on mid-range phones can cap throughput well below the link, so
+ * the profile decides which of them a backup pays for. Timeouts come from the
+ * link's TransferTuning. The server still has the last word: it caps the
+ * buffer sizes, and a server that requires signing gets it in every profile.
+ */
+public enum TransportProfile {
+
+    /** Home network you trust: newest dialects, no signing unless the server insists, large buffers. */
+    TRUSTED_LAN("Trusted LAN (max throughput)",
+            new SMB2Dialect[] { SMB2Dialect.SMB_3_1_1, SMB2Dialect.SMB_3_0_2, SMB2Dialect.SMB_3_0,
+                    SMB2Dialect.SMB_2_1, SMB2Dialect.SMB_2_0_2 },
+            false, false, false, 8 * 1024 * 1024, 4 * 1024 * 1024),
+    /** SMB3 only, signed and encrypted: for shared or untrusted networks. */
+    SECURE("Secure (SMB3, signed, encrypted)",
+            new SMB2Dialect[] { SMB2Dialect.SMB_3_1_1, SMB2Dialect.SMB_3_0_2, SMB2Dialect.SMB_3_0 },
+            true, true, true, 1024 * 1024, 1024 * 1024),
+    /**
+     * smbj's default dialects, signing and buffer sizes, plus the SMB1
+     * negotiate older NAS firmware needs. Like every profile it takes its
+     * timeouts from the link; socket buffers are left to the platform.
+     */
+    COMPAT("Compatible (older servers)",
+            new SMB2Dialect[] { SMB2Dialect.SMB_3_1_1, SMB2Dialect.SMB_3_0_2, SMB2Dialect.SMB_3_0,
+                    SMB2Dialect.SMB_2_1, SMB2Dialect.SMB_2_0_2 },
+            true, false, false, 1024 * 1024, 0);
+
+    public static final TransportProfile DEFAULT = COMPAT;
+
+    public final String label;
+    private final SMB2Dialect[] dialects;
+    private final boolean signingEnabled, signingRequired, encryptData;
+    private final int bufferBytes;
+    /** SO_SNDBUF/SO_RCVBUF to request, 0 to leave the platform's auto-tuning alone. */
+    private final int socketBufferBytes;
+
+    TransportProfile(String label, SMB2Dialect[] dialects, boolean signingEnabled, boolean signingRequired,
+                     boolean encryptData, int bufferBytes, int socketBufferBytes) {
+        this.label = label;
+        this.dialects = dialects;
+        this.signingEnabled = signingEnabled;
+        this.signingRequired = signingRequired;
+        this.encryptData = encryptData;
+        this.bufferBytes = bufferBytes;
+        this.socketBufferBytes = socketBufferBytes;
+    }
+
+    /** Profile stored under its name; unknown or missing names give DEFAULT. */
+    public static TransportProfile fromName(String name) {
+        if (name != null) {
+            for (TransportProfile p : values()) {
+                if (p.name().equals(name)) return p;
+            }
+        }
+        return DEFAULT;
+    }
+
+    public SmbConfig toConfig(TransferTuning tuning) {
+        return SmbConfig.builder()
+                .withDialects(dialects)
+                .withMultiProtocolNegotiate(this == COMPAT)
+                .withSigningEnabled(signingEnabled)
+                .withSigningRequired(signingRequired)
+                .withEncryptData(encryptData)
+                .withReadBufferSize(bufferBytes)
+                .withWriteBufferSize(bufferBytes)
+                .withTransactBufferSize(bufferBytes)
+                .withTimeout(tuning.timeoutMs, TimeUnit.MILLISECONDS)
+                .withSoTimeout(tuning.timeoutMs, TimeUnit.MILLISECONDS)
+                .withSocketFactory(new TunedSocketFactory(socketBufferBytes))
+                .build();
+    }
+
+    @Override public String toString() {
+        return label;
+    }
+
+    /**
+     * Sets socket buffers before connect, since the TCP window scale is agreed
+     * in the handshake and a larger buffer set afterwards is not fully used.
+     */
+    private static final class TunedSocketFactory extends SocketFactory {
+        private final int bufferBytes;
+
+        TunedSocketFactory(int bufferBytes) {
+            this.bufferBytes = bufferBytes;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            if (bufferBytes > 0) {
+                socket.setSendBufferSize(bufferBytes);
+                socket.setReceiveBufferSize(bufferBytes);
+            }
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return connected(new InetSocketAddress(host, port), null);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return connected(new InetSocketAddress(host, port), new InetSocketAddress(localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return connected(new InetSocketAddress(host, port), null);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return connected(new InetSocketAddress(address, port), new InetSocketAddress(localAddress, localPort));
+        }
+
+        private Socket connected(InetSocketAddress remote, InetSocketAddress local) throws IOException {
+            Socket socket = createSocket();
+            try {
+                if (local != null) socket.bind(local);
+                socket.connect(remote);
+                return socket;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+    }
+}
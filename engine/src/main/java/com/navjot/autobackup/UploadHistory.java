@@ -0,0 +1,57 @@
+package com.navjot.autobackup;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * UploadHistory
+ * =============
+ * Keys of every file already on the target (see BackupItem.historyKey), kept
+ * as one comma-separated value in a KeyValueStore. It is the authority on
+ * which files are done: the journal and the index defer to it.
+ */
+public class UploadHistory implements UploadRunner.History {
+
+    public static final String KEY = "UploadedFilesHistory";
+
+    private final KeyValueStore store;
+    private Set<String> keys;
+
+    public UploadHistory(KeyValueStore store) {
+        this.store = store;
+    }
+
+    /** Snapshot of all keys. */
+    public synchronized Set<String> keys() {
+        return new HashSet<>(loaded());
+    }
+
+    public synchronized boolean contains(BackupItem item) {
+        return loaded().contains(item.historyKey());
+    }
+
+    /** Records a finished upload and persists the whole set. */
+    @Override
+    public synchronized void add(BackupItem item) {
+        if (!loaded().add(item.historyKey())) return;
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            if (sb.length() > 0) sb.append(",");
+            sb.append(key);
+        }
+        store.putString(KEY, sb.toString());
+    }
+
+    private Set<String> loaded() {
+        if (keys == null) {
+            keys = new HashSet<>();
+            String history = store.getString(KEY, "");
+            if (history != null && !history.isEmpty()) {
+                for (String key : history.split(",")) {
+                    if (!key.trim().isEmpty()) keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,457 @@
+package com.navjot.autobackup;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UploadRunner
+ * ============
+ * Uploads a planned set of files to a BackupTransport: error-classified
+ * retries with a per-target circuit breaker, range mode for large files,
+ * encryption and verification, byte budget, journal transitions and link
+ * tuning. Free of Android types so the same loop runs against the SMB client
+ * on the device and a simulator in tests.
+ */
+public class UploadRunner {
+
+    private static final String TAG = "UploadRunner";
+
+    /** Files at least this big are uploaded as parallel ranges. */
+    public static final long LARGE_FILE_THRESHOLD = 256L * 1024 * 1024;
+
+    /** Opens local file content. */
+    public interface Source {
+        /** @return content stream, or null if the file cannot be opened. */
+        InputStream open(BackupItem item) throws IOException;
+
+        /** @return random-access content, or null if the file cannot be read at offsets. */
+        SeekableSource openSeekable(BackupItem item) throws IOException;
+
+        /** @return the file's modification time now, or 0 if it cannot be read. */
+        long lastModified(BackupItem item) throws IOException;
+    }
+
+    /** Receives files that are safely on the target. Called from upload threads. */
+    public interface History {
+        void add(BackupItem item);
+    }
+
+    /** Per-file verification and encryption settings. */
+    public interface FilePolicy {
+        UploadVerifier.Level verifyLevel(BackupItem item);
+
+        /**
+         * @param fileId id to seal the file under: random per upload, or the one
+         *               recorded in the journal when range uploads resume.
+         * @return encryptor for a fresh attempt, or null to upload the file as is.
+         */
+        BackupCrypto.FileEncryptor encryptorFor(BackupItem item, byte[] fileId)
+                throws IOException, GeneralSecurityException;
+    }
+
+    /** Picks transfer tuning before the run and refines it from measured throughput. */
+    public interface Tuner {
+        TransferTuning resolve(BackupTransport transport);
+        TransferTuning refine(long bytes, long elapsedMs);
+        void save();
+    }
+
+    /** Progress callbacks, invoked on upload threads. */
+    public interface Listener {
+        void onFileStarted(BackupItem item);
+        /** Source bytes read for the upload; counted again when an attempt is retried. */
+        void onBytes(BackupItem item, long bytes);
+        /** An attempt failed; error is null if the transport just reported failure. */
+        void onAttemptFailed(BackupItem item, int attempt, Exception error);
+        void onFileFinished(BackupItem item, boolean success);
+    }
+
+    /** Time source for pacing, replaceable by a virtual clock in tests. */
+    public interface Clock {
+        long now();
+        void sleep(long ms) throws InterruptedException;
+
+        Clock SYSTEM = new Clock() {
+            @Override public long now() { return System.currentTimeMillis(); }
+            @Override public void sleep(long ms) throws InterruptedException { Thread.sleep(ms); }
+        };
+    }
+
+    public static class Result {
+        public final int uploaded, failed, deferred;
+        public final long bytes;
+        /** Why the run stopped before its last file, or null if it did not. */
+        public final String abortReason;
+
+        Result(int uploaded, int failed, int deferred, long bytes, String abortReason) {
+            this.uploaded = uploaded;
+            this.failed = failed;
+            this.deferred = deferred;
+            this.bytes = bytes;
+            this.abortReason = abortReason;
+        }
+
+        @Override public String toString() {
+            return uploaded + " uploaded, " + failed + " failed, " + deferred + " deferred, "
+                    + bytes + " bytes" + (abortReason != null ? ", stopped: " + abortReason : "");
+        }
+    }
+
+    /** How one file ended; deferred files get no failure record and are retried next run. */
+    private enum Outcome { UPLOADED, FAILED, DEFERRED }
+
+    private static final FilePolicy SIZE_CHECK_ONLY = new FilePolicy() {
+        @Override public UploadVerifier.Level verifyLevel(BackupItem item) { return UploadVerifier.Level.SIZE; }
+        @Override public BackupCrypto.FileEncryptor encryptorFor(BackupItem item, byte[] fileId) { return null; }
+    };
+
+    private final BackupTransport transport;
+    private final Source source;
+    private final BackupJournal journal;
+    private final History history;
+    private FilePolicy policy = SIZE_CHECK_ONLY;
+    private Tuner tuner;
+    private Listener listener;
+    private Clock clock = Clock.SYSTEM;
+    private Executor executor;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private CircuitBreaker breaker = new CircuitBreaker(CircuitBreaker.FAILURE_THRESHOLD);
+    private final Object probeLock = new Object();
+    private volatile TransferTuning tuning = TransferTuning.DEFAULT;
+    private volatile boolean cancelled = false;
+    private volatile String abortReason;
+
+    public UploadRunner(BackupTransport transport, Source source, BackupJournal journal, History history) {
+        this.transport = transport;
+        this.source = source;
+        this.journal = journal;
+        this.history = history;
+    }
+
+    public void setPolicy(FilePolicy policy) { this.policy = policy; }
+
+    public void setTuner(Tuner tuner) { this.tuner = tuner; }
+
+    public void setListener(Listener listener) { this.listener = listener; }
+
+    public void setClock(Clock clock) { this.clock = clock; }
+
+    /** Threads for the upload workers; defaults to the AppExecutors io pool. */
+    public void setExecutor(Executor executor) { this.executor = executor; }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) { this.retryPolicy = retryPolicy; }
+
+    /** Breaker of the target, usually CircuitBreaker.forTarget so it outlives the run. */
+    public void setCircuitBreaker(CircuitBreaker breaker) { this.breaker = breaker; }
+
+    /**
+     * Stops handing out files. Uploads in flight finish their attempt; files not
+     * yet started get no journal record, so a resumed run picks them up.
+     */
+    public void cancel() { cancelled = true; }
+
+    /**
+     * Uploads files with the concurrency the budget allows. A file only starts
+     * if its size fits in what is left of the byte budget once the files in
+     * flight are counted; the others, including any larger than the whole
+     * budget, are left for a later run while smaller ones may still fit.
+     * The journal must already hold the run; it is not finished here.
+     */
+    public Result run(List<BackupItem> files, RunBudget budget) {
+        final AtomicInteger successCount = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        final AtomicInteger deferred = new AtomicInteger();
+        final AtomicLong bytesSent = new AtomicLong();
+        // Bytes of files uploaded or in flight, charged before they start
+        final AtomicLong reserved = new AtomicLong();
+
+        applyTuning(tuner != null ? tuner.resolve(transport) : TransferTuning.forLink(transport.probeLink()));
+        final long runStart = clock.now();
+
+        int concurrency = Math.max(1, Math.min(budget.uploadConcurrency, tuning.concurrency));
+        // A fixed number of workers pull files in order, so no thread is created per run
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            int i;
+            while (!cancelled && (i = next.getAndIncrement()) < files.size()) {
+                BackupItem file = files.get(i);
+                long charge = Math.max(0, file.size);
+                if (!reserve(reserved, charge, budget.byteBudget)) {
+                    deferred.incrementAndGet();
+                    continue;
+                }
+                if (!awaitTarget()) {
+                    reserved.addAndGet(-charge);
+                    deferred.incrementAndGet();
+                    continue;
+                }
+                int streams = Math.max(1, Math.min(budget.largeFileStreams, tuning.writeWindow));
+                Outcome outcome = uploadWithRetries(file, policy.verifyLevel(file), streams);
+                if (outcome != Outcome.UPLOADED) reserved.addAndGet(-charge);
+                if (outcome == Outcome.UPLOADED) {
+                    successCount.incrementAndGet();
+                    long sent = bytesSent.addAndGet(Math.max(0, file.size));
+                    if (tuner != null) applyTuning(tuner.refine(sent, clock.now() - runStart));
+                    history.add(file);
+                    journal.markDone(file);
+                } else if (outcome == Outcome.FAILED) {
+                    failedCount.incrementAndGet();
+                    journal.markFailed(file);
+                } else {
+                    deferred.incrementAndGet();
+                    continue;
+                }
+                if (listener != null) listener.onFileFinished(file, outcome == Outcome.UPLOADED);
+            }
+        };
+        Executor pool = executor != null ? executor : AppExecutors.get().io();
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(concurrency, Math.max(1, files.size()))];
+        for (int w = 0; w < workers.length; w++) workers[w] = CompletableFuture.runAsync(worker, pool);
+        CompletableFuture.allOf(workers).join();
+        if (abortReason != null) {
+            // Files no worker reached are left for the next run as well
+            deferred.addAndGet(files.size() - Math.min(next.get(), files.size()));
+        }
+        if (tuner != null) {
+            tuner.refine(bytesSent.get(), clock.now() - runStart);
+            tuner.save();
+        }
+        return new Result(successCount.get(), failedCount.get(), deferred.get(), bytesSent.get(), abortReason);
+    }
+
+    /**
+     * Charges a file against the byte budget if it fits in what is left.
+     * A file of unknown size is charged nothing but needs budget left over.
+     */
+    private static boolean reserve(AtomicLong reserved, long bytes, long budget) {
+        while (true) {
+            long current = reserved.get();
+            if (current >= budget || bytes > budget - current) return false;
+            if (reserved.compareAndSet(current, current + bytes)) return true;
+        }
+    }
+
+    /** Ends the run early; files not yet finished stay unrecorded for a later run. */
+    private synchronized void abort(String reason) {
+        if (abortReason == null) abortReason = reason;
+        cancelled = true;
+    }
+
+    /**
+     * Holds an upload until the target's circuit lets it through. While open,
+     * one worker re-probes the target with growing delays and the others wait
+     * behind it; while half open, one worker runs the trial and the others wait
+     * for its outcome. @return whether this upload may go ahead.
+     */
+    private boolean awaitTarget() {
+        while (!cancelled) {
+            if (breaker.tryAcquire()) return true;
+            if (breaker.state() == CircuitBreaker.State.HALF_OPEN) {
+                try {
+                    breaker.awaitTrial();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort("interrupted");
+                    return false;
+                }
+            } else if (!probeTarget()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-probes an open target until it answers. Gives up, ending the run,
+     * after the policy's longest pause. @return whether it answered.
+     */
+    private boolean probeTarget() {
+        synchronized (probeLock) {
+            long pauseStart = clock.now();
+            int probe = 0;
+            while (!breaker.allowsRequests()) {
+                if (cancelled) return false;
+                long delay = retryPolicy.probeDelayMs(++probe);
+                if (clock.now() + delay - pauseStart > retryPolicy.maxPauseMs()) {
+                    abort("target unreachable for " + (clock.now() - pauseStart) / 1000 + " s after "
+                            + (probe - 1) + " probes");
+                    return false;
+                }
+                try {
+                    clock.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort("interrupted");
+                    return false;
+                }
+                breaker.onProbe(transport.isReachable());
+            }
+            return !cancelled;
+        }
+    }
+
+    private void applyTuning(TransferTuning t) {
+        tuning = t;
+        transport.setTuning(t);
+    }
+
+    /**
+     * Uploads one file. Failures are classified: transient ones are retried with
+     * backoff and feed the circuit breaker, file errors get one more attempt,
+     * and errors no file can get past (credentials, share, space) end the run.
+     */
+    private Outcome uploadWithRetries(BackupItem file, UploadVerifier.Level level, int largeFileStreams) {
+        journal.markStarted(file);
+        if (listener != null) listener.onFileStarted(file);
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            TransferError.Kind kind;
+            try {
+                if (uploadOnce(file, level, largeFileStreams)) {
+                    breaker.onSuccess();
+                    return Outcome.UPLOADED;
+                }
+                // Written, but the remote copy failed verification
+                kind = TransferError.Kind.FILE;
+                if (listener != null) listener.onAttemptFailed(file, attempt, null);
+            } catch (Exception e) {
+                kind = TransferError.classify(e);
+                if (listener != null) listener.onAttemptFailed(file, attempt, e);
+            }
+            // Only a transient failure says the link is still down
+            if (kind != TransferError.Kind.TRANSIENT) breaker.onInconclusive();
+            if (kind.endsRun) {
+                abort(kind + " on " + file.name);
+                return Outcome.DEFERRED;
+            }
+            if (kind == TransferError.Kind.TRANSIENT) breaker.onTransientFailure();
+            if (attempt >= retryPolicy.maxAttempts(kind, tuning)) {
+                // Out of attempts because the target went away: not the file's fault
+                return kind == TransferError.Kind.TRANSIENT && !breaker.allowsRequests()
+                        ? Outcome.DEFERRED : Outcome.FAILED;
+            }
+            if (breaker.allowsRequests()) {
+                try {
+                    clock.sleep(retryPolicy.backoffMs(attempt, tuning.retryBackoffMs));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Outcome.FAILED;
+                }
+            }
+            // The circuit may have opened, or gone half open, during the backoff
+            if (!awaitTarget()) return Outcome.DEFERRED;
+        }
+    }
+
+    /**
+     * One upload attempt: range mode for large seekable files, a plain stream otherwise.
+     * Files the policy encrypts are sealed on the fly and get the BackupCrypto suffix.
+     * A stream gets a new file id per attempt; a range upload keeps the id its
+     * recorded ranges were sealed with, and a new id starts it over. So does a
+     * file changed since it was listed, e.g. between a crash and the resume.
+     */
+    private boolean uploadOnce(BackupItem file, UploadVerifier.Level level, int largeFileStreams)
+            throws IOException, GeneralSecurityException {
+        if (file.size >= LARGE_FILE_THRESHOLD) {
+            try (SeekableSource seekable = counting(file, source.openSeekable(file))) {
+                if (seekable != null) {
+                    byte[] recorded = journal.fileId(file);
+                    if (changedSinceListed(file, seekable)) {
+                        // Recorded ranges hold other content, and their nonces must not seal new plaintext
+                        EngineLog.w(TAG, file.name + " changed since it was listed; starting its ranges over");
+                        journal.setFileId(file, null);
+                        recorded = null;
+                        // Sizes, offsets and the encryptor all come from the listed size
+                        if (seekable.size() != file.size) {
+                            throw new TransferError(TransferError.Kind.FILE, file.name + " has "
+                                    + seekable.size() + " bytes, listed with " + file.size);
+                        }
+                    }
+                    BackupCrypto.FileEncryptor encryptor = policy.encryptorFor(file,
+                            recorded != null ? recorded : BackupCrypto.newFileId());
+                    if (encryptor == null ? recorded != null : recorded == null) {
+                        journal.setFileId(file, encryptor != null ? encryptor.fileId() : null);
+                    }
+                    boolean verified = transport.uploadRanges(remoteName(file, encryptor), seekable,
+                            largeFileStreams, new BackupTransport.RangeCheckpoint() {
+                                @Override public boolean isRangeDone(int range) {
+                                    return journal.isRangeDone(file, range);
+                                }
+                                @Override public void onRangeDone(int range) {
+                                    journal.markRangeDone(file, range);
+                                }
+                            },
+                            verifierFor(file, level, encryptor), encryptor);
+                    // Every range is checkpointed by now; without dropping them a retry would rewrite nothing
+                    if (!verified) journal.setFileId(file, null);
+                    return verified;
+                }
+            }
+        }
+        BackupCrypto.FileEncryptor encryptor = policy.encryptorFor(file, BackupCrypto.newFileId());
+        try (InputStream is = counting(file, source.open(file))) {
+            if (is == null) throw new IOException("Cannot open file: " + file.name);
+            return transport.upload(remoteName(file, encryptor),
+                    encryptor != null ? BackupCrypto.encryptingStream(is, encryptor) : is,
+                    verifierFor(file, level, encryptor));
+        }
+    }
+
+    private boolean changedSinceListed(BackupItem file, SeekableSource seekable) throws IOException {
+        long modified = source.lastModified(file);
+        return seekable.size() != file.size || (modified != 0 && modified != file.lastModified);
+    }
+
+    private static String remoteName(BackupItem file, BackupCrypto.FileEncryptor encryptor) {
+        return encryptor != null ? file.remotePath() + BackupCrypto.FILE_SUFFIX : file.remotePath();
+    }
+
+    private static UploadVerifier verifierFor(BackupItem file, UploadVerifier.Level level,
+                                              BackupCrypto.FileEncryptor encryptor) {
+        long expectedSize = encryptor != null ? encryptor.encryptedLength() : file.size > 0 ? file.size : -1;
+        return new UploadVerifier(level, expectedSize);
+    }
+
+    private InputStream counting(BackupItem file, InputStream in) {
+        if (in == null || listener == null) return in;
+        return new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) listener.onBytes(file, 1);
+                return b;
+            }
+            @Override public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n > 0) listener.onBytes(file, n);
+                return n;
+            }
+        };
+    }
+
+    /** Counts at most the file's size, so the read-back of verifyRanges is not reported as progress. */
+    private SeekableSource counting(BackupItem file, SeekableSource src) {
+        if (src == null || listener == null) return src;
+        AtomicLong uncounted = new AtomicLong(file.size);
+        return new SeekableSource() {
+            @Override public long size() throws IOException { return src.size(); }
+            @Override public int read(ByteBuffer dst, long position) throws IOException {
+                int n = src.read(dst, position);
+                if (n > 0) {
+                    long left = uncounted.getAndAdd(-n);
+                    if (left > 0) listener.onBytes(file, (int) Math.min(n, left));
+                }
+                return n;
+            }
+            @Override public void close() throws IOException { src.close(); }
+        };
+    }
+}
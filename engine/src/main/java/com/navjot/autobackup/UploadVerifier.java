@@ -0,0 +1,269 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * UploadVerifier
+ * ==============
+ * Checks that an uploaded file is complete on the share before it may enter
+ * upload history. For streamed uploads the hashes needed for read-back are
+ * computed while the bytes pass through, so the source is never read twice.
+ *
+ * Levels:
+ *  - SIZE:    end-of-file of the still-open remote handle equals bytes sent (one round trip)
+ *  - SAMPLED: SIZE plus a read-back of a few random ranges and the tail
+ *  - FULL:    SIZE plus a read-back of the whole file compared by SHA-256
+ *
+ * Range uploads write into a preallocated file, so there the remote size
+ * proves nothing; verifyRanges reads every range back instead.
+ */
+public class UploadVerifier {
+
+    public enum Level { NONE, SIZE, SAMPLED, FULL }
+
+    /** The still-open remote file, as seen through the transport that wrote it. */
+    public interface RemoteFile {
+        long size() throws IOException;
+        int read(byte[] buf, long fileOffset, int off, int len) throws IOException;
+    }
+
+    private static final int SAMPLE_COUNT = 4;
+    private static final int SAMPLE_LENGTH = 64 * 1024;
+    private static final int READ_BUFFER = 64 * 1024;
+    /** Unit compared per range read-back of unencrypted files. */
+    private static final int RANGE_WINDOW = 64 * 1024;
+
+    private final Level level;
+    private final long expectedSize;
+    private final long[] sampleOffsets;
+    private final MessageDigest[] sampleDigests;
+    private final MessageDigest fullDigest;
+    private long position = 0;
+    private String failure;
+
+    /**
+     * @param expectedSize local file size if known, or -1. SAMPLED needs it to
+     *                     place ranges up front and falls back to SIZE without it.
+     */
+    public UploadVerifier(Level level, long expectedSize) {
+        this.expectedSize = expectedSize;
+        if (level == Level.SAMPLED && expectedSize < 0) level = Level.SIZE;
+        if (level == Level.SAMPLED && expectedSize <= (long) SAMPLE_COUNT * SAMPLE_LENGTH) level = Level.FULL;
+        this.level = level;
+        this.sampleOffsets = level == Level.SAMPLED ? pickSampleOffsets(expectedSize) : new long[0];
+        this.sampleDigests = new MessageDigest[sampleOffsets.length];
+        for (int i = 0; i < sampleDigests.length; i++) sampleDigests[i] = sha256();
+        this.fullDigest = level == Level.FULL ? sha256() : null;
+    }
+
+    public Level getLevel() { return level; }
+
+    /** Reason the last verify() failed, for logging. */
+    public String getFailure() { return failure; }
+
+    /** Feeds bytes in upload order; call for every chunk written to the share. */
+    public void observe(byte[] buf, int off, int len) {
+        if (fullDigest != null) fullDigest.update(buf, off, len);
+        for (int i = 0; i < sampleOffsets.length; i++) {
+            long start = Math.max(position, sampleOffsets[i]);
+            long end = Math.min(position + len, sampleOffsets[i] + SAMPLE_LENGTH);
+            if (start < end) {
+                sampleDigests[i].update(buf, off + (int) (start - position), (int) (end - start));
+            }
+        }
+        position += len;
+    }
+
+    /**
+     * Feeds a random-access source whose bytes were uploaded out of order
+     * (range uploads). Reads only what the level needs: nothing for SIZE,
+     * the sample ranges for SAMPLED, the whole file for FULL.
+     */
+    public void observeSource(SeekableSource source) throws IOException {
+        long size = source.size();
+        if (fullDigest != null) readSource(source, 0, size, fullDigest);
+        for (int i = 0; i < sampleOffsets.length; i++) {
+            readSource(source, sampleOffsets[i], SAMPLE_LENGTH, sampleDigests[i]);
+        }
+        position = size;
+    }
+
+    /**
+     * Records the number of bytes sent when the uploaded bytes cannot be hashed
+     * here (ranges encrypted on the fly); only the SIZE check is meaningful then.
+     */
+    public void observeSentLength(long bytes) {
+        position = bytes;
+    }
+
+    /** Verifies the remote file through the handle the upload used. */
+    public boolean verify(RemoteFile remoteFile) throws IOException {
+        if (level == Level.NONE) return true;
+        long remoteSize = remoteFile.size();
+        if (remoteSize != position) {
+            return fail("remote size " + remoteSize + " != " + position + " bytes sent");
+        }
+        if (expectedSize >= 0 && position != expectedSize) {
+            return fail("sent " + position + " bytes but local file has " + expectedSize);
+        }
+        if (level == Level.SAMPLED) {
+            for (int i = 0; i < sampleOffsets.length; i++) {
+                byte[] remote = readDigest(remoteFile, sampleOffsets[i], SAMPLE_LENGTH);
+                if (!Arrays.equals(remote, sampleDigests[i].digest())) {
+                    return fail("range at " + sampleOffsets[i] + " differs");
+                }
+            }
+        } else if (level == Level.FULL) {
+            byte[] remote = readDigest(remoteFile, 0, remoteSize);
+            if (!Arrays.equals(remote, fullDigest.digest())) {
+                return fail("content hash differs");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verifies a range upload against its source. Each range is read back in
+     * windows: its last one for SIZE (ranges are written front to back, so a
+     * torn range lacks its tail and a missing one is all zeros), the last and
+     * a random one for SAMPLED, all of them for FULL. Encrypted windows are
+     * compared with the source sealed again by the same encryptor, which gives
+     * identical bytes, so encryption does not weaken the level.
+     * @param rangeSize plaintext range size; a multiple of the encryptor's chunk size.
+     */
+    public boolean verifyRanges(RemoteFile remoteFile, SeekableSource source, long rangeSize,
+                                BackupCrypto.FileEncryptor encryptor) throws IOException {
+        if (level == Level.NONE) return true;
+        long size = source.size();
+        long expected = encryptor != null ? encryptor.encryptedLength() : size;
+        position = expected;
+        long remoteSize = remoteFile.size();
+        if (remoteSize != expected) {
+            return fail("remote size " + remoteSize + " != " + expected + " bytes expected");
+        }
+        if (expectedSize >= 0 && expected != expectedSize) {
+            return fail("expected " + expected + " bytes but local file has " + expectedSize);
+        }
+        if (encryptor != null) {
+            byte[] header = encryptor.header();
+            if (!Arrays.equals(header, readFully(remoteFile, 0, header.length))) {
+                return fail("header differs");
+            }
+        }
+        int window = encryptor != null ? encryptor.chunkSize() : RANGE_WINDOW;
+        byte[] plain = new byte[window];
+        byte[] sealed = encryptor != null ? new byte[window + BackupCrypto.TAG_SIZE] : null;
+        Random rnd = new Random();
+        for (long start = 0; start < size; start += rangeSize) {
+            long windows = (Math.min(start + rangeSize, size) - start + window - 1) / window;
+            long first = level == Level.FULL ? 0 : windows - 1;
+            for (long w = first; w < windows; w++) {
+                if (!windowMatches(remoteFile, source, size, start + w * window, plain, sealed, encryptor)) {
+                    return fail("range at " + start + " differs at " + (start + w * window));
+                }
+            }
+            if (level == Level.SAMPLED && windows > 1) {
+                long w = (long) (rnd.nextDouble() * (windows - 1));
+                if (!windowMatches(remoteFile, source, size, start + w * window, plain, sealed, encryptor)) {
+                    return fail("range at " + start + " differs at " + (start + w * window));
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean windowMatches(RemoteFile remoteFile, SeekableSource source, long size, long offset,
+                                         byte[] plain, byte[] sealed, BackupCrypto.FileEncryptor encryptor)
+            throws IOException {
+        int len = (int) Math.min(plain.length, size - offset);
+        ByteBuffer bb = ByteBuffer.wrap(plain, 0, len);
+        while (bb.hasRemaining()) {
+            if (source.read(bb, offset + bb.position()) <= 0) throw new IOException("Source ended at " + offset);
+        }
+        if (encryptor == null) {
+            return Arrays.equals(Arrays.copyOf(plain, len), readFully(remoteFile, offset, len));
+        }
+        long index = offset / encryptor.chunkSize();
+        int sealedLen;
+        try {
+            sealedLen = encryptor.encryptChunkAgain(index, plain, 0, len, sealed, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        return Arrays.equals(Arrays.copyOf(sealed, sealedLen),
+                readFully(remoteFile, encryptor.chunkOffset(index), sealedLen));
+    }
+
+    /** Reads len bytes, or fewer if the remote file ends first. */
+    private static byte[] readFully(RemoteFile remoteFile, long offset, int len) throws IOException {
+        byte[] buf = new byte[len];
+        int done = 0;
+        while (done < len) {
+            int n = remoteFile.read(buf, offset + done, done, len - done);
+            if (n <= 0) return Arrays.copyOf(buf, done);
+            done += n;
+        }
+        return buf;
+    }
+
+    private boolean fail(String reason) {
+        failure = reason;
+        return false;
+    }
+
+    /** Random, non-overlapping sample ranges; the last one always covers the tail. */
+    private static long[] pickSampleOffsets(long size) {
+        long[] offsets = new long[SAMPLE_COUNT];
+        long slot = size / SAMPLE_COUNT;
+        Random rnd = new Random();
+        for (int i = 0; i < SAMPLE_COUNT - 1; i++) {
+            long slack = slot - SAMPLE_LENGTH;
+            offsets[i] = i * slot + (slack > 0 ? (long) (rnd.nextDouble() * slack) : 0);
+        }
+        offsets[SAMPLE_COUNT - 1] = size - SAMPLE_LENGTH;
+        return offsets;
+    }
+
+    private static void readSource(SeekableSource source, long offset, long length, MessageDigest md)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER);
+        long done = 0;
+        while (done < length) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), length - done));
+            int n = source.read(buf, offset + done);
+            if (n <= 0) break;
+            md.update(buf.array(), 0, n);
+            done += n;
+        }
+    }
+
+    private static byte[] readDigest(RemoteFile remoteFile, long offset, long length)
+            throws IOException {
+        MessageDigest md = sha256();
+        byte[] buf = new byte[READ_BUFFER];
+        long done = 0;
+        while (done < length) {
+            int want = (int) Math.min(buf.length, length - done);
+            int n = remoteFile.read(buf, offset + done, 0, want);
+            if (n <= 0) break;
+            md.update(buf, 0, n);
+            done += n;
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
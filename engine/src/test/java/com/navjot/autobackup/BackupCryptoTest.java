@@ -0,0 +1,114 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips, tamper detection and chunk independence for BackupCrypto.
+ */
+public class BackupCryptoTest {
+
+    private static final char[] PASS = "correct horse battery staple".toCharArray();
+
+    private static final BackupCrypto.MasterKey KEY;
+    static {
+        try {
+            KEY = BackupCrypto.deriveKey(PASS, BackupCrypto.newSalt(), 1000);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] random(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] encrypt(byte[] plain, BackupCrypto.Algorithm alg) throws Exception {
+        return encrypt(plain, alg, BackupCrypto.newFileId());
+    }
+
+    private static byte[] encrypt(byte[] plain, BackupCrypto.Algorithm alg, byte[] fileId) throws Exception {
+        BackupCrypto.FileEncryptor enc = BackupCrypto.newFile(KEY, alg, 4096, plain.length, fileId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = BackupCrypto.encryptingStream(new ByteArrayInputStream(plain), enc)) {
+            byte[] buf = new byte[1000];
+            int n;
+            while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        }
+        assertEquals(enc.encryptedLength(), out.size());
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] encrypted) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BackupCrypto.decrypt(new ByteArrayInputStream(encrypted), out, PASS);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void roundTrip_allSizesBothAlgorithms() throws Exception {
+        for (BackupCrypto.Algorithm alg : BackupCrypto.Algorithm.values()) {
+            for (int size : new int[] { 0, 1, 4095, 4096, 4097, 100_003 }) {
+                byte[] plain = random(size);
+                assertArrayEquals(plain, decrypt(encrypt(plain, alg)));
+            }
+        }
+    }
+
+    @Test
+    public void tamperedOrTruncated_fails() throws Exception {
+        byte[] enc = encrypt(random(10_000), BackupCrypto.Algorithm.AES_GCM);
+        byte[] flipped = enc.clone();
+        flipped[BackupCrypto.HEADER_SIZE + 5000] ^= 1;
+        byte[] truncated = new byte[enc.length - 4112];
+        System.arraycopy(enc, 0, truncated, 0, truncated.length);
+        for (byte[] bad : new byte[][] { flipped, truncated }) {
+            try {
+                decrypt(bad);
+                fail("corrupt file decrypted");
+            } catch (IOException | GeneralSecurityException expected) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void chunksEncryptedIndependently_matchStream() throws Exception {
+        byte[] plain = random(3 * 4096 + 10);
+        byte[] fileId = BackupCrypto.newFileId();
+        byte[] streamed = encrypt(plain, BackupCrypto.Algorithm.AES_GCM, fileId);
+        BackupCrypto.FileEncryptor enc = BackupCrypto.newFile(KEY, BackupCrypto.Algorithm.AES_GCM, 4096,
+                plain.length, fileId);
+        byte[] out = new byte[4096 + BackupCrypto.TAG_SIZE];
+        // Last chunk first, as a range upload might
+        for (int i = 3; i >= 0; i--) {
+            int len = Math.min(4096, plain.length - i * 4096);
+            int n = enc.encryptChunk(i, plain, i * 4096, len, out, 0);
+            for (int j = 0; j < n; j++) {
+                assertEquals(streamed[(int) enc.chunkOffset(i) + j], out[j]);
+            }
+        }
+    }
+
+    @Test
+    public void sameFileUploadedTwice_isSealedUnderDifferentKeys() throws Exception {
+        byte[] plain = random(4096);
+        byte[] first = encrypt(plain, BackupCrypto.Algorithm.AES_GCM);
+        byte[] second = encrypt(plain, BackupCrypto.Algorithm.AES_GCM);
+        int body = BackupCrypto.HEADER_SIZE;
+        assertFalse(Arrays.equals(Arrays.copyOfRange(first, body, first.length),
+                Arrays.copyOfRange(second, body, second.length)));
+        assertArrayEquals(plain, decrypt(second));
+    }
+}
@@ -0,0 +1,61 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Folding of backup events into BackupProgress, and behaviour when producers
+ * outrun the sampler.
+ */
+public class BackupEventStreamTest {
+
+    @Test
+    public void eventsFoldIntoOneProgressSnapshot() {
+        BackupEventStream events = new BackupEventStream();
+        events.phase(BackupProgress.Phase.ENUMERATING, "10.0.0.5");
+        events.planned(2, 300, 9_000);
+        events.phase(BackupProgress.Phase.UPLOADING, "10.0.0.5");
+        events.fileStarted("a.jpg");
+        events.bytes("a.jpg", 50);
+        events.bytes("a.jpg", 50);
+        events.fileFinished("a.jpg", 100, true);
+        events.fileStarted("b.mp4");
+        events.bytes("b.mp4", 120);
+        events.retry("b.mp4", 1);
+        events.bytes("b.mp4", 40);
+
+        BackupProgress p = events.snapshot();
+
+        assertEquals(BackupProgress.Phase.UPLOADING, p.phase);
+        assertEquals(1, p.filesDone);
+        assertEquals(1, p.retries);
+        assertEquals("b.mp4", p.currentFile);
+        // The retried attempt restarts the in-flight count of b.mp4
+        assertEquals(140, p.bytesSent());
+        assertEquals(9_000, p.estimateMs);
+        assertEquals(0, p.droppedEvents);
+        assertTrue(p.summary(), p.summary().startsWith("1/2 files"));
+    }
+
+    @Test
+    public void producersLappingTheSampler_dropOldestAndCountThem() throws Exception {
+        BackupEventStream events = new BackupEventStream();
+        final int perThread = 20_000;
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) events.discoveryProgress(i, perThread);
+            });
+            producers[t].start();
+        }
+        for (Thread t : producers) t.join();
+
+        BackupProgress p = events.snapshot();
+
+        assertTrue(p.droppedEvents >= 4L * perThread - 8192);
+        assertEquals(perThread, p.probeTotal);
+        // Nothing left behind: a second snapshot folds no further events
+        assertEquals(p.droppedEvents, events.snapshot().droppedEvents);
+    }
+}
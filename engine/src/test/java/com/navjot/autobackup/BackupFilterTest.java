@@ -0,0 +1,58 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rule parsing and matching of BackupFilter: legacy extension lists, globs,
+ * MIME types, size and date limits, excluded folders and invalid rules.
+ */
+public class BackupFilterTest {
+
+    private static final long MB = 1L << 20;
+
+    @Test
+    public void legacyExtensionList_matchesSuffixIgnoringCase() {
+        BackupFilter filter = BackupFilter.compile(Arrays.asList("jpg", "PNG", ".docx", "tar.gz"));
+        assertTrue(filter.accepts("IMG_0001.JPG", "image/jpeg", MB, 1));
+        assertTrue(filter.accepts("scan.png", null, MB, 1));
+        assertTrue(filter.accepts("Report.Docx", null, MB, 1));
+        assertTrue(filter.accepts("logs.TAR.GZ", null, MB, 1));
+        assertFalse(filter.accepts("clip.mp4", "video/mp4", MB, 1));
+        assertFalse(filter.accepts("jpg", null, MB, 1));
+        assertTrue(BackupFilter.compile(Collections.<String>emptyList()).accepts("anything", null, 0, 0));
+    }
+
+    @Test
+    public void globsMimeAndLimits_combine() {
+        long day = LocalDate.parse("2024-01-31").atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        BackupFilter filter = BackupFilter.compile(Arrays.asList(
+                "IMG_*.jp?", "mime:video/", "min:1KB", "max:2GB", "after:2024-01-31"));
+        assertTrue(filter.accepts("img_20240201.jpg", "image/jpeg", MB, day));
+        assertTrue(filter.accepts("clip.mov", "video/quicktime", MB, day + 1));
+        assertFalse(filter.accepts("screenshot.jpg", "image/jpeg", MB, day));
+        assertFalse(filter.accepts("IMG_1.jpg", "image/jpeg", MB, day - 1));
+        assertFalse(filter.accepts("IMG_1.jpg", "image/jpeg", 100, day));
+        assertFalse(filter.accepts("movie.mkv", "video/x-matroska", 3L << 30, day));
+        assertTrue(BackupFilter.globMatches("*a*b?c*", "xxAyyBzCww"));
+        assertFalse(BackupFilter.globMatches("*.jpg", "photo.jpeg"));
+    }
+
+    @Test
+    public void excludedFolders_andInvalidRules() {
+        BackupFilter filter = BackupFilter.compile(Arrays.asList(
+                "exclude:.thumbnails", "exclude:/DCIM/Trash/", "min:lots", "after:yesterday", "jpg"));
+        assertFalse(filter.descends("primary:DCIM/.thumbnails", ".Thumbnails"));
+        assertFalse(filter.descends("primary:DCIM/Trash", "Trash"));
+        assertTrue(filter.descends("primary:Pictures/Trash", "Trash"));
+        assertTrue(filter.descends("primary:DCIM/OldTrash", "OldTrash"));
+        assertEquals(Arrays.asList("min:lots", "after:yesterday"), filter.getInvalidRules());
+        assertTrue(filter.accepts("a.jpg", null, MB, 1));
+    }
+}
@@ -0,0 +1,132 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recovery of an interrupted run from the journal alone.
+ */
+public class BackupJournalTest {
+
+    private static final BackupItem VIDEO = new BackupItem("tree", "DCIM", "tree/document/v", "VID.mp4",
+            100L << 20, 1_700_000_000_000L);
+
+    @Test
+    public void encryptedRangeUpload_resumesWithItsRecordedFileId() throws Exception {
+        File file = File.createTempFile("journal", ".log");
+        try {
+            List<BackupItem> items = Collections.singletonList(VIDEO);
+            BackupJournal journal = new BackupJournal(file);
+            journal.beginRun("10.0.0.2", "Backup", "phone", items);
+            byte[] id = BackupCrypto.newFileId();
+            journal.setFileId(VIDEO, id);
+            journal.markRangeDone(VIDEO, 0);
+            journal.markRangeDone(VIDEO, 1);
+
+            BackupJournal.PendingRun run = new BackupJournal(file).recover();
+            assertNotNull(run);
+            assertEquals("DCIM", run.remaining.get(0).relativeDir);
+            BackupJournal resumed = new BackupJournal(file);
+            resumed.resumeRun(run);
+            assertArrayEquals(id, resumed.fileId(VIDEO));
+            assertTrue(resumed.isRangeDone(VIDEO, 1));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void newFileId_dropsRangesSealedUnderTheOldOne() throws Exception {
+        File file = File.createTempFile("journal", ".log");
+        try {
+            BackupJournal journal = new BackupJournal(file);
+            journal.beginRun("10.0.0.2", "Backup", "phone", Collections.singletonList(VIDEO));
+            journal.setFileId(VIDEO, BackupCrypto.newFileId());
+            journal.markRangeDone(VIDEO, 0);
+            byte[] second = BackupCrypto.newFileId();
+            journal.setFileId(VIDEO, second);
+            assertFalse(journal.isRangeDone(VIDEO, 0));
+
+            BackupJournal resumed = new BackupJournal(file);
+            resumed.resumeRun(resumed.recover());
+            assertArrayEquals(second, resumed.fileId(VIDEO));
+            assertFalse(resumed.isRangeDone(VIDEO, 0));
+
+            // Switching encryption off drops the id and its ranges as well
+            resumed.markRangeDone(VIDEO, 2);
+            resumed.setFileId(VIDEO, null);
+            BackupJournal.PendingRun run = new BackupJournal(file).recover();
+            BackupJournal plain = new BackupJournal(file);
+            plain.resumeRun(run);
+            assertNull(plain.fileId(VIDEO));
+            assertFalse(plain.isRangeDone(VIDEO, 2));
+            assertFalse(Arrays.equals(second, BackupCrypto.newFileId()));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void journalsArePerTarget_andALegacyOneGoesToItsOwnTarget() throws Exception {
+        File dir = Files.createTempDirectory("journals").toFile();
+        try {
+            List<BackupItem> items = Collections.singletonList(VIDEO);
+            BackupJournal legacy = new BackupJournal(new File(dir, "backup_journal.log"));
+            legacy.beginRun("10.0.0.2", "Backup", "phone", items);
+            legacy.suspendRun();
+
+            // Another target does not take it over, but files it under its own target
+            assertNull(BackupJournal.forTarget(dir, "Media", "").recover());
+            assertFalse(new File(dir, "backup_journal.log").exists());
+            BackupJournal.PendingRun run = BackupJournal.forTarget(dir, "Backup", "phone").recover();
+            assertNotNull(run);
+            assertTrue(run.isFor("Backup", "phone"));
+
+            BackupJournal other = BackupJournal.forTarget(dir, "Media", "");
+            other.beginRun("10.0.0.3", "Media", "", items);
+            other.finishRun();
+            assertNotNull(BackupJournal.forTarget(dir, "Backup", "phone").recover());
+        } finally {
+            for (File f : dir.listFiles()) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+            //noinspection ResultOfMethodCallIgnored
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void legacyJournal_isDroppedWhenItsTargetHasANewerOne() throws Exception {
+        File dir = Files.createTempDirectory("journals").toFile();
+        try {
+            List<BackupItem> items = Collections.singletonList(VIDEO);
+            BackupJournal current = BackupJournal.forTarget(dir, "Backup", "phone");
+            current.beginRun("10.0.0.2", "Backup", "phone", items);
+            current.suspendRun();
+            BackupJournal legacy = new BackupJournal(new File(dir, "backup_journal.log"));
+            legacy.beginRun("10.0.0.9", "Backup", "phone", items);
+            legacy.suspendRun();
+
+            assertNull(BackupJournal.forTarget(dir, "Media", "").recover());
+            assertFalse(new File(dir, "backup_journal.log").exists());
+            assertEquals("10.0.0.2", BackupJournal.forTarget(dir, "Backup", "phone").recover().serverIp);
+        } finally {
+            for (File f : dir.listFiles()) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+            //noinspection ResultOfMethodCallIgnored
+            dir.delete();
+        }
+    }
+}
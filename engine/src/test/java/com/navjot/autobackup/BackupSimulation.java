@@ -0,0 +1,231 @@
+package com.navjot.autobackup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One deterministic backup scenario: a synthetic tree is enumerated with
+ * FolderScanner and uploaded by UploadRunner to a SimulatedSmbTarget, the
+ * same path FileBackupManager takes on the device. A scripted crash abandons
+ * the run mid-way and resumes it from the journal like a restarted process.
+ *
+ * Reports go to stdout and to build/reports/simulation/NAME.txt, or to the
+ * directory in the simulation.reportDir system property.
+ */
+class BackupSimulation {
+
+    private static final String TREE_URI = "content://sim.documents/tree/primary%3ADCIM";
+
+    private final String name;
+    private final SimClock clock = new SimClock();
+    private SyntheticDocumentTree tree;
+    private SimulatedSmbTarget target;
+    private long seed;
+    private RunBudget budget = new RunBudget(RunBudget.Mode.FULL, 1, 4, Long.MAX_VALUE, 0, "simulation");
+    private int crashAfterFiles = -1;
+
+    BackupSimulation(String name) {
+        this.name = name;
+    }
+
+    BackupSimulation tree(SyntheticDocumentTree tree) {
+        this.tree = tree;
+        return this;
+    }
+
+    /** Creates the target; configure faults on the returned object. */
+    SimulatedSmbTarget link(long seed, long rttMs, long bytesPerSec) {
+        this.seed = seed;
+        target = new SimulatedSmbTarget(clock, seed, rttMs, bytesPerSec);
+        return target;
+    }
+
+    BackupSimulation budget(RunBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    /** Kills the process once this many files have settled; the next run resumes from the journal. */
+    BackupSimulation crashAfterFiles(int files) {
+        this.crashAfterFiles = files;
+        return this;
+    }
+
+    Report run() throws IOException {
+        long wallStart = System.nanoTime();
+        final List<BackupItem> planned = new ArrayList<>();
+        new FolderScanner(tree).scan(Collections.singletonList(TREE_URI),
+                (treeUri, dir, documentId, fileName, mime, size, lastModified) -> {
+                    BackupItem item = new BackupItem(treeUri, dir, tree.documentUri(treeUri, documentId),
+                            fileName, size, lastModified);
+                    synchronized (planned) {
+                        planned.add(item);
+                    }
+                });
+        // Listing order depends on thread timing; the run order must not
+        Collections.sort(planned, (a, b) -> a.documentUri.compareTo(b.documentUri));
+        long enumerateMs = (System.nanoTime() - wallStart) / 1_000_000;
+
+        final Set<String> history = Collections.synchronizedSet(new HashSet<>());
+        File journalFile = File.createTempFile("sim-journal", ".log");
+        final Report report = new Report(name, planned.size(), enumerateMs);
+        try {
+            BackupJournal journal = new BackupJournal(journalFile);
+            journal.beginRun("sim", "Backup", "", planned);
+            UploadRunner runner = newRunner(journal, history, report);
+            if (crashAfterFiles >= 0) {
+                AtomicInteger settled = new AtomicInteger();
+                runner.setListener(listener(report, () -> {
+                    if (settled.incrementAndGet() >= crashAfterFiles) runner.cancel();
+                }));
+            }
+            report.add(runner.run(planned, budget));
+
+            if (crashAfterFiles >= 0) {
+                // The dead process never closes its journal: only synced records survive
+                report.crashedAtMs = clock.now();
+                BackupJournal.PendingRun pending = new BackupJournal(journalFile).recover();
+                List<BackupItem> remaining = new ArrayList<>();
+                if (pending != null) {
+                    for (BackupItem item : pending.remaining) {
+                        if (!history.contains(item.historyKey())) remaining.add(item);
+                    }
+                }
+                report.resumedFiles = remaining.size();
+                journal = new BackupJournal(journalFile);
+                if (pending != null) journal.resumeRun(pending);
+                report.add(newRunner(journal, history, report).run(remaining, budget));
+            }
+            journal.finishRun();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            journalFile.delete();
+        }
+        report.finish(clock.now(), target, (System.nanoTime() - wallStart) / 1_000_000);
+        report.historySize = history.size();
+        report.write();
+        return report;
+    }
+
+    private UploadRunner newRunner(BackupJournal journal, Set<String> history, Report report) {
+        UploadRunner runner = new UploadRunner(target, tree.source(), journal,
+                item -> history.add(item.historyKey()));
+        runner.setClock(clock);
+        runner.setRetryPolicy(new RetryPolicy(new Random(seed), RetryPolicy.DEFAULT_MAX_PAUSE_MS));
+        runner.setListener(listener(report, null));
+        return runner;
+    }
+
+    private static UploadRunner.Listener listener(Report report, Runnable onSettled) {
+        return new UploadRunner.Listener() {
+            @Override public void onFileStarted(BackupItem item) { }
+            @Override public void onBytes(BackupItem item, long bytes) { }
+            @Override public void onAttemptFailed(BackupItem item, int attempt, Exception error) {
+                report.failedAttempts.incrementAndGet();
+            }
+            @Override public void onFileFinished(BackupItem item, boolean success) {
+                if (onSettled != null) onSettled.run();
+            }
+        };
+    }
+
+    /** Outcome of a scenario in virtual time, plus the harness's own wall-clock cost. */
+    static class Report {
+        final String name;
+        final int plannedFiles;
+        final long enumerateWallMs;
+        final AtomicInteger failedAttempts = new AtomicInteger();
+        int uploaded, failed, deferred, resumedFiles = -1, historySize;
+        String abortReason;
+        long payloadBytes, wireBytes, virtualMs, wallMs, crashedAtMs = -1;
+        int duplicateUploads, connects;
+        List<SimulatedSmbTarget.Fault> faults = new ArrayList<>();
+
+        Report(String name, int plannedFiles, long enumerateWallMs) {
+            this.name = name;
+            this.plannedFiles = plannedFiles;
+            this.enumerateWallMs = enumerateWallMs;
+        }
+
+        void add(UploadRunner.Result result) {
+            uploaded += result.uploaded;
+            failed += result.failed;
+            deferred += result.deferred;
+            payloadBytes += result.bytes;
+            if (result.abortReason != null) abortReason = result.abortReason;
+        }
+
+        void finish(long virtualMs, SimulatedSmbTarget target, long wallMs) {
+            this.virtualMs = virtualMs;
+            this.wallMs = wallMs;
+            this.wireBytes = target.wireBytes();
+            this.duplicateUploads = target.duplicateCompletions();
+            this.connects = target.connects();
+            this.faults = target.faults();
+        }
+
+        /** Payload throughput in bytes per virtual second. */
+        long throughput() {
+            return virtualMs > 0 ? payloadBytes * 1000 / virtualMs : 0;
+        }
+
+        /** Longest time from a fault to the next byte written; -1 if one never recovered. */
+        long worstRecoveryMs() {
+            long worst = 0;
+            for (SimulatedSmbTarget.Fault f : faults) {
+                if (f.recoveryMs() < 0) return -1;
+                worst = Math.max(worst, f.recoveryMs());
+            }
+            return worst;
+        }
+
+        @Override public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Scenario: ").append(name).append('\n');
+            sb.append("Files: ").append(plannedFiles).append(" planned, ").append(uploaded).append(" uploaded, ")
+                    .append(failed).append(" failed, ").append(deferred).append(" deferred, ")
+                    .append(duplicateUploads).append(" uploaded twice\n");
+            if (abortReason != null) sb.append("Stopped: ").append(abortReason).append('\n');
+            if (crashedAtMs >= 0) {
+                sb.append("Crash: at ").append(crashedAtMs).append(" ms, ").append(resumedFiles)
+                        .append(" files resumed from journal\n");
+            }
+            sb.append("Bytes: ").append(payloadBytes >> 20).append(" MB payload, ")
+                    .append(wireBytes >> 20).append(" MB on the wire\n");
+            sb.append("Time: ").append(virtualMs).append(" ms simulated, ").append(wallMs)
+                    .append(" ms wall (enumeration ").append(enumerateWallMs).append(" ms)\n");
+            sb.append("Throughput: ").append(throughput() >> 10).append(" KB/s payload\n");
+            sb.append("Connects: ").append(connects).append(", failed attempts: ")
+                    .append(failedAttempts.get()).append('\n');
+            sb.append("Faults: ").append(faults.size()).append('\n');
+            for (SimulatedSmbTarget.Fault f : faults) {
+                sb.append("  ").append(f.onsetMs).append(" ms  ").append(f.cause).append(" -> ")
+                        .append(f.recoveryMs() >= 0 ? "recovered after " + f.recoveryMs() + " ms" : "never recovered")
+                        .append('\n');
+            }
+            return sb.toString();
+        }
+
+        void write() throws IOException {
+            String text = toString();
+            System.out.print(text);
+            File dir = new File(System.getProperty("simulation.reportDir", "build/reports/simulation"));
+            if (!dir.isDirectory() && !dir.mkdirs()) return;
+            try (Writer w = new OutputStreamWriter(
+                    new FileOutputStream(new File(dir, name + ".txt")), StandardCharsets.UTF_8)) {
+                w.write(text);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Backup runs at scale against the simulated SMB target. All time is virtual,
+ * so the numbers in the reports are what the link model predicts, not what
+ * this machine managed.
+ */
+public class BackupSimulationTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final long GB = 1024 * MB;
+
+    @Test
+    public void hundredThousandFiles_overGoodWifi_allUploadedOnce() throws Exception {
+        // 1 + 10 + 100 + 1000 directories with 91 files each
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(1, 3, 10, 91, 100 * 1024, 4 * MB);
+        BackupSimulation sim = new BackupSimulation("100k-files-good-wifi").tree(tree);
+        sim.link(1, 4, 40 * MB);
+
+        BackupSimulation.Report r = sim.run();
+
+        assertTrue(r.plannedFiles >= 100_000);
+        assertEquals(r.plannedFiles, r.uploaded);
+        assertEquals(0, r.duplicateUploads);
+        assertEquals(r.plannedFiles, r.historySize);
+        assertTrue("throughput " + r.throughput(), r.throughput() > 20 * MB);
+    }
+
+    @Test
+    public void sameNamesInSubfolders_eachKeepsItsOwnRemotePath() throws Exception {
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(7, 2, 3, 20, 10 * 1024, 100 * 1024)
+                .withCameraNames();
+        BackupSimulation sim = new BackupSimulation("camera-names").tree(tree);
+        sim.link(1, 4, 40 * MB);
+
+        BackupSimulation.Report r = sim.run();
+
+        assertEquals(r.plannedFiles, r.uploaded);
+        // One remote file per planned file: none overwrote another
+        assertEquals(0, r.duplicateUploads);
+        assertEquals(r.plannedFiles, r.historySize);
+    }
+
+    @Test
+    public void trickleBudget_neverOvershootByFilesInFlight() throws Exception {
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(8, 1, 4, 30, 1 * MB, 8 * MB)
+                .withRootFile("VID_BIG.mp4", 200 * MB);
+        BackupSimulation sim = new BackupSimulation("trickle-budget").tree(tree)
+                .budget(new RunBudget(RunBudget.Mode.TRICKLE, 2, 1, 100 * MB, 0, "battery"));
+        sim.link(1, 4, 40 * MB);
+
+        BackupSimulation.Report r = sim.run();
+
+        assertTrue("sent " + r.payloadBytes, r.payloadBytes <= 100 * MB);
+        assertTrue(r.uploaded > 0);
+        assertEquals(r.plannedFiles, r.uploaded + r.deferred);
+        // Fills up with smaller files once the next one no longer fits
+        assertTrue("sent " + r.payloadBytes, r.payloadBytes > 92 * MB);
+    }
+
+    @Test
+    public void linkDropAt37PercentOf4GbFile_resumesFromLastRange() throws Exception {
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(2, 0, 0, 0, 0, 0)
+                .withRootFile("VID_4GB.mp4", 4 * GB);
+        BackupSimulation sim = new BackupSimulation("4gb-drop-at-37pct").tree(tree);
+        sim.link(2, 4, 40 * MB).dropLinkAt("VID_4GB.mp4", 0.37, 20_000);
+
+        BackupSimulation.Report r = sim.run();
+
+        assertEquals(1, r.uploaded);
+        assertEquals(1, r.faults.size());
+        // Only the range that was in flight is sent twice
+        assertTrue("wire " + r.wireBytes, r.wireBytes <= 4 * GB + BackupTransport.RANGE_SIZE + 2 * MB);
+        assertTrue("recovery " + r.worstRecoveryMs(), r.worstRecoveryMs() >= 20_000);
+        assertTrue("recovery " + r.worstRecoveryMs(), r.worstRecoveryMs() < 25_000);
+    }
+
+    @Test
+    public void lossyLinkWithServerErrors_neverRecordsUnfinishedFiles() throws Exception {
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(3, 2, 6, 40, 50 * 1024, 2 * MB);
+        BackupSimulation sim = new BackupSimulation("lossy-fair-link").tree(tree);
+        sim.link(3, 30, 3 * MB).packetLoss(0.02).serverErrors(0.01).linkDown(60_000, 5_000);
+
+        BackupSimulation.Report r = sim.run();
+
+        assertEquals(r.plannedFiles, r.uploaded + r.failed);
+        assertEquals(r.uploaded, r.historySize);
+        assertEquals(0, r.duplicateUploads);
+        assertTrue(r.failedAttempts.get() > 0);
+        assertTrue("a fault never recovered", r.worstRecoveryMs() >= 0);
+    }
+
+    @Test
+    public void processDeathMidRun_resumesWithoutRepeatingUploads() throws Exception {
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(4, 2, 8, 60, 100 * 1024, 1 * MB);
+        BackupSimulation sim = new BackupSimulation("crash-and-resume").tree(tree).crashAfterFiles(1_800);
+        sim.link(4, 4, 40 * MB);
+
+        BackupSimulation.Report r = sim.run();
+
+        assertEquals(r.plannedFiles, r.uploaded);
+        assertEquals(0, r.duplicateUploads);
+        assertEquals(r.plannedFiles - 1_800, r.resumedFiles);
+    }
+
+    @Test
+    public void targetSleepsMidRun_breakerStopsTheRunInsteadOfRetryingEveryFile() throws Exception {
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(5, 1, 10, 200, 100 * 1024, 1 * MB);
+        BackupSimulation sim = new BackupSimulation("target-sleeps").tree(tree);
+        sim.link(5, 4, 40 * MB).linkDown(20_000, 24 * 3600_000L);
+
+        BackupSimulation.Report r = sim.run();
+
+        // Without the breaker every remaining file would cost three connect timeouts
+        assertNotNull(r.abortReason);
+        assertTrue(r.uploaded > 0);
+        assertEquals(r.plannedFiles, r.uploaded + r.failed + r.deferred);
+        assertTrue("failed " + r.failed, r.failed <= 3);
+        assertTrue("attempts " + r.failedAttempts.get(), r.failedAttempts.get() <= 6);
+        assertTrue("virtual " + r.virtualMs, r.virtualMs < 20_000 + RetryPolicy.DEFAULT_MAX_PAUSE_MS + 120_000);
+        assertEquals(r.uploaded, r.historySize);
+    }
+
+    @Test
+    public void rejectedCredentials_endRunWithoutRetries() throws Exception {
+        SyntheticDocumentTree tree = new SyntheticDocumentTree(6, 0, 0, 500, 100 * 1024, 1 * MB);
+        BackupSimulation sim = new BackupSimulation("rejected-login").tree(tree);
+        sim.link(6, 4, 40 * MB).rejectLogins();
+
+        BackupSimulation.Report r = sim.run();
+
+        assertTrue(r.abortReason, r.abortReason.startsWith("AUTH_FAILED"));
+        assertEquals(0, r.uploaded + r.failed);
+        assertEquals(r.plannedFiles, r.deferred);
+        assertTrue("attempts " + r.failedAttempts.get(), r.failedAttempts.get() <= 4);
+    }
+}
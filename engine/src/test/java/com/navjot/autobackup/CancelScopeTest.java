@@ -0,0 +1,59 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cancellation through a CancelScope, and nested waits on the io pool.
+ */
+public class CancelScopeTest {
+
+    @Test
+    public void cancelReachesEveryStageIncludingLateOnes() {
+        CancelScope scope = new CancelScope();
+        CompletableFuture<String> discovery = scope.track(new CompletableFuture<>());
+        AtomicInteger hooks = new AtomicInteger();
+        scope.onCancel(hooks::incrementAndGet);
+
+        scope.cancel();
+        scope.cancel();
+        assertTrue(discovery.isCancelled());
+        assertEquals(1, hooks.get());
+
+        // A stage registered after the cancel is stopped straight away
+        CompletableFuture<String> upload = scope.track(new CompletableFuture<>());
+        assertTrue(upload.isCancelled());
+    }
+
+    @Test
+    public void ioPoolRunsNestedWaitsWithoutDeadlock() {
+        // A run waits on file workers, which wait on range workers, all on the io pool
+        AppExecutors executors = AppExecutors.get();
+        CountDownLatch ranges = new CountDownLatch(12);
+        CompletableFuture<?>[] files = new CompletableFuture<?>[3];
+        for (int f = 0; f < files.length; f++) {
+            files[f] = CompletableFuture.runAsync(() -> {
+                CompletableFuture<?>[] streams = new CompletableFuture<?>[4];
+                for (int s = 0; s < streams.length; s++) {
+                    streams[s] = CompletableFuture.runAsync(() -> {
+                        ranges.countDown();
+                        try {
+                            ranges.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }, executors.io());
+                }
+                CompletableFuture.allOf(streams).join();
+            }, executors.io());
+        }
+        CompletableFuture.runAsync(() -> CompletableFuture.allOf(files).join(), executors.io()).join();
+        assertEquals(0, ranges.getCount());
+        assertEquals(4, executors.stats().size());
+    }
+}
@@ -0,0 +1,62 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The half-open trial of a CircuitBreaker: one upload goes through, the rest wait.
+ */
+public class CircuitBreakerTest {
+
+    private static CircuitBreaker halfOpen() {
+        CircuitBreaker breaker = new CircuitBreaker(1);
+        breaker.onTransientFailure();
+        assertFalse(breaker.tryAcquire());
+        breaker.onProbe(true);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        return breaker;
+    }
+
+    @Test
+    public void halfOpenAdmitsOneTrialAndReleasesWaitersOnItsOutcome() throws Exception {
+        CircuitBreaker breaker = halfOpen();
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+
+        CompletableFuture<Boolean> other = CompletableFuture.supplyAsync(() -> {
+            if (breaker.tryAcquire()) return true;
+            try {
+                breaker.awaitTrial();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return breaker.tryAcquire();
+        });
+        Thread.sleep(100);
+        assertFalse(other.isDone());
+
+        breaker.onSuccess();
+        assertTrue(other.get(5, TimeUnit.SECONDS));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    public void inconclusiveTrialPassesToTheNextThread() throws Exception {
+        CircuitBreaker breaker = halfOpen();
+        assertTrue(breaker.tryAcquire());
+        assertFalse(CompletableFuture.supplyAsync(breaker::tryAcquire).get(5, TimeUnit.SECONDS));
+
+        // A file error says nothing about the link, so the circuit stays half open
+        breaker.onInconclusive();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(CompletableFuture.supplyAsync(breaker::tryAcquire).get(5, TimeUnit.SECONDS));
+        assertFalse(breaker.tryAcquire());
+
+        breaker.onProbe(true);
+        assertFalse(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,47 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run admission and budgets decided by PowerPolicy for a fake power source.
+ */
+public class PowerPolicyTest {
+
+    private static RunBudget decide(int percent, boolean charging, int thermal, boolean idle, boolean saver) {
+        PowerState state = new PowerState(percent, charging, thermal, idle, saver);
+        return new PowerPolicy(() -> state).decide();
+    }
+
+    @Test
+    public void charging_runsFullThrottle() {
+        RunBudget b = decide(40, true, PowerState.THERMAL_NONE, false, false);
+        assertEquals(RunBudget.Mode.FULL, b.mode);
+        assertEquals(Long.MAX_VALUE, b.byteBudget);
+        assertTrue(b.uploadConcurrency > 1);
+    }
+
+    @Test
+    public void battery_runsTrickleWithByteBudget() {
+        RunBudget high = decide(80, false, PowerState.THERMAL_NONE, false, false);
+        RunBudget low = decide(30, false, PowerState.THERMAL_NONE, false, false);
+        assertEquals(RunBudget.Mode.TRICKLE, high.mode);
+        assertEquals(1, high.uploadConcurrency);
+        assertEquals(PowerPolicy.TRICKLE_HIGH_BUDGET, high.byteBudget);
+        assertEquals(PowerPolicy.TRICKLE_LOW_BUDGET, low.byteBudget);
+    }
+
+    @Test
+    public void severeThermal_pausesEvenWhenCharging() {
+        assertFalse(decide(100, true, PowerState.THERMAL_SEVERE, false, false).isAdmitted());
+        assertEquals(RunBudget.Mode.TRICKLE, decide(100, true, PowerState.THERMAL_MODERATE, false, false).mode);
+    }
+
+    @Test
+    public void lowBatteryIdleOrSaver_pause() {
+        assertFalse(decide(5, false, PowerState.THERMAL_NONE, false, false).isAdmitted());
+        assertFalse(decide(60, false, PowerState.THERMAL_NONE, true, false).isAdmitted());
+        assertFalse(decide(25, false, PowerState.THERMAL_NONE, false, true).isAdmitted());
+    }
+}
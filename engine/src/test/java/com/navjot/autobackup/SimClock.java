@@ -0,0 +1,18 @@
+package com.navjot.autobackup;
+
+/**
+ * Virtual time for simulations. Nothing sleeps: transfers and backoff advance
+ * the clock, so an hour-long scenario runs in the time its bookkeeping takes.
+ */
+class SimClock implements UploadRunner.Clock {
+
+    private long micros = 0;
+
+    @Override public synchronized long now() { return micros / 1000; }
+
+    @Override public synchronized void sleep(long ms) { micros += ms * 1000; }
+
+    synchronized void advanceMicros(long us) { micros += us; }
+
+    synchronized long nowMicros() { return micros; }
+}
@@ -0,0 +1,300 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * In-memory stand-in for an SMB share behind a network link, driven by a
+ * SimClock. Every request costs a round trip plus its bytes over the link
+ * bandwidth; lost packets cost a retransmission timeout; outages reset open
+ * transfers and make connects wait or time out; server errors fail a create.
+ * Failures are thrown as TransferError with the kind SmbjClient would map
+ * the corresponding SMB status or socket error to.
+ *
+ * Uploads are serialised, as they would be on one saturated link, and only
+ * sizes are kept: verification is meaningful up to UploadVerifier.Level.SIZE.
+ */
+class SimulatedSmbTarget implements BackupTransport {
+
+    private static final int RANGE_WRITE = 1024 * 1024;
+    private static final long MIN_RTO_MS = 200;
+    private static final int PROBE_BURST_BYTES = 2 * 1024 * 1024;
+    private static final long REACHABILITY_TIMEOUT_MS = 1500;
+
+    /** A link or server failure and when transfers made progress again. */
+    static class Fault {
+        final String cause;
+        final long onsetMs;
+        long recoveredMs = -1;
+
+        Fault(String cause, long onsetMs) {
+            this.cause = cause;
+            this.onsetMs = onsetMs;
+        }
+
+        long recoveryMs() { return recoveredMs < 0 ? -1 : recoveredMs - onsetMs; }
+    }
+
+    private static class Outage {
+        long startMs, endMs;
+        final String remoteName;
+        final double fraction;
+        final long durationMs;
+
+        Outage(long startMs, long durationMs, String remoteName, double fraction) {
+            this.startMs = startMs;
+            this.endMs = startMs + durationMs;
+            this.durationMs = durationMs;
+            this.remoteName = remoteName;
+            this.fraction = fraction;
+        }
+    }
+
+    private final SimClock clock;
+    private final Random random;
+    private final long rttMs;
+    private final long bytesPerSec;
+    private double lossRate = 0;
+    private double serverErrorRate = 0;
+    private boolean rejectLogins = false;
+    private final List<Outage> outages = new ArrayList<>();
+    private final List<Fault> faults = new ArrayList<>();
+    private final Map<String, Long> files = new HashMap<>();
+    private final Map<String, Integer> completions = new HashMap<>();
+    private TransferTuning tuning = TransferTuning.DEFAULT;
+    private long wireBytes = 0;
+    private int connects = 0;
+
+    SimulatedSmbTarget(SimClock clock, long seed, long rttMs, long bytesPerSec) {
+        this.clock = clock;
+        this.random = new Random(seed);
+        this.rttMs = rttMs;
+        this.bytesPerSec = bytesPerSec;
+    }
+
+    /** Probability that a write request loses a packet and waits for retransmission. */
+    synchronized SimulatedSmbTarget packetLoss(double rate) {
+        this.lossRate = rate;
+        return this;
+    }
+
+    /** Probability that opening a remote file fails with a server status. */
+    synchronized SimulatedSmbTarget serverErrors(double rate) {
+        this.serverErrorRate = rate;
+        return this;
+    }
+
+    /** Fails every session setup as STATUS_LOGON_FAILURE, as after a password change. */
+    synchronized SimulatedSmbTarget rejectLogins() {
+        this.rejectLogins = true;
+        return this;
+    }
+
+    /** Takes the link down at a fixed virtual time. */
+    synchronized SimulatedSmbTarget linkDown(long atMs, long forMs) {
+        outages.add(new Outage(atMs, forMs, null, 0));
+        return this;
+    }
+
+    /** Takes the link down once the given fraction of a range-uploaded file has been written. */
+    synchronized SimulatedSmbTarget dropLinkAt(String remoteName, double fraction, long forMs) {
+        outages.add(new Outage(Long.MAX_VALUE, forMs, remoteName, fraction));
+        return this;
+    }
+
+    @Override
+    public synchronized void setTuning(TransferTuning tuning) {
+        this.tuning = tuning;
+    }
+
+    @Override
+    public synchronized LinkQuality probeLink() {
+        try {
+            connect();
+            write(PROBE_BURST_BYTES, 1);
+            return new LinkQuality(rttMs, bytesPerSec, clock.now());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isReachable() {
+        if (activeOutage() != null) {
+            clock.sleep(REACHABILITY_TIMEOUT_MS);
+            return false;
+        }
+        clock.sleep(rttMs);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean upload(String remoteFileName, InputStream in, UploadVerifier verifier)
+            throws IOException {
+        connect();
+        create(remoteFileName);
+        byte[] buf = new byte[tuning.bufferSize];
+        long written = 0;
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            write(n, 1);
+            if (verifier != null) verifier.observe(buf, 0, n);
+            written += n;
+        }
+        return complete(remoteFileName, written, verifier);
+    }
+
+    @Override
+    public synchronized boolean uploadRanges(String remoteFileName, SeekableSource source, int streams,
+                                             RangeCheckpoint checkpoint, UploadVerifier verifier,
+                                             BackupCrypto.FileEncryptor encryptor) throws IOException {
+        long size = source.size();
+        long remoteSize = encryptor != null ? encryptor.encryptedLength() : size;
+        connect();
+        create(remoteFileName);
+        ByteBuffer bb = ByteBuffer.allocate(RANGE_WRITE);
+        int rangeCount = (int) ((size + RANGE_SIZE - 1) / RANGE_SIZE);
+        for (int range = 0; range < rangeCount; range++) {
+            if (checkpoint.isRangeDone(range)) continue;
+            long offset = range * RANGE_SIZE;
+            long end = Math.min(offset + RANGE_SIZE, size);
+            while (offset < end) {
+                bb.clear();
+                bb.limit((int) Math.min(RANGE_WRITE, end - offset));
+                int n = source.read(bb, offset);
+                if (n <= 0) throw new IOException("Source ended at " + offset + " of " + size);
+                checkTrigger(remoteFileName, offset, n, size);
+                // Parallel streams hide each other's round trips but share the bandwidth
+                write(n, Math.max(1, streams));
+                offset += n;
+            }
+            checkpoint.onRangeDone(range);
+        }
+        if (verifier != null) {
+            if (encryptor != null) {
+                verifier.observeSentLength(remoteSize);
+            } else {
+                verifier.observeSource(source);
+            }
+        }
+        return complete(remoteFileName, remoteSize, verifier);
+    }
+
+    synchronized List<Fault> faults() { return new ArrayList<>(faults); }
+
+    synchronized long wireBytes() { return wireBytes; }
+
+    synchronized int connects() { return connects; }
+
+    /** @return size of a file on the share, or -1 if it was never completed. */
+    synchronized long remoteSize(String remoteFileName) {
+        Long size = files.get(remoteFileName);
+        return size != null ? size : -1;
+    }
+
+    synchronized int completedFiles() { return completions.size(); }
+
+    /** Completions beyond the first of the same name: work the backup repeated. */
+    synchronized int duplicateCompletions() {
+        int duplicates = 0;
+        for (int count : completions.values()) duplicates += count - 1;
+        return duplicates;
+    }
+
+    private void connect() throws IOException {
+        connects++;
+        Outage down = activeOutage();
+        if (down != null) {
+            // SYNs are retried until the connect timeout; the link may return before that
+            long wait = down.endMs - clock.now();
+            if (wait > tuning.timeoutMs) {
+                clock.sleep(tuning.timeoutMs);
+                throw new TransferError(TransferError.Kind.TRANSIENT, "Connect timed out");
+            }
+            clock.sleep(wait);
+        }
+        // Negotiate, session setup and tree connect
+        clock.sleep(3 * rttMs);
+        if (rejectLogins) throw new TransferError(TransferError.Kind.AUTH_FAILED, "STATUS_LOGON_FAILURE");
+    }
+
+    private void create(String remoteFileName) throws IOException {
+        clock.sleep(rttMs);
+        if (random.nextDouble() < serverErrorRate) {
+            faults.add(new Fault("server error on " + remoteFileName, clock.now()));
+            throw new TransferError(TransferError.Kind.TRANSIENT, "STATUS_INSUFFICIENT_RESOURCES");
+        }
+    }
+
+    /** One write request of n bytes; parallel streams overlap their round trips. */
+    private void write(int n, int streams) throws IOException {
+        if (activeOutage() != null) throw new TransferError(TransferError.Kind.TRANSIENT, "Connection reset");
+        long us = n * 1_000_000L / bytesPerSec + rttMs * 1000 / streams;
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            us += Math.max(MIN_RTO_MS, 2 * rttMs) * 1000;
+        }
+        clock.advanceMicros(us);
+        wireBytes += n;
+        for (Fault f : faults) {
+            if (f.recoveredMs < 0) f.recoveredMs = clock.now();
+        }
+    }
+
+    /** Starts a scripted outage if this write crosses its trigger point in the file. */
+    private void checkTrigger(String remoteFileName, long offset, int n, long size) throws IOException {
+        for (Outage o : outages) {
+            if (size < 0 || o.startMs != Long.MAX_VALUE || !remoteFileName.equals(o.remoteName)) continue;
+            long trigger = (long) (size * o.fraction);
+            if (offset <= trigger && trigger < offset + n) {
+                write((int) (trigger - offset), 1);
+                o.startMs = clock.now();
+                o.endMs = o.startMs + o.durationMs;
+                faults.add(new Fault("link dropped at " + Math.round(o.fraction * 100) + "% of "
+                        + remoteFileName, o.startMs));
+                throw new TransferError(TransferError.Kind.TRANSIENT, "Connection reset");
+            }
+        }
+    }
+
+    private Outage activeOutage() {
+        long now = clock.now();
+        for (Outage o : outages) {
+            if (o.startMs <= now && now < o.endMs) {
+                if (o.remoteName == null && !hasFault(o)) {
+                    faults.add(new Fault("link down for " + o.durationMs + " ms", o.startMs));
+                }
+                return o;
+            }
+        }
+        return null;
+    }
+
+    private boolean hasFault(Outage o) {
+        for (Fault f : faults) {
+            if (f.onsetMs == o.startMs && f.cause.startsWith("link down")) return true;
+        }
+        return false;
+    }
+
+    private boolean complete(String remoteFileName, long size, UploadVerifier verifier) throws IOException {
+        clock.sleep(rttMs);
+        if (verifier != null && !verifier.verify(new UploadVerifier.RemoteFile() {
+            @Override public long size() { return size; }
+            @Override public int read(byte[] buf, long fileOffset, int off, int len) throws IOException {
+                throw new IOException("Simulated share keeps no content");
+            }
+        })) {
+            return false;
+        }
+        files.put(remoteFileName, size);
+        Integer count = completions.get(remoteFileName);
+        completions.put(remoteFileName, count == null ? 1 : count + 1);
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * Joining, queueing and budget merging of overlapping requests in a SingleFlight.
+ */
+public class SingleFlightTest {
+
+    private static final RunBudget TRICKLE = new RunBudget(RunBudget.Mode.TRICKLE, 1, 1, 50L << 20, 0, "trickle");
+
+    /** Records each started run; runs end when the test completes their futures. */
+    private static class Runs {
+        final List<SingleFlight.Flight> flights = new ArrayList<>();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        final List<RunBudget> budgets = new ArrayList<>();
+
+        SingleFlight.Task task(String name) {
+            return (flight, budget) -> {
+                CompletableFuture<Void> run = new CompletableFuture<>();
+                flights.add(flight);
+                futures.add(run);
+                names.add(name);
+                budgets.add(budget);
+                return run;
+            };
+        }
+    }
+
+    @Test
+    public void overlappingRequests_shareOneRunAndAtMostOneFollowUp() {
+        SingleFlight single = new SingleFlight();
+        Runs runs = new Runs();
+
+        SingleFlight.Ticket manual = single.submit(RunBudget.unrestricted(), runs.task("manual"));
+        // Still listing: the scheduled tick is served by the same run
+        SingleFlight.Ticket scheduled = single.submit(TRICKLE, runs.task("scheduled"));
+        assertEquals(SingleFlight.Admission.STARTED, manual.admission);
+        assertEquals(SingleFlight.Admission.JOINED, scheduled.admission);
+
+        runs.flights.get(0).markListed();
+        SingleFlight.Ticket second = single.submit(RunBudget.unrestricted(), runs.task("second"));
+        SingleFlight.Ticket third = single.submit(TRICKLE, runs.task("third"));
+        assertEquals(SingleFlight.Admission.QUEUED, second.admission);
+        assertEquals(SingleFlight.Admission.QUEUED, third.admission);
+        assertEquals(1, runs.names.size());
+
+        runs.futures.get(0).complete(null);
+        assertTrue(manual.done.isDone() && scheduled.done.isDone());
+        assertFalse(second.done.isDone());
+        // One delta run, with the latest request's task but the manual request's budget
+        assertEquals(2, runs.names.size());
+        assertEquals("third", runs.names.get(1));
+        assertEquals(Long.MAX_VALUE, runs.budgets.get(1).byteBudget);
+
+        runs.futures.get(1).complete(null);
+        assertTrue(second.done.isDone() && third.done.isDone());
+        assertFalse(single.isRunning());
+        assertEquals(SingleFlight.Admission.STARTED,
+                single.submit(TRICKLE, runs.task("later")).admission);
+    }
+
+    @Test
+    public void manualRequest_doesNotJoinATrickleRun() {
+        SingleFlight single = new SingleFlight();
+        Runs runs = new Runs();
+
+        single.submit(TRICKLE, runs.task("scheduled"));
+        SingleFlight.Ticket manual = single.submit(RunBudget.unrestricted(), runs.task("manual"));
+        assertEquals(SingleFlight.Admission.QUEUED, manual.admission);
+
+        runs.futures.get(0).complete(null);
+        assertEquals("manual", runs.names.get(1));
+        assertEquals(RunBudget.Mode.FULL, runs.budgets.get(1).mode);
+        assertEquals(Long.MAX_VALUE, runs.budgets.get(1).byteBudget);
+    }
+
+    @Test
+    public void followUp_startsAfterTheFirstRunsRequestersAreDone() {
+        SingleFlight single = new SingleFlight();
+        List<String> events = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        SingleFlight.Task task = (flight, budget) -> {
+            // Lock-free check: submit from another thread must not block on a starting task
+            assertFalse(Thread.holdsLock(single));
+            events.add("start");
+            CompletableFuture<Void> run = new CompletableFuture<>();
+            futures.add(run);
+            flight.markListed();
+            return run;
+        };
+
+        SingleFlight.Ticket first = single.submit(TRICKLE, task);
+        first.done.thenRun(() -> events.add("first done"));
+        single.submit(TRICKLE, task);
+        futures.get(0).complete(null);
+
+        assertEquals(3, events.size());
+        assertEquals("first done", events.get(1));
+        assertEquals("start", events.get(2));
+        assertTrue(single.isRunning());
+    }
+
+    @Test
+    public void waiterGivingUp_doesNotStopTheRun_butCancelStopsBoth() {
+        SingleFlight single = new SingleFlight();
+        Runs runs = new Runs();
+
+        single.submit(TRICKLE, runs.task("scheduled"));
+        SingleFlight.Ticket joined = single.submit(TRICKLE, runs.task("manual"));
+        joined.done.cancel(true);
+        assertFalse(runs.futures.get(0).isCancelled());
+
+        runs.flights.get(0).markListed();
+        SingleFlight.Ticket queued = single.submit(TRICKLE, runs.task("next"));
+        single.cancel();
+        assertTrue(runs.futures.get(0).isCancelled());
+        assertTrue(queued.done.isCompletedExceptionally());
+        assertEquals(1, runs.names.size());
+        assertFalse(single.isRunning());
+    }
+}
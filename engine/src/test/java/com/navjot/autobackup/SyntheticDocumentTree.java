@@ -0,0 +1,142 @@
+package com.navjot.autobackup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A generated document tree standing in for a SAF provider. The shape is a
+ * full tree of the given depth and fan-out; names, sizes and dates derive from
+ * the seed and the document id, so the same parameters list the same files.
+ * File content is never materialised: reads report bytes without filling them.
+ */
+class SyntheticDocumentTree implements DocumentLister {
+
+    private static final String ROOT = "root";
+    private static final long BASE_TIME = 1_700_000_000_000L;
+    private static final long YEAR_MS = 365L * 24 * 3600 * 1000;
+    private static final String[] EXTENSIONS = { "jpg", "jpg", "jpg", "heic", "png", "mp4", "pdf", "txt" };
+
+    private final long seed;
+    private final int depth, dirsPerDir, filesPerDir;
+    private final long minSize, maxSize;
+    private final Map<String, Long> extraRootFiles = new LinkedHashMap<>();
+    private boolean cameraNames;
+
+    SyntheticDocumentTree(long seed, int depth, int dirsPerDir, int filesPerDir, long minSize, long maxSize) {
+        this.seed = seed;
+        this.depth = depth;
+        this.dirsPerDir = dirsPerDir;
+        this.filesPerDir = filesPerDir;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /** Adds a file of a fixed size to the root, e.g. one large video. */
+    SyntheticDocumentTree withRootFile(String name, long size) {
+        extraRootFiles.put(name, size);
+        return this;
+    }
+
+    /** Names files IMG_0, IMG_1, ... in every directory, as cameras do, instead of unique ones. */
+    SyntheticDocumentTree withCameraNames() {
+        cameraNames = true;
+        return this;
+    }
+
+    int fileCount() {
+        long dirs = 0, level = 1;
+        for (int d = 0; d <= depth; d++) {
+            dirs += level;
+            level *= dirsPerDir;
+        }
+        return (int) (dirs * filesPerDir) + extraRootFiles.size();
+    }
+
+    @Override public String rootDocumentId(String treeUri) { return ROOT; }
+
+    @Override public String documentUri(String treeUri, String documentId) {
+        return treeUri + "/document/" + documentId;
+    }
+
+    @Override
+    public void listChildren(String treeUri, String parentDocumentId, ChildVisitor visitor) throws IOException {
+        int level = 0;
+        for (int i = 0; i < parentDocumentId.length(); i++) {
+            if (parentDocumentId.charAt(i) == '/') level++;
+        }
+        if (level < depth) {
+            for (int i = 0; i < dirsPerDir; i++) {
+                visitor.onChild(parentDocumentId + "/d" + i, "dir" + i, DIRECTORY_MIME, 0, 0);
+            }
+        }
+        String prefix = cameraNames ? "IMG" : parentDocumentId.replace(ROOT, "IMG").replace("/d", "_");
+        for (int j = 0; j < filesPerDir; j++) {
+            String id = parentDocumentId + "/f" + j;
+            long h = mix(seed ^ id.hashCode() * 0x9E3779B97F4A7C15L);
+            String ext = EXTENSIONS[(int) ((h >>> 8) % EXTENSIONS.length)];
+            long size = minSize + (h >>> 1) % (maxSize - minSize + 1);
+            long modified = BASE_TIME + (h >>> 24) % YEAR_MS;
+            visitor.onChild(id, prefix + "_" + j + "." + ext, "application/octet-stream", size, modified);
+        }
+        if (level == 0) {
+            for (Map.Entry<String, Long> e : extraRootFiles.entrySet()) {
+                visitor.onChild(ROOT + "/" + e.getKey(), e.getKey(), "video/mp4", e.getValue(), BASE_TIME);
+            }
+        }
+    }
+
+    /** Opens planned items as content of their listed size. */
+    UploadRunner.Source source() {
+        return new UploadRunner.Source() {
+            @Override public InputStream open(BackupItem item) { return new SyntheticStream(item.size); }
+            @Override public SeekableSource openSeekable(BackupItem item) { return new SyntheticSeekable(item.size); }
+            @Override public long lastModified(BackupItem item) { return item.lastModified; }
+        };
+    }
+
+    /** SplitMix64 finaliser; non-negative result. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) & Long.MAX_VALUE;
+    }
+
+    private static class SyntheticStream extends InputStream {
+        private long remaining;
+
+        SyntheticStream(long size) { this.remaining = size; }
+
+        @Override public int read() {
+            if (remaining <= 0) return -1;
+            remaining--;
+            return 0;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) return -1;
+            int n = (int) Math.min(len, remaining);
+            remaining -= n;
+            return n;
+        }
+    }
+
+    private static class SyntheticSeekable implements SeekableSource {
+        private final long size;
+
+        SyntheticSeekable(long size) { this.size = size; }
+
+        @Override public long size() { return size; }
+
+        @Override public int read(ByteBuffer dst, long position) {
+            if (position >= size) return -1;
+            int n = (int) Math.min(dst.remaining(), size - position);
+            dst.position(dst.position() + n);
+            return n;
+        }
+
+        @Override public void close() { }
+    }
+}
@@ -0,0 +1,41 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upload time estimates fitted by ThroughputHistory from past runs.
+ */
+public class ThroughputHistoryTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void fitSeparatesPerFileCostFromRate() {
+        // 50 ms per file plus 10 MB/s, over runs of photos, videos and a mix
+        ThroughputHistory history = new ThroughputHistory();
+        int[] files = { 400, 3, 120, 800 };
+        long[] bytes = { 1200 * MB, 3000 * MB, 900 * MB, 2000 * MB };
+        for (int i = 0; i < files.length; i++) {
+            history.record(files[i], bytes[i], files[i] * 50L + bytes[i] * 100 / MB);
+        }
+        assertEquals(5_000 * 50L + 100 * 100L, history.estimateMs(5_000, 100 * MB), 1_000);
+        assertEquals(2 * 50L + 4000 * 100L, history.estimateMs(2, 4000 * MB), 1_000);
+
+        ThroughputHistory restored = ThroughputHistory.parse(history.serialize());
+        assertEquals(history.estimateMs(5_000, 100 * MB), restored.estimateMs(5_000, 100 * MB));
+    }
+
+    @Test
+    public void sameShapedRunsFallBackToAverageRate_andWindowRolls() {
+        ThroughputHistory history = new ThroughputHistory();
+        assertEquals(-1, history.estimateMs(10, 10 * MB));
+        assertFalse(history.record(5, 1024, 100));
+        for (int i = 0; i < ThroughputHistory.WINDOW + 4; i++) {
+            history.record(100, 500 * MB, 100_000);
+        }
+        assertEquals(ThroughputHistory.WINDOW, history.samples().size());
+        assertEquals(20_000, history.estimateMs(7, 100 * MB));
+    }
+}
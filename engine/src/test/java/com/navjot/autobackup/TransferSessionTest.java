@@ -0,0 +1,59 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Wake and Wi-Fi locks of a TransferSession: held while bytes flow, released
+ * when idle, with the held time accounted per lock.
+ */
+public class TransferSessionTest {
+
+    private static class FakeLock implements TransferSession.Lock {
+        boolean held;
+        int acquires;
+        @Override public String name() { return "fake"; }
+        @Override public void acquire(long timeoutMs) { held = true; acquires++; }
+        @Override public void release() { held = false; }
+    }
+
+    @Test
+    public void locksFollowByteFlow_andHeldTimeIsAccounted() {
+        SimClock clock = new SimClock();
+        FakeLock lock = new FakeLock();
+        TransferSession session = new TransferSession(Collections.<TransferSession.Lock>singletonList(lock), clock);
+
+        session.releaseIfIdle();
+        assertFalse(lock.held);
+        session.onBytes(1024);
+        session.onBytes(1024);
+        assertTrue(lock.held);
+        assertEquals(1, lock.acquires);
+
+        // Bytes keep flowing: the lock stays and its timeout is renewed
+        for (int i = 0; i < 12; i++) {
+            clock.sleep(60_000);
+            session.onBytes(1024);
+            session.releaseIfIdle();
+        }
+        assertTrue(lock.held);
+        assertTrue(lock.acquires > 1);
+
+        // A stall such as a breaker pause releases it
+        clock.sleep(TransferSession.IDLE_RELEASE_MS);
+        session.releaseIfIdle();
+        assertFalse(lock.held);
+        assertEquals(12 * 60_000L + TransferSession.IDLE_RELEASE_MS, (long) session.heldMs().get("fake"));
+
+        session.onBytes(1024);
+        clock.sleep(5_000);
+        session.close();
+        assertFalse(lock.held);
+        assertEquals(12 * 60_000L + TransferSession.IDLE_RELEASE_MS + 5_000, (long) session.heldMs().get("fake"));
+        session.onBytes(1024);
+        assertFalse(lock.held);
+    }
+}
@@ -0,0 +1,172 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Range uploads retried after a failed read-back, resumed after a crash, or
+ * refused for a file that changed since it was listed.
+ */
+public class UploadRunnerTest {
+
+    private static final long SIZE = UploadRunner.LARGE_FILE_THRESHOLD + 1;
+    private static final int RANGES = (int) ((SIZE + BackupTransport.RANGE_SIZE - 1) / BackupTransport.RANGE_SIZE);
+    private static final BackupItem VIDEO = new BackupItem("tree", "", "tree/document/v", "VID.mp4",
+            SIZE, 1_700_000_000_000L);
+    private static final byte[] RECORDED_ID = BackupCrypto.newFileId();
+
+    /** Writes every range not checkpointed yet; the read-back fails for the first few calls. */
+    private static class ScriptedTarget implements BackupTransport {
+        final List<Integer> written = new ArrayList<>();
+        int failedVerifications;
+
+        ScriptedTarget(int failedVerifications) {
+            this.failedVerifications = failedVerifications;
+        }
+
+        @Override public void setTuning(TransferTuning tuning) { }
+        @Override public LinkQuality probeLink() { return null; }
+        @Override public boolean isReachable() { return true; }
+
+        @Override public boolean upload(String remoteFileName, InputStream in, UploadVerifier verifier) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override public synchronized boolean uploadRanges(String remoteFileName, SeekableSource source,
+                                                           int streams, RangeCheckpoint checkpoint,
+                                                           UploadVerifier verifier,
+                                                           BackupCrypto.FileEncryptor encryptor) {
+            for (int range = 0; range < RANGES; range++) {
+                if (checkpoint.isRangeDone(range)) continue;
+                written.add(range);
+                checkpoint.onRangeDone(range);
+            }
+            return failedVerifications-- <= 0;
+        }
+    }
+
+    /** A runner whose source now has the given size and modification time. */
+    private static UploadRunner runner(BackupTransport target, BackupJournal journal, long size, long modified) {
+        UploadRunner runner = new UploadRunner(target, new UploadRunner.Source() {
+            @Override public InputStream open(BackupItem item) { throw new UnsupportedOperationException(); }
+            @Override public SeekableSource openSeekable(BackupItem item) {
+                return new SeekableSource() {
+                    @Override public long size() { return size; }
+                    @Override public int read(ByteBuffer dst, long position) { return -1; }
+                    @Override public void close() { }
+                };
+            }
+            @Override public long lastModified(BackupItem item) { return modified; }
+        }, journal, item -> { });
+        runner.setExecutor(Runnable::run);
+        runner.setClock(new UploadRunner.Clock() {
+            @Override public long now() { return 0; }
+            @Override public void sleep(long ms) { }
+        });
+        return runner;
+    }
+
+    @Test
+    public void failedReadBack_rewritesEveryRangeOnRetry() throws Exception {
+        File file = File.createTempFile("journal", ".log");
+        try {
+            BackupJournal journal = new BackupJournal(file);
+            List<BackupItem> items = Collections.singletonList(VIDEO);
+            journal.beginRun("10.0.0.2", "Backup", "", items);
+            ScriptedTarget target = new ScriptedTarget(1);
+
+            UploadRunner.Result result = runner(target, journal, SIZE, VIDEO.lastModified).run(items, RunBudget.unrestricted());
+
+            assertEquals(1, result.uploaded);
+            assertEquals(2 * RANGES, target.written.size());
+            journal.finishRun();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /** Resumes a run that recorded ranges 0 and 1 of VIDEO under an encryption id. */
+    private static List<byte[]> resume(long modified, ScriptedTarget target) throws Exception {
+        File file = File.createTempFile("journal", ".log");
+        try {
+            List<BackupItem> items = Collections.singletonList(VIDEO);
+            BackupJournal crashed = new BackupJournal(file);
+            crashed.beginRun("10.0.0.2", "Backup", "", items);
+            crashed.setFileId(VIDEO, RECORDED_ID);
+            crashed.markRangeDone(VIDEO, 0);
+            crashed.markRangeDone(VIDEO, 1);
+
+            BackupJournal journal = new BackupJournal(file);
+            journal.resumeRun(journal.recover());
+            BackupCrypto.MasterKey key = BackupCrypto.deriveKey("secret".toCharArray(), BackupCrypto.newSalt(), 1000);
+            List<byte[]> ids = new ArrayList<>();
+            UploadRunner runner = runner(target, journal, SIZE, modified);
+            runner.setPolicy(new UploadRunner.FilePolicy() {
+                @Override public UploadVerifier.Level verifyLevel(BackupItem item) {
+                    return UploadVerifier.Level.SIZE;
+                }
+                @Override public BackupCrypto.FileEncryptor encryptorFor(BackupItem item, byte[] fileId)
+                        throws GeneralSecurityException {
+                    ids.add(fileId);
+                    return BackupCrypto.newFile(key, BackupCrypto.Algorithm.AES_GCM,
+                            BackupCrypto.DEFAULT_CHUNK_SIZE, item.size, fileId);
+                }
+            });
+            assertEquals(1, runner.run(items, RunBudget.unrestricted()).uploaded);
+            journal.finishRun();
+            return ids;
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void unchangedFile_resumesUnderItsRecordedId() throws Exception {
+        ScriptedTarget target = new ScriptedTarget(0);
+        List<byte[]> ids = resume(VIDEO.lastModified, target);
+        assertArrayEquals(RECORDED_ID, ids.get(0));
+        assertEquals(RANGES - 2, target.written.size());
+    }
+
+    @Test
+    public void fileChangedBeforeResume_startsOverUnderANewId() throws Exception {
+        ScriptedTarget target = new ScriptedTarget(0);
+        List<byte[]> ids = resume(VIDEO.lastModified + 1000, target);
+        // Reusing the id would seal new content under nonces already used
+        assertFalse(Arrays.equals(RECORDED_ID, ids.get(0)));
+        assertEquals(RANGES, target.written.size());
+    }
+
+    @Test
+    public void fileGrownSinceListing_isRefusedWithoutWritingARange() throws Exception {
+        File file = File.createTempFile("journal", ".log");
+        try {
+            BackupJournal journal = new BackupJournal(file);
+            List<BackupItem> items = Collections.singletonList(VIDEO);
+            journal.beginRun("10.0.0.2", "Backup", "", items);
+            ScriptedTarget target = new ScriptedTarget(0);
+
+            UploadRunner.Result result = runner(target, journal, SIZE + 4096, VIDEO.lastModified)
+                    .run(items, RunBudget.unrestricted());
+
+            assertEquals(1, result.failed);
+            assertTrue(target.written.isEmpty());
+            journal.finishRun();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}
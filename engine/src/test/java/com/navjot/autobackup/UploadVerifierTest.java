@@ -0,0 +1,97 @@
+package com.navjot.autobackup;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Read-back of range uploads, whose preallocated remote file always has the
+ * expected size.
+ */
+public class UploadVerifierTest {
+
+    private static final int RANGE = 256 * 1024;
+    private static final int CHUNK = 4096;
+
+    private static byte[] random(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+
+    private static SeekableSource source(byte[] data) {
+        return new SeekableSource() {
+            @Override public long size() { return data.length; }
+            @Override public int read(ByteBuffer dst, long position) {
+                if (position >= data.length) return -1;
+                int n = (int) Math.min(dst.remaining(), data.length - position);
+                dst.put(data, (int) position, n);
+                return n;
+            }
+            @Override public void close() {}
+        };
+    }
+
+    private static UploadVerifier.RemoteFile remote(byte[] data) {
+        return new UploadVerifier.RemoteFile() {
+            @Override public long size() { return data.length; }
+            @Override public int read(byte[] buf, long fileOffset, int off, int len) {
+                int n = (int) Math.min(len, data.length - fileOffset);
+                if (n <= 0) return -1;
+                System.arraycopy(data, (int) fileOffset, buf, off, n);
+                return n;
+            }
+        };
+    }
+
+    private static boolean verify(UploadVerifier.Level level, byte[] local, byte[] remote,
+                                  BackupCrypto.FileEncryptor enc) throws IOException {
+        return new UploadVerifier(level, enc != null ? enc.encryptedLength() : local.length)
+                .verifyRanges(remote(remote), source(local), RANGE, enc);
+    }
+
+    @Test
+    public void missingOrTornRange_failsEvenAtSizeLevel() throws Exception {
+        byte[] local = random(3 * RANGE + 1000);
+        assertTrue(verify(UploadVerifier.Level.SIZE, local, local.clone(), null));
+
+        // Preallocated but never written: zeros of the right length
+        byte[] missing = local.clone();
+        Arrays.fill(missing, RANGE, 2 * RANGE, (byte) 0);
+        assertFalse(verify(UploadVerifier.Level.SIZE, local, missing, null));
+
+        // Written front to back and cut off: the tail is what is lost
+        byte[] torn = local.clone();
+        Arrays.fill(torn, 2 * RANGE - 1000, 2 * RANGE, (byte) 0);
+        assertFalse(verify(UploadVerifier.Level.SAMPLED, local, torn, null));
+
+        byte[] flipped = local.clone();
+        flipped[RANGE + 10] ^= 1;
+        assertTrue(verify(UploadVerifier.Level.SIZE, local, flipped, null));
+        assertFalse(verify(UploadVerifier.Level.FULL, local, flipped, null));
+    }
+
+    @Test
+    public void encryptedRanges_areComparedAfterSealingAgain() throws Exception {
+        BackupCrypto.MasterKey key = BackupCrypto.deriveKey("pass".toCharArray(), BackupCrypto.newSalt(), 1000);
+        byte[] local = random(2 * RANGE + 5000);
+        BackupCrypto.FileEncryptor enc = BackupCrypto.newFile(key, BackupCrypto.Algorithm.AES_GCM, CHUNK,
+                local.length, BackupCrypto.newFileId());
+        byte[] uploaded = new byte[(int) enc.encryptedLength()];
+        System.arraycopy(enc.header(), 0, uploaded, 0, BackupCrypto.HEADER_SIZE);
+        for (int c = 0; c * CHUNK < local.length; c++) {
+            int len = Math.min(CHUNK, local.length - c * CHUNK);
+            enc.encryptChunk(c, local, c * CHUNK, len, uploaded, (int) enc.chunkOffset(c));
+        }
+        assertTrue(verify(UploadVerifier.Level.FULL, local, uploaded, enc));
+
+        byte[] missing = uploaded.clone();
+        Arrays.fill(missing, (int) enc.chunkOffset(RANGE / CHUNK), (int) enc.chunkOffset(2 * RANGE / CHUNK), (byte) 0);
+        assertFalse(verify(UploadVerifier.Level.SIZE, local, missing, enc));
+    }
+}